@@ -0,0 +1,78 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random reads and updates of single accounts in the two storage engines: FileAccountStore,
+ * which reads a file and writes a forced temporary file and a rename per update, against
+ * MappedAccountStore, which touches one slot of mapped memory. The mapped store's updates are
+ * made durable by the next sync, which the transaction log calls at every checkpoint, so they
+ * are not forced here. Run with -t to see how each engine behaves under concurrent access.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountStoreBenchmark {
+
+    @Param({"files", "mapped"})
+    public String engine;
+
+    @Param({"10000", "100000"})
+    public int accounts;
+
+    private File dir;
+    private AccountStore store;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.create(accounts);
+        store = new FileAccountStore(dir);
+        if (engine.equals("mapped")) {
+            AccountStore files = store;
+            store = MappedAccountStore.open(dir);
+            AccountStore.copy(files, store);
+        }
+        usernames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "c" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public CustomerRecord randomRead() throws IOException {
+        return store.read(usernames[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+
+    @Benchmark
+    public void randomUpdate() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        store.write(new CustomerRecord(usernames[random.nextInt(accounts)], "", "Customer",
+                Money.dollars(1000) + random.nextInt(100)));
+    }
+}
@@ -0,0 +1,102 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding customers by level and by balance range, and summing the bank-wide totals, through the
+ * balance index and by reading every customer from the store as was needed before the index
+ * existed. One customer in a hundred is Platinum; the others hold $1000 to $1099.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BalanceIndexBenchmark {
+
+    @Param({"10000", "100000"})
+    public int customers;
+
+    private File dir;
+    private Level platinum;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.create(customers,
+                i -> i % 100 == 0 ? Money.dollars(25000) : Money.dollars(1000 + i % 100));
+        System.setProperty("bank.database.dir", dir.getPath() + File.separator);
+        platinum = Database.getTiers().levelFor(Money.dollars(25000));
+        Database.getBalanceIndex().findByLevel(platinum); // Builds the index before measuring
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() throws IOException {
+        Database.getLog().close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> indexedByLevel() {
+        return Database.getBalanceIndex().findByLevel(platinum);
+    }
+
+    @Benchmark
+    public List<String> indexedByBalance() {
+        return Database.getBalanceIndex().findByBalance(Money.dollars(1010), Money.dollars(1019));
+    }
+
+    @Benchmark
+    public BankTotals indexedTotals() {
+        return Database.getBalanceIndex().getTotals();
+    }
+
+    @Benchmark
+    public long[] scanTotals() throws IOException {
+        long[] sums = new long[Database.getTiers().getLevels().size()];
+        for (String username : Database.getStore().listUsernames()) {
+            long balance = Database.getStore().read(username).getBalance();
+            sums[Database.getTiers().indexFor(balance)] += balance;
+        }
+        return sums;
+    }
+
+    @Benchmark
+    public List<String> scanByLevel() throws IOException {
+        List<String> result = new ArrayList<>();
+        for (String username : Database.getStore().listUsernames()) {
+            if (Database.getTiers().levelFor(Database.getStore().read(username).getBalance()) == platinum) {
+                result.add(username);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> scanByBalance() throws IOException {
+        List<String> result = new ArrayList<>();
+        for (String username : Database.getStore().listUsernames()) {
+            long balance = Database.getStore().read(username).getBalance();
+            if (balance >= Money.dollars(1010) && balance <= Money.dollars(1019)) {
+                result.add(username);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Creates throwaway databases of synthetic customers for the benchmarks.
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Creates a temporary database directory holding customer files c0 .. c(customers - 1), each
+     * with a balance of $1000.
+     *
+     * @param customers the number of customers
+     * @return the database directory
+     */
+    static File create(int customers) throws IOException {
+        return create(customers, i -> Money.dollars(1000));
+    }
+
+    /**
+     * Creates a temporary database directory holding customer files c0 .. c(customers - 1).
+     *
+     * @param customers the number of customers
+     * @param balanceOf the balance in cents of each customer, by number
+     * @return the database directory
+     */
+    static File create(int customers, IntToLongFunction balanceOf) throws IOException {
+        File dir = Files.createTempDirectory("bank-bench").toFile();
+        for (int i = 0; i < customers; i++) {
+            String text = "c" + i + "\npassword\nCustomer\n" + Money.format(balanceOf.applyAsLong(i)) + "\n";
+            Files.write(new File(dir, "c" + i).toPath(), text.getBytes(StandardCharsets.UTF_8));
+        }
+        return dir;
+    }
+
+    /**
+     * Creates a database and makes it the one used by Database, Customer and Manager. Must be
+     * called before any of them is used in the benchmark JVM.
+     *
+     * @param customers the number of customers
+     * @return the database directory
+     */
+    static File install(int customers) throws IOException {
+        File dir = create(customers);
+        System.setProperty("bank.database.dir", dir.getPath() + File.separator);
+        return dir;
+    }
+
+    /**
+     * Deletes a database directory created by create.
+     *
+     * @param dir the database directory
+     */
+    static void delete(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+        Files.delete(dir.toPath());
+    }
+}
@@ -0,0 +1,88 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and parsing one customer record in the binary format of the CustomerRecordCodec and
+ * in the legacy text layout, as FileAccountStore does for each customer file. The setup
+ * round-trips a few thousand random records through the codec first and fails the run if any of
+ * them comes back different.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private static final File FILE = new File("bench");
+
+    private final CustomerRecord record = new CustomerRecord("customer12345", "password12345", "Customer", 123456789);
+    private final ByteBuffer buffer = ByteBuffer.allocate(CustomerRecordCodec.MAX_SIZE);
+    private byte[] binary;
+    private byte[] text;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            CustomerRecord expected = new CustomerRecord("user" + random.nextInt() + "\u00e9\u4e2d",
+                    Long.toHexString(random.nextLong()), random.nextBoolean() ? "Manager" : "Customer",
+                    random.nextLong());
+            buffer.clear();
+            CustomerRecordCodec.encode(expected, buffer);
+            CustomerRecord actual = FileAccountStore.parse(buffer.array(), buffer.position(), FILE);
+            if (!actual.getUsername().equals(expected.getUsername())
+                    || !actual.getPassword().equals(expected.getPassword())
+                    || !actual.getRole().equals(expected.getRole()) || actual.getBalance() != expected.getBalance()) {
+                throw new IllegalStateException("Record " + expected.getUsername() + " did not round-trip.");
+            }
+        }
+        buffer.clear();
+        CustomerRecordCodec.encode(record, buffer);
+        binary = Arrays.copyOf(buffer.array(), buffer.position());
+        text = formatText().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int encodeBinary() {
+        buffer.clear();
+        CustomerRecordCodec.encode(record, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public String formatText() {
+        StringBuilder out = new StringBuilder(64);
+        out.append(record.getUsername()).append('\n').append(record.getPassword()).append('\n')
+                .append(record.getRole()).append('\n');
+        return Money.appendTo(out, record.getBalance()).append('\n').toString();
+    }
+
+    @Benchmark
+    public CustomerRecord parseBinary() throws IOException {
+        return FileAccountStore.parse(binary, binary.length, FILE);
+    }
+
+    @Benchmark
+    public CustomerRecord parseText() throws IOException {
+        return FileAccountStore.parse(text, text.length, FILE);
+    }
+}
@@ -0,0 +1,89 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Customer operations end to end, including the cost of making each change durable.
+ *
+ * Every thread works on its own customer. Run with -t to see how the commit pipeline behaves
+ * under concurrent tellers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerBenchmark {
+
+    private static final int CUSTOMERS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class BankState {
+
+        File dir;
+        final AtomicInteger nextCustomer = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkDatabase.install(CUSTOMERS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Database.getPipeline().close();
+            Database.getLog().close();
+            BenchmarkDatabase.delete(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TellerState {
+
+        String username;
+        Customer customer;
+
+        @Setup(Level.Trial)
+        public void setUp(BankState bank) {
+            username = "c" + bank.nextCustomer.getAndIncrement() % CUSTOMERS;
+            customer = new Customer(username);
+        }
+    }
+
+    @Benchmark
+    public long deposit(TellerState teller) {
+        teller.customer.deposit(100);
+        return teller.customer.getBalance();
+    }
+
+    @Benchmark
+    public boolean depositThenWithdraw(TellerState teller) {
+        teller.customer.deposit(100);
+        return teller.customer.withdraw(100);
+    }
+
+    @Benchmark
+    public boolean depositThenPurchase(TellerState teller) {
+        teller.customer.deposit(Money.dollars(100));
+        return teller.customer.doOnlinePurchase(Money.dollars(50));
+    }
+
+    @Benchmark
+    public Customer loadFromDisk(TellerState teller) {
+        return new Customer(teller.username);
+    }
+}
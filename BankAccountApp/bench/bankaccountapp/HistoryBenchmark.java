@@ -0,0 +1,80 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queries on the transaction history of one large account with one transaction a minute: the last
+ * twenty transactions, one day in the middle of the history through the segment names and binary
+ * search, and the same day found by reading the whole history as a scan would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    private static final long MINUTE = 60_000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    @Param({"100000", "1000000"})
+    public int transactions;
+
+    private File dir;
+    private TransactionHistory history;
+    private long dayStart;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bank-bench").toFile();
+        history = new TransactionHistory(dir, TransactionHistory.DEFAULT_OPEN_ACCOUNTS);
+        for (int i = 0; i < transactions; i++) {
+            history.append("bench", i * MINUTE, Transaction.Type.DEPOSIT, 100, 0, 100L * (i + 1));
+        }
+        dayStart = transactions / 2 * MINUTE;
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() throws IOException {
+        history.close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public List<Transaction> lastTwenty() throws IOException {
+        return history.last("bench", 20);
+    }
+
+    @Benchmark
+    public List<Transaction> oneDay() throws IOException {
+        return history.between("bench", dayStart, dayStart + DAY - 1, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long oneDayByFullScan() throws IOException {
+        long found = 0;
+        for (Transaction transaction : history.last("bench", transactions)) {
+            if (transaction.getTime() >= dayStart && transaction.getTime() < dayStart + DAY) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
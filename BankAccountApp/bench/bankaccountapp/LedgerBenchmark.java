@@ -0,0 +1,56 @@
+package bankaccountapp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * In-memory ledger operations on random accounts, without persistence. Run with -t 1, 2, 4 ...
+ * to see how throughput scales with cores; fewer accounts means more contention per account.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LedgerBenchmark {
+
+    @Param({"16", "100000"})
+    public int accounts;
+
+    private Ledger ledger;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() {
+        ledger = new Ledger();
+        usernames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "c" + i;
+            ledger.open(usernames[i], Money.dollars(1000));
+        }
+    }
+
+    @Benchmark
+    public long deposit() {
+        return ledger.get(usernames[ThreadLocalRandom.current().nextInt(accounts)]).deposit(100);
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        CustomerAccount account = ledger.get(usernames[ThreadLocalRandom.current().nextInt(accounts)]);
+        account.deposit(100);
+        return account.withdraw(100);
+    }
+}
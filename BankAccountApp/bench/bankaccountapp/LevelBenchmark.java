@@ -0,0 +1,59 @@
+package bankaccountapp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Level resolution from a balance, as done by Customer.updateLevel on every balance change.
+ * Run with -prof gc to see the allocation rate: levelFor looks up the shared levels of the tier
+ * table and should report ~0 B/op, while allocatingLevelFor reproduces the former lookup that
+ * created a new level object per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelBenchmark {
+
+    private final long[] balances = new long[1024];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < balances.length; i++) {
+            balances[i] = (long) (random.nextDouble() * Money.dollars(30000));
+        }
+    }
+
+    @Benchmark
+    public Level levelFor() {
+        next = (next + 1) & (balances.length - 1);
+        return Customer.levelFor(balances[next]);
+    }
+
+    @Benchmark
+    public Level allocatingLevelFor() {
+        next = (next + 1) & (balances.length - 1);
+        long balance = balances[next];
+        if (balance >= Money.dollars(20000)) {
+            return new Platinum();
+        } else if (balance >= Money.dollars(10000)) {
+            return new Gold();
+        } else {
+            return new Silver();
+        }
+    }
+}
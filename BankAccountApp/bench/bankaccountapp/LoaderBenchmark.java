@@ -0,0 +1,69 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading every customer file of a database directory with FileAccountStore.readAll, which uses
+ * the fork-join AccountLoader, at increasing parallelism, against reading them one by one
+ * through the store. Run it on a machine
+ * with at least as many cores as the highest parallelism; past the core count only the overlap
+ * of disk reads helps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int files;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private File dir;
+    private FileAccountStore store;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.create(files);
+        store = new FileAccountStore(dir);
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public Map<String, CustomerRecord> forkJoin() throws IOException {
+        return store.readAll(parallelism);
+    }
+
+    @Benchmark
+    public Map<String, CustomerRecord> oneByOne() throws IOException {
+        Map<String, CustomerRecord> records = new HashMap<>();
+        for (String username : store.listUsernames()) {
+            records.put(username, store.read(username));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,64 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Login throughput of the credential store at several PBKDF2 iteration counts: a full hash, as
+ * on the first login, and a verification served from the cache, as on later requests of a session.
+ * Run with -t to see the hashing threads saturate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+
+    @Param({"1000", "10000", "100000", "300000"})
+    public int iterations;
+
+    private File dir;
+    private CredentialStore credentials;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bank-bench").toFile();
+        credentials = CredentialStore.open(dir, iterations, CredentialStore.DEFAULT_CACHE_SIZE,
+                CredentialStore.DEFAULT_THREADS);
+        credentials.set("c0", "password", "Customer");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        credentials.close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public boolean hashedLogin() {
+        credentials.invalidate("c0");
+        return credentials.verify("c0", "password", "Customer");
+    }
+
+    @Benchmark
+    public boolean cachedLogin() {
+        return credentials.verify("c0", "password", "Customer");
+    }
+}
@@ -0,0 +1,68 @@
+package bankaccountapp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of the instrumentation on the hot path: an in-memory deposit on its own and with the
+ * two clock reads and the histogram record a Customer operation adds, plus a rejection counter
+ * increment and a histogram record alone. Run with -t 1, 2, 4 ... to see whether the shared
+ * counters and histograms become a point of contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private static final int ACCOUNTS = 1024;
+
+    private final Metrics metrics = new Metrics();
+    private final LongAdder rejected = metrics.counter("bench.rejected");
+    private final Histogram latency = metrics.histogram("bench.micros");
+    private CustomerAccount[] accounts;
+
+    @Setup
+    public void setUp() {
+        accounts = new CustomerAccount[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new CustomerAccount(Money.dollars(1000));
+        }
+    }
+
+    @Benchmark
+    public long deposit() {
+        return accounts[ThreadLocalRandom.current().nextInt(ACCOUNTS)].deposit(100);
+    }
+
+    @Benchmark
+    public long instrumentedDeposit() {
+        long start = System.nanoTime();
+        long balance = accounts[ThreadLocalRandom.current().nextInt(ACCOUNTS)].deposit(100);
+        latency.record((System.nanoTime() - start) / 1000);
+        return balance;
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        rejected.increment();
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        latency.record(ThreadLocalRandom.current().nextInt(10_000));
+    }
+}
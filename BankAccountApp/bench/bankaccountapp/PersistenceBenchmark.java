@@ -0,0 +1,75 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of making one customer change durable: appending to the transaction log versus rewriting
+ * the customer's file, and parsing and formatting balances.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    private File dir;
+    private FileAccountStore store;
+    private TransactionLog log;
+    private Customer customer;
+    private CustomerRecord record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.install(1);
+        store = new FileAccountStore(dir);
+        log = Database.getLog();
+        customer = new Customer("c0");
+        record = store.read("c0");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public void logAppend() throws IOException {
+        log.append(customer);
+    }
+
+    @Benchmark
+    public void fileRewrite() throws IOException {
+        store.write(record);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long parseAndFormatCents() {
+        return Money.parse(Money.format(record.getBalance()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double parseAndFormatDouble() {
+        return Double.parseDouble(String.valueOf(record.getBalance() / 100.0));
+    }
+}
@@ -0,0 +1,58 @@
+package bankaccountapp;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of taking a token from the RateLimiter on several threads. With one account every
+ * thread hits the same bucket, which is soon empty, so almost every acquire is a rejection; with
+ * many accounts the threads spread over their buckets and contend only on the bank's, which has
+ * no limit here so that what is measured is the compare-and-set of the buckets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+    @Param({"1", "100000"})
+    public int accounts;
+
+    private RateLimiter limiter;
+    private String[] usernames;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+        limiter = new RateLimiter(1000, 100, 0, 1, new Metrics());
+        usernames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "c" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean acquire() {
+        try {
+            limiter.acquire(usernames[ThreadLocalRandom.current().nextInt(accounts)]);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
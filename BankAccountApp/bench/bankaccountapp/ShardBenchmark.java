@@ -0,0 +1,61 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Durable deposits to random accounts through the sharded executor, sweeping the number of shards.
+ * Every benchmark thread waits for its deposit, like a request thread of the server does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ShardBenchmark {
+
+    private static final int CUSTOMERS = 1000;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int shards;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.install(CUSTOMERS);
+        System.setProperty("bank.shards", Integer.toString(shards));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Database.getShards().close();
+        Database.getPipeline().close();
+        Database.getLog().close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public long deposit() {
+        String username = "c" + ThreadLocalRandom.current().nextInt(CUSTOMERS);
+        return Database.getService().deposit(username, 100).join();
+    }
+}
@@ -0,0 +1,89 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a snapshot of synthetic accounts, decoding it on one or more threads, and restoring it
+ * into a memory-mapped account store, which is what a restore of the whole bank costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int accounts;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File dir;
+    private File snapshot;
+    private MappedAccountStore store;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bank-bench").toFile();
+        snapshot = new File(dir, AccountSnapshot.DEFAULT_FILE);
+        AccountSnapshot.write(snapshot, records());
+        store = MappedAccountStore.open(dir);
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkDatabase.delete(dir);
+    }
+
+    private Iterator<CustomerRecord> records() {
+        return new Iterator<CustomerRecord>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < accounts;
+            }
+
+            @Override
+            public CustomerRecord next() {
+                int i = next++;
+                return new CustomerRecord("c" + i, "", "Customer", Money.dollars(1000) + i % 10000);
+            }
+        };
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return AccountSnapshot.write(new File(dir, "written"), records());
+    }
+
+    @Benchmark
+    public List<CustomerRecord> read() throws IOException {
+        return AccountSnapshot.read(snapshot, threads);
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        return AccountSnapshot.restore(snapshot, store, threads);
+    }
+}
@@ -0,0 +1,66 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of opening the database before the manager page can show, at several database sizes.
+ *
+ * openIndex is what Manager does at startup; readEveryCustomer is the full scan that the old
+ * Manager.populateCustomers performed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int customers;
+
+    private File dir;
+    private FileAccountStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.create(customers);
+        store = new FileAccountStore(dir);
+        CustomerIndex.open(dir, store).close(); // Build the index once, as the first run would
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public CustomerIndex openIndex() throws IOException {
+        CustomerIndex index = CustomerIndex.open(dir, store);
+        index.close();
+        return index;
+    }
+
+    @Benchmark
+    public void readEveryCustomer(Blackhole blackhole) throws IOException {
+        for (String username : store.listUsernames()) {
+            blackhole.consume(store.read(username));
+        }
+    }
+}
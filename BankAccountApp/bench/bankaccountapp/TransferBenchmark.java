@@ -0,0 +1,83 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transfers between random pairs of accounts from several threads, the way the UI and the server
+ * make them: BankService, Customer.transferAsync, the commit pipeline and the transaction log, so
+ * every transfer is durable before it counts. With two accounts every transfer contends for the
+ * same pair of accounts, in both directions. The money in the bank is counted after each trial,
+ * in memory and in the account store, and the benchmark fails if any was created or lost.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    @Param({"2", "16", "1000"})
+    public int accounts;
+
+    private File dir;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.install(accounts);
+        System.setProperty("bank.limit.accountRate", "0");
+        System.setProperty("bank.limit.globalRate", "0");
+        usernames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "c" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        long inMemory = 0;
+        for (String username : usernames) {
+            inMemory += Database.getService().balance(username).join();
+        }
+        Database.getPipeline().close();
+        Database.getLog().checkpoint();
+        long stored = 0;
+        for (String username : usernames) {
+            stored += Database.getStore().read(username).getBalance();
+        }
+        Database.getLog().close();
+        BenchmarkDatabase.delete(dir);
+        long expected = accounts * Money.dollars(1000);
+        if (inMemory != expected || stored != expected) {
+            throw new IllegalStateException("Transfers changed the money in the bank to " + Money.format(inMemory)
+                    + " in memory and " + Money.format(stored) + " on disk.");
+        }
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts);
+        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+        return Database.getService().transfer(usernames[from], usernames[to], 1 + random.nextInt(100)).join();
+    }
+}
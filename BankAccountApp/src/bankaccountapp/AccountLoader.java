@@ -0,0 +1,127 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads every customer file of a database directory on a fork-join pool. This is how
+ * FileAccountStore implements AccountStore.readAll and is specific to its one file per customer
+ * layout; other code reads every record through readAll of whichever store is in use.
+ *
+ * Overview:
+ * The directory is listed once and the listing is split in halves until a part holds at most
+ * THRESHOLD files, so idle workers steal the larger parts still waiting. Each part is read by one
+ * task with one reusable buffer, and each file is parsed exactly once, straight from its bytes,
+ * by FileAccountStore.parse. The records of every part are merged into one concurrent map keyed
+ * by username. The number of workers is the parallelism passed to load; with a parallelism of 1
+ * the files are read in listing order on a single worker.
+ */
+final class AccountLoader {
+
+    static final int THRESHOLD = 256;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private AccountLoader() {
+    }
+
+    /**
+     * Reads every customer file of a database directory.
+     *
+     * @param databaseDir the directory holding the customer files
+     * @param parallelism the number of worker threads
+     * @requires parallelism > 0
+     * @return a new map from each username to its record
+     * @throws IOException if a file cannot be read or is malformed
+     */
+    static ConcurrentHashMap<String, CustomerRecord> load(File databaseDir, int parallelism)
+            throws IOException {
+        File[] files = databaseDir.listFiles((dir, name) -> !name.startsWith("."));
+        ConcurrentHashMap<String, CustomerRecord> records =
+                new ConcurrentHashMap<>(files == null ? 16 : files.length * 4 / 3 + 1, 0.75f, parallelism);
+        if (files == null || files.length == 0) {
+            return records;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Load(files, 0, files.length, records));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        return records;
+    }
+
+    /**
+     * Reads the files [from, to) of the listing, splitting the range while it is large.
+     */
+    private static final class Load extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from;
+        private final int to;
+        private final ConcurrentHashMap<String, CustomerRecord> records;
+
+        Load(File[] files, int from, int to, ConcurrentHashMap<String, CustomerRecord> records) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.records = records;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Load(files, from, middle, records), new Load(files, middle, to, records));
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            for (int i = from; i < to; i++) {
+                File file = files[i];
+                if (!file.isFile()) {
+                    continue; // A directory of the database, e.g. .wal is skipped by name already
+                }
+                try {
+                    buffer = readFully(file, buffer);
+                    CustomerRecord record = FileAccountStore.parse(buffer.array(), buffer.position(), file);
+                    records.put(record.getUsername(), record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Reads a whole file into the buffer, growing it if the file does not fit.
+         *
+         * @return the buffer holding the file from 0 to its position
+         */
+        private static ByteBuffer readFully(File file, ByteBuffer buffer) throws IOException {
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = in.size();
+                if (size > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate((int) Math.max(size, buffer.capacity() * 2L));
+                }
+                buffer.clear();
+                while (in.read(buffer) > 0) {
+                    if (!buffer.hasRemaining()) {
+                        // The file grew after its size was read
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+                    }
+                }
+            }
+            return buffer;
+        }
+    }
+}
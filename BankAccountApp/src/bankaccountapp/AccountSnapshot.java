@@ -0,0 +1,357 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed, checksummed binary image of every account, and the tool that takes and restores it.
+ *
+ * Overview:
+ * A snapshot file starts with a header (magic, version, creation time) followed by blocks of up
+ * to BLOCK_RECORDS records and ends with a trailer holding the number of blocks and records. A
+ * record is the username, password, role and balance in cents; a block is deflated on its own
+ * and preceded by its record count, raw and compressed lengths and the CRC-32 of its raw bytes.
+ * Records are encoded as the body of a CustomerRecordCodec record. A missing trailer or a block
+ * whose checksum does not match makes the whole snapshot unreadable, so a snapshot is restored
+ * completely or not at all.
+ *
+ * Taking a snapshot does not stop the bank: the transaction log defers its checkpoints while the
+ * account store is read, and the pending images it held when the snapshot began are laid over
+ * the store, so the snapshot is the state as of that moment. A customer created meanwhile may be
+ * included with its opening balance, as new customers are written to the store before they are
+ * logged. The file is written next to its final name and atomically moved into place.
+ *
+ * Restoring reads the file once, decodes its blocks in parallel and replaces every record of an
+ * account store with the records of the snapshot. Credentials and transaction histories are not
+ * part of a snapshot and are left as they are.
+ *
+ * Usage: java bankaccountapp.AccountSnapshot snapshot|restore [file] [threads]
+ */
+public final class AccountSnapshot {
+
+    public static final String DEFAULT_FILE = ".snapshot";
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    static final int BLOCK_RECORDS = 4096;
+
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+    private static final int END_MAGIC = 0x454E4453;
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOCK_HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 16;
+
+    private AccountSnapshot() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !"snapshot".equals(args[0]) && !"restore".equals(args[0])) {
+            System.err.println("Usage: AccountSnapshot snapshot|restore [file] [threads]");
+            System.exit(2);
+        }
+        File file = new File(args.length > 1 ? args[1] : Database.DATABASE_DIR + DEFAULT_FILE);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+        long start = System.nanoTime();
+        int records;
+        if ("snapshot".equals(args[0])) {
+            records = write(file, Database.getLog(), Database.getStore());
+            Database.getLog().close();
+        } else {
+            // Replay the log first, so no change logged after the snapshot is replayed over it
+            Database.getLog().close();
+            records = restore(file, Database.getStore(), threads);
+            CustomerIndex.recreate(new File(Database.DATABASE_DIR), Database.getStore());
+            Database.getStore().close();
+        }
+        System.out.printf("%s %d accounts in %.1f s%n", "snapshot".equals(args[0]) ? "Wrote" : "Restored", records,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes a snapshot of every account while the bank keeps running.
+     *
+     * @param file the snapshot file, replaced atomically
+     * @param log the transaction log in front of the store
+     * @param store the account store
+     * @return the number of accounts written
+     * @throws IOException if the store cannot be read or the snapshot cannot be written
+     */
+    public static int write(File file, TransactionLog log, AccountStore store) throws IOException {
+        Map<String, CustomerRecord> pending = log.beginSnapshot();
+        try {
+            Set<String> usernames = new LinkedHashSet<>(store.listUsernames());
+            usernames.addAll(pending.keySet());
+            Iterator<String> names = usernames.iterator();
+            return write(file, new Iterator<CustomerRecord>() {
+                private CustomerRecord next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public CustomerRecord next() {
+                    CustomerRecord record = next;
+                    next = advance();
+                    return record;
+                }
+
+                private CustomerRecord advance() {
+                    while (names.hasNext()) {
+                        String username = names.next();
+                        CustomerRecord record = pending.get(username);
+                        if (record == null) {
+                            try {
+                                record = store.read(username);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                        if (record != null && record != TransactionLog.DELETED) {
+                            return record;
+                        }
+                    }
+                    return null;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            log.endSnapshot();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given records.
+     *
+     * @param file the snapshot file, replaced atomically
+     * @param records the records to write
+     * @return the number of records written
+     * @throws IOException if the snapshot cannot be written
+     */
+    static int write(File file, Iterator<CustomerRecord> records) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        int count = 0;
+        int blocks = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        CRC32 crc = new CRC32();
+        ByteBuffer raw = ByteBuffer.allocate(BLOCK_RECORDS * (CustomerRecordCodec.MAX_SIZE - CustomerRecordCodec.HEADER_SIZE));
+        byte[] compressed = new byte[raw.capacity() + raw.capacity() / 100 + 64];
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).flip();
+            writeFully(out, header);
+            int inBlock = 0;
+            while (records.hasNext()) {
+                CustomerRecordCodec.encodeBody(records.next(), raw);
+                count++;
+                if (++inBlock == BLOCK_RECORDS || !records.hasNext()) {
+                    writeBlock(out, inBlock, raw, compressed, deflater, crc);
+                    blocks++;
+                    inBlock = 0;
+                }
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putInt(END_MAGIC).putInt(blocks).putLong(count).flip();
+            writeFully(out, trailer);
+            out.force(false);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void writeBlock(FileChannel out, int records, ByteBuffer raw, byte[] compressed,
+            Deflater deflater, CRC32 crc) throws IOException {
+        int rawLength = raw.position();
+        crc.reset();
+        crc.update(raw.array(), 0, rawLength);
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        header.putInt(records).putInt(rawLength).putInt(compressedLength).putInt((int) crc.getValue()).flip();
+        writeFully(out, header);
+        writeFully(out, ByteBuffer.wrap(compressed, 0, compressedLength));
+        raw.clear();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Reads every record of a snapshot, decoding its blocks on several threads.
+     *
+     * @param file the snapshot file
+     * @param threads the number of decoding threads
+     * @return a new list of the records, in the order they were written
+     * @throws IOException if the file cannot be read, is not a complete snapshot or fails a
+     *         checksum
+     */
+    public static List<CustomerRecord> read(File file, int threads) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        if (data.capacity() < HEADER_SIZE + TRAILER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot format in " + file);
+        }
+        int trailer = data.capacity() - TRAILER_SIZE;
+        if (data.getInt(trailer) != END_MAGIC) {
+            throw new IOException("Snapshot " + file + " is incomplete.");
+        }
+        int blocks = data.getInt(trailer + 4);
+        long count = data.getLong(trailer + 8);
+        // Find the blocks first; each one is then decoded on its own
+        int[] offsets = new int[blocks];
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < blocks; i++) {
+            if (offset + BLOCK_HEADER_SIZE > trailer) {
+                throw new IOException("Snapshot " + file + " is incomplete.");
+            }
+            offsets[i] = offset;
+            offset += BLOCK_HEADER_SIZE + data.getInt(offset + 8);
+        }
+        if (offset != trailer) {
+            throw new IOException("Snapshot " + file + " is corrupt.");
+        }
+        CustomerRecord[][] decoded = new CustomerRecord[blocks][];
+        AtomicInteger number = new AtomicInteger();
+        ExecutorService decoders = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "snapshot-decoder-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> done = new ArrayList<>(blocks);
+            for (int i = 0; i < blocks; i++) {
+                int block = i;
+                done.add(decoders.submit(() -> {
+                    decoded[block] = decodeBlock(data.duplicate(), offsets[block]);
+                    return null;
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException("Snapshot " + file + " is corrupt.", e.getCause());
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            decoders.shutdownNow();
+        }
+        List<CustomerRecord> records = new ArrayList<>((int) count);
+        for (CustomerRecord[] block : decoded) {
+            records.addAll(Arrays.asList(block));
+        }
+        if (records.size() != count) {
+            throw new IOException("Snapshot " + file + " is corrupt.");
+        }
+        return records;
+    }
+
+    private static CustomerRecord[] decodeBlock(ByteBuffer data, int offset) throws IOException {
+        int count = data.getInt(offset);
+        int rawLength = data.getInt(offset + 4);
+        int compressedLength = data.getInt(offset + 8);
+        int checksum = data.getInt(offset + 12);
+        byte[] compressed = new byte[compressedLength];
+        data.position(offset + BLOCK_HEADER_SIZE);
+        data.get(compressed);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                throw new IOException("Block at " + offset + " has the wrong length.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block at " + offset + " cannot be inflated.", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, rawLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Block at " + offset + " fails its checksum.");
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        CustomerRecord[] records = new CustomerRecord[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                records[i] = CustomerRecordCodec.decodeBody(in);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Block at " + offset + " is malformed.", e);
+        }
+        return records;
+    }
+
+    /**
+     * Replaces the records of an account store with those of a snapshot. The store must not be
+     * in use, and the transaction log in front of it must have been checkpointed and closed.
+     *
+     * @param file the snapshot file
+     * @param store the account store
+     * @param threads the number of decoding threads
+     * @return the number of records restored
+     * @throws IOException if the snapshot cannot be read or the store cannot be written
+     */
+    public static int restore(File file, AccountStore store, int threads) throws IOException {
+        List<CustomerRecord> records = read(file, threads);
+        Set<String> restored = new HashSet<>(records.size() * 2);
+        for (CustomerRecord record : records) {
+            restored.add(record.getUsername());
+        }
+        for (String username : store.listUsernames()) {
+            if (!restored.contains(username)) {
+                store.delete(username);
+            }
+        }
+        for (CustomerRecord record : records) {
+            store.write(record);
+        }
+        store.sync();
+        return records.size();
+    }
+}
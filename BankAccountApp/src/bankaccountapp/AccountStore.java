@@ -0,0 +1,104 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine holding the checkpointed record of every customer.
+ *
+ * Changes reach a store through the transaction log's checkpoints, so a store only needs to make
+ * its writes durable when sync is called. Implementations must be safe for use by several threads.
+ */
+public interface AccountStore {
+
+    /**
+     * The number of threads readAll is given by default, one per processor.
+     */
+    int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param username the username
+     * @return the stored record, or null if there is no customer with that username
+     * @throws IOException if the record cannot be read
+     */
+    CustomerRecord read(String username) throws IOException;
+
+    /**
+     * Creates or replaces the record of a customer.
+     *
+     * @param record the record to store
+     * @throws IOException if the record cannot be written
+     */
+    void write(CustomerRecord record) throws IOException;
+
+    /**
+     * Deletes the record of a customer if it exists.
+     *
+     * @param username the username
+     * @throws IOException if the record cannot be deleted
+     */
+    void delete(String username) throws IOException;
+
+    /**
+     * @return the username of every stored customer
+     * @throws IOException if the store cannot be listed
+     */
+    List<String> listUsernames() throws IOException;
+
+    /**
+     * Reads every stored record at once, e.g. to build an index over all customers. How is up to
+     * the engine: FileAccountStore reads its files on a fork-join pool of up to parallelism
+     * threads, MappedAccountStore scans its slots in one pass, and the default reads one record
+     * after the other.
+     *
+     * @param parallelism the most threads to read with
+     * @requires parallelism > 0
+     * @return a new map from each username to its record
+     * @throws IOException if a record cannot be read
+     */
+    default Map<String, CustomerRecord> readAll(int parallelism) throws IOException {
+        Map<String, CustomerRecord> records = new HashMap<>();
+        for (String username : listUsernames()) {
+            CustomerRecord record = read(username);
+            if (record != null) {
+                records.put(username, record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Makes every write so far durable.
+     *
+     * @throws IOException if the store cannot be forced to disk
+     */
+    void sync() throws IOException;
+
+    /**
+     * Syncs and releases the store.
+     *
+     * @throws IOException if the store cannot be closed
+     */
+    void close() throws IOException;
+
+    /**
+     * Copies every record of one store into another, e.g. to move from one file per customer to
+     * the single-file store.
+     *
+     * @param from the store to read
+     * @param to the store to write
+     * @return the number of records copied
+     * @throws IOException if a record cannot be copied
+     */
+    static int copy(AccountStore from, AccountStore to) throws IOException {
+        Collection<CustomerRecord> records = from.readAll(DEFAULT_PARALLELISM).values();
+        for (CustomerRecord record : records) {
+            to.write(record);
+        }
+        to.sync();
+        return records.size();
+    }
+}
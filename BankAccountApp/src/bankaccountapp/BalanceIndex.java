@@ -0,0 +1,453 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Secondary indexes of the customers by balance and by level.
+ *
+ * Overview:
+ * The balance index maps each balance to the usernames holding it, and the level index keeps one
+ * sorted bucket of usernames per level of the tier table, so "balances between X and Y" and "all
+ * Platinum customers" visit only the matching customers instead of reading every customer from
+ * disk. Usernames by prefix are served by the CustomerIndex.
+ *
+ * The indexes are built on the first query from the customer index, reading each balance from
+ * the ledger, the transaction log or the account store, whichever is newest; the stored records
+ * are read all at once, in parallel where the store supports it. From then on they are kept in
+ * sync incrementally, off the path of the change: update and remove only queue the username, and
+ * one indexer thread drains the queue in batches, reads each customer's current balance and
+ * applies the batch under the index lock. A username already queued is not queued again, and it
+ * leaves the queue before its balance is read, so a change made after the read queues it anew and
+ * concurrent changes to one customer always leave the entry of its final balance. Queries
+ * therefore see a change once the indexer has caught up with it, not at once.
+ *
+ * Changes are queued from the moment the index starts building, and the indexer waits for the
+ * build to finish before applying them, so a change the build read too early is applied after
+ * it. Deposits, withdrawals and transfers never take the index lock, so neither a build nor a
+ * query holds them up.
+ *
+ * The same re-indexing keeps bank-wide aggregates: the total balance and the number of customers
+ * and sum of balances per level, each adjusted by the difference a change makes. They are only
+ * changed under the index lock, by the build, the indexer and the reconciler, so they are single
+ * volatile and atomic values rather than striped counters; the online fee revenue, counted by
+ * every purchase on its own thread, is the one striped counter. Reading the aggregates takes no
+ * lock, so the manager screen can show them at any time. A reconciler periodically compares every
+ * indexed balance with the newest stored one and the aggregates with the sums of the index,
+ * corrects any difference and counts it under aggregates.mismatches.
+ *
+ * Abstraction Function:
+ * AF(i) = The customers { (u, i.balances.get(u), levelFor(i.balances.get(u))) | u in i.balances.keySet() },
+ *         or no customers if !i.built.
+ *
+ * Representation Invariant:
+ * RI(i) = u is in i.byBalance.get(b) <=> i.balances.get(u) == b &&
+ *         u is in i.byLevel.get(l) <=> l == i.tiers.levelFor(i.balances.get(u)) &&
+ *         no set in i.byBalance is empty &&
+ *         (i.built => i.total == sum of i.balances && i.counts[k] == |customers at level k| &&
+ *                     i.sums[k] == sum of the balances at level k), whenever the lock is free
+ */
+public class BalanceIndex {
+
+    private final TierTable tiers;
+    private final Map<String, Long> balances = new HashMap<>();
+    private final NavigableMap<Long, NavigableSet<String>> byBalance = new TreeMap<>();
+    private final Map<Level, NavigableSet<String>> byLevel = new HashMap<>();
+    private final AtomicLongArray counts; // Written under the lock, read without it
+    private final AtomicLongArray sums; // Written under the lock, read without it
+    private final LongAdder fees = new LongAdder();
+    private final LongAdder mismatches = Database.getMetrics().counter("aggregates.mismatches");
+    private final Histogram reconcileMicros = Database.getMetrics().histogram("aggregates.reconcile.micros");
+    private final BlockingQueue<String> changed = new LinkedBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private volatile long total; // Written under the lock, read without it
+    private volatile boolean built;
+    private volatile boolean tracking; // Changes are queued once the build starts
+    private Thread indexer; // Guarded by this
+    private Map<String, Long> suspects = new HashMap<>(); // Guarded by this
+    private ScheduledExecutorService reconciler; // Guarded by this
+
+    /**
+     * @param tiers the tier table whose levels the customers are bucketed by
+     */
+    public BalanceIndex(TierTable tiers) {
+        this.tiers = tiers;
+        for (Level level : tiers.getLevels()) {
+            byLevel.put(level, new TreeSet<>());
+        }
+        this.counts = new AtomicLongArray(tiers.getLevels().size());
+        this.sums = new AtomicLongArray(counts.length());
+    }
+
+    /**
+     * Returns the customers whose balance is within a range, ordered by balance and then username.
+     *
+     * @param min the lowest balance, in cents
+     * @param max the highest balance, in cents
+     * @return a new list of the matching usernames
+     */
+    public synchronized List<String> findByBalance(long min, long max) {
+        build();
+        List<String> result = new ArrayList<>();
+        if (min <= max) {
+            for (NavigableSet<String> usernames : byBalance.subMap(min, true, max, true).values()) {
+                result.addAll(usernames);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param level a level of the tier table
+     * @return a new list of the usernames of the customers at that level, sorted
+     */
+    public synchronized List<String> findByLevel(Level level) {
+        build();
+        NavigableSet<String> bucket = byLevel.get(level);
+        if (bucket == null) {
+            throw new IllegalArgumentException("Level " + level + " is not in the tier table.");
+        }
+        return new ArrayList<>(bucket);
+    }
+
+    /**
+     * @param username the username
+     * @return the indexed balance of the customer in cents, or -1 if the customer is not indexed
+     */
+    public synchronized long balanceOf(String username) {
+        build();
+        Long balance = balances.get(username);
+        return balance == null ? -1 : balance;
+    }
+
+    /**
+     * Returns the bank-wide totals. Only the first call, which builds the index, visits the
+     * customers; later calls read the aggregates without locking.
+     *
+     * @return the totals
+     */
+    public BankTotals getTotals() {
+        if (!built) {
+            synchronized (this) {
+                build();
+            }
+        }
+        long[] levelCounts = new long[counts.length()];
+        long[] levelSums = new long[counts.length()];
+        long customers = 0;
+        for (int i = 0; i < levelCounts.length; i++) {
+            levelCounts[i] = counts.get(i);
+            levelSums[i] = sums.get(i);
+            customers += levelCounts[i];
+        }
+        return new BankTotals(tiers.getLevels(), customers, total, levelCounts, levelSums, fees.sum());
+    }
+
+    /**
+     * Counts the online fee of a purchase in the fee revenue.
+     *
+     * @param fee the fee, in cents
+     */
+    public void addFee(long fee) {
+        fees.add(fee);
+    }
+
+    /**
+     * Queues a customer to be re-indexed at its current balance after it changed or was created.
+     *
+     * @param customer the customer
+     */
+    public void update(Customer customer) {
+        queue(customer.getUsername());
+    }
+
+    /**
+     * Queues a deleted customer to be removed.
+     *
+     * @param username the username of the deleted customer
+     */
+    public void remove(String username) {
+        queue(username);
+    }
+
+    private void queue(String username) {
+        if (tracking && queued.add(username)) {
+            changed.add(username);
+        }
+    }
+
+    /**
+     * Drains the queued changes in batches until interrupted, reading the balances without the
+     * lock and applying each batch under it.
+     */
+    private void index() {
+        List<String> batch = new ArrayList<>();
+        List<Long> current = new ArrayList<>();
+        for (;;) {
+            try {
+                batch.add(changed.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changed.drainTo(batch);
+            for (String username : batch) {
+                queued.remove(username); // Before the read, so a later change is queued again
+                // A customer deleted meanwhile has already left the customer index and must not come back
+                current.add(Database.getIndex().contains(username) ? currentBalance(username, null) : -1);
+            }
+            synchronized (this) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String username = batch.get(i);
+                    long balance = current.get(i);
+                    if (balance >= 0) {
+                        put(username, balance);
+                    } else if (balances.containsKey(username)) {
+                        unlink(username, balances.remove(username));
+                    }
+                }
+            }
+            batch.clear();
+            current.clear();
+        }
+    }
+
+    /**
+     * Indexes every customer once, holding only the index lock. Changes persisted before this
+     * runs are read from the log or the store; changes made while it runs are queued and applied
+     * by the indexer once it is done.
+     */
+    private void build() {
+        if (built) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (indexer == null) {
+            tracking = true;
+            indexer = new Thread(this::index, "bank-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+        Collection<String> usernames = Database.getIndex().getUsernames();
+        Map<String, CustomerRecord> stored = readStored();
+        for (String username : usernames) {
+            long balance = currentBalance(username, stored);
+            if (balance >= 0) {
+                put(username, balance);
+            }
+        }
+        built = true;
+        Database.getMetrics().histogram("balanceIndex.build.micros").record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * @return every stored record, read at once, or null if they cannot be read at once and must
+     *         be read one by one
+     */
+    private static Map<String, CustomerRecord> readStored() {
+        try {
+            return Database.getStore().readAll(Database.getLoaderParallelism());
+        } catch (IOException e) {
+            Database.getMetrics().failure("balanceIndex.readAll", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the newest balance of a customer from the ledger, the transaction log or the store.
+     *
+     * @param stored the records read from the store beforehand, or null to read the store
+     * @return the balance in cents, or -1 if the customer does not exist
+     */
+    private static long currentBalance(String username, Map<String, CustomerRecord> stored) {
+        CustomerAccount account = Database.getLedger().get(username);
+        if (account != null) {
+            return account.getBalance();
+        }
+        CustomerRecord record = Database.getLog().pendingImage(username);
+        if (record == null && stored != null) {
+            record = stored.get(username);
+        } else if (record == null) {
+            try {
+                record = Database.getStore().read(username);
+            } catch (IOException e) {
+                Database.getMetrics().failure("balanceIndex.build", e);
+            }
+        }
+        return record != null && record != TransactionLog.DELETED ? record.getBalance() : -1;
+    }
+
+    /**
+     * Compares the index with a full scan of the customers and the aggregates with the index, and
+     * corrects every difference. The scan reads the balances without holding the lock, so changes
+     * keep flowing. A change is applied to the account before it is re-indexed, so a customer whose
+     * balance differs is only corrected if it still differs by the same balance at the next
+     * reconciliation; until then it is a suspect. Does nothing before the index is built.
+     *
+     * @return the number of differences corrected
+     */
+    public int reconcile() {
+        if (!built) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int corrected = 0;
+        Map<String, Long> nextSuspects = new HashMap<>();
+        Map<String, CustomerRecord> stored = readStored();
+        for (String username : Database.getIndex().getUsernames()) {
+            long balance = currentBalance(username, stored);
+            if (balance >= 0 && balance != balanceOf(username)) {
+                corrected += recheck(username, nextSuspects);
+            }
+        }
+        synchronized (this) {
+            suspects = nextSuspects;
+            for (String username : new ArrayList<>(balances.keySet())) {
+                if (!Database.getIndex().contains(username)) {
+                    unlink(username, balances.remove(username)); // Deleted without being removed
+                    corrected++;
+                }
+            }
+            corrected += reconcileAggregates();
+        }
+        mismatches.add(corrected);
+        reconcileMicros.record((System.nanoTime() - start) / 1000);
+        return corrected;
+    }
+
+    /**
+     * Checks a customer whose indexed balance differed, under the lock.
+     *
+     * @param nextSuspects where the customer is added if it still differs for the first time
+     * @return 1 if the indexed balance of the customer was wrong and has been corrected, else 0
+     */
+    private synchronized int recheck(String username, Map<String, Long> nextSuspects) {
+        long balance = currentBalance(username, null);
+        Long indexed = balances.get(username);
+        if (balance < 0 || !Database.getIndex().contains(username) || (indexed != null && indexed == balance)) {
+            return 0;
+        }
+        Long suspected = suspects.get(username);
+        if (suspected == null || suspected != balance) {
+            nextSuspects.put(username, balance); // May be a change not re-indexed yet
+            return 0;
+        }
+        put(username, balance);
+        return 1;
+    }
+
+    /**
+     * Recomputes the aggregates from the index and replaces those that differ.
+     *
+     * @return the number of aggregates replaced
+     */
+    private int reconcileAggregates() {
+        long expectedTotal = 0;
+        long[] expectedCounts = new long[counts.length()];
+        long[] expectedSums = new long[counts.length()];
+        for (long balance : balances.values()) {
+            int level = tiers.indexFor(balance);
+            expectedTotal += balance;
+            expectedCounts[level]++;
+            expectedSums[level] += balance;
+        }
+        int corrected = 0;
+        if (total != expectedTotal) {
+            total = expectedTotal;
+            corrected++;
+        }
+        for (int i = 0; i < expectedCounts.length; i++) {
+            corrected += correct(counts, i, expectedCounts[i]) + correct(sums, i, expectedSums[i]);
+        }
+        return corrected;
+    }
+
+    private static int correct(AtomicLongArray values, int i, long expected) {
+        if (values.get(i) == expected) {
+            return 0;
+        }
+        values.set(i, expected);
+        return 1;
+    }
+
+    /**
+     * Runs reconcile periodically on a daemon thread, replacing an earlier schedule.
+     *
+     * @param periodMillis the time between reconciliations
+     * @requires periodMillis > 0
+     */
+    public synchronized void startReconciler(long periodMillis) {
+        stopReconciler();
+        reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "bank-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                Database.getMetrics().failure("aggregates.reconcile", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic reconciliation, if any.
+     */
+    public synchronized void stopReconciler() {
+        if (reconciler != null) {
+            reconciler.shutdown();
+            reconciler = null;
+        }
+    }
+
+    private void put(String username, long balance) {
+        Long previous = balances.put(username, balance);
+        if (previous != null) {
+            if (previous == balance) {
+                return;
+            }
+            unlink(username, previous);
+        }
+        byBalance.computeIfAbsent(balance, key -> new TreeSet<>()).add(username);
+        byLevel.get(tiers.levelFor(balance)).add(username);
+        int level = tiers.indexFor(balance);
+        total += balance;
+        counts.incrementAndGet(level);
+        sums.addAndGet(level, balance);
+    }
+
+    private void unlink(String username, long balance) {
+        NavigableSet<String> usernames = byBalance.get(balance);
+        usernames.remove(username);
+        if (usernames.isEmpty()) {
+            byBalance.remove(balance);
+        }
+        byLevel.get(tiers.levelFor(balance)).remove(username);
+        int level = tiers.indexFor(balance);
+        total -= balance;
+        counts.decrementAndGet(level);
+        sums.addAndGet(level, -balance);
+    }
+
+    public synchronized int size() {
+        return balances.size();
+    }
+}
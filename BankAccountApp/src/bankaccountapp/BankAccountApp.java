@@ -1,5 +1,6 @@
 package bankaccountapp;
 
+import java.util.Arrays;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -16,7 +17,16 @@ public class BankAccountApp extends Application {
         primaryStage.show();
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            BatchProcessor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--server".equals(args[0])) {
+            BankServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        Database.startMetricsDump();
         launch(args);
     }
 }
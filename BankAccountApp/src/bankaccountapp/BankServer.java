@@ -0,0 +1,541 @@
+package bankaccountapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless HTTP server exposing the bank to other programs.
+ *
+ * Overview:
+ * POST /login with HTTP Basic credentials opens a session and returns its token; later requests
+ * send "Authorization: Bearer <token>" and are resolved through the SessionManager without hashing
+ * the password again. Requests may still carry Basic credentials instead, which are verified on
+ * every request. Customer requests act on the authenticated customer, and the manager requests
+ * under /customers require a manager. Parameters are read from the query string and from a
+ * form-encoded body. Amounts are in dollars. Responses are plain text:
+ *
+ *     POST   /login                     "token role" of the new session
+ *     POST   /logout                    ends the session of the Bearer token
+ *     GET    /balance                   "balance level" of the customer
+ *     POST   /deposit?amount=           the new balance
+ *     POST   /withdraw?amount=          the new balance, 409 if funds are insufficient
+ *     POST   /purchase?amount=          the new balance, 409 if funds are insufficient
+ *                                       (these three answer 404 if the customer was deleted)
+ *     POST   /transfer?to=&amount=      the new balance, 409 if funds are insufficient, 404 if the
+ *                                       recipient does not exist
+ *     GET    /history?limit=            the last transactions, one per line, oldest first
+ *     GET    /history?from=&to=&limit=  the transactions between two dates (yyyy-MM-dd, UTC)
+ *     GET    /statement?from=&to=       the CSV statement between two dates, streamed
+ *     GET    /customers?prefix=&after=&limit=   one page of usernames, one per line
+ *     POST   /customers?username=&password=     creates a customer, 409 if it exists
+ *     DELETE /customers?username=       deletes a customer, 404 if it does not exist
+ *     GET    /totals                    the bank-wide totals, overall and per level
+ *     POST   /snapshot                  writes a snapshot of every account to database/.snapshot
+ *     GET    /metrics                   the application's metrics, one "name value" per line
+ *
+ * Requests are handled by a fixed pool of worker threads. Changes to an account are handed to the
+ * shard that owns it, so they are serialized with every other change to that account, and a
+ * request waiting for its change to become durable only blocks its own worker. Withdrawals,
+ * purchases and transfers over the rate limits of the account or the bank, and changes to an
+ * account whose shard has too many waiting, are answered with 429 at once.
+ *
+ * The server only listens on the loopback interface, so only programs on the same machine can
+ * reach it. To listen on another interface, or on all of them with 0.0.0.0, name its address in
+ * the bank.server.address system property.
+ *
+ * Usage: java [-Dbank.server.address=address] -jar BankAccountApp.jar --server [port] [threads]
+ */
+public class BankServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_THREADS = 64;
+
+    private static final int MAX_BODY_BYTES = 4096;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final Histogram REQUEST_MICROS = Database.getMetrics().histogram("server.request.micros");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server listening on a port of the loopback interface. It does not accept requests
+     * until started.
+     *
+     * @param port the port, or 0 for any free port
+     * @param threads the number of worker threads
+     * @throws IOException if the port cannot be bound
+     */
+    public BankServer(int port, int threads) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, threads);
+    }
+
+    /**
+     * Creates a server listening on a port of the interface with the given address. It does not
+     * accept requests until started.
+     *
+     * @param address the address of the interface, or the wildcard address for all interfaces
+     * @param port the port, or 0 for any free port
+     * @param threads the number of worker threads
+     * @throws IOException if the port cannot be bound
+     */
+    public BankServer(InetAddress address, int port, int threads) throws IOException {
+        AtomicInteger number = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bank-server-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Without TCP_NODELAY, responses sent as separate header and body writes wait for the
+        // client's delayed ACK, adding ~40 ms to every request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        String address = System.getProperty("bank.server.address");
+        Manager.getUsernames(); // Load the index before accepting requests
+        BankServer server = new BankServer(address == null ? InetAddress.getLoopbackAddress()
+                : InetAddress.getByName(address), port, threads);
+        Database.startMetricsDump();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                Database.getPipeline().close();
+                Database.getLog().close();
+                Database.getHistory().close();
+                Database.dumpMetrics();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Bank server listening on " + server.server.getAddress());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for the requests in progress and stops the
+     * worker threads.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String token = token(exchange);
+            if (token != null) {
+                if (path.equals("/logout")) {
+                    Database.getSessions().logout(token);
+                    send(exchange, HttpURLConnection.HTTP_OK, "Logged out.");
+                    return;
+                }
+                Session session = Database.getSessions().get(token);
+                if (session == null) {
+                    send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Session expired.");
+                } else {
+                    dispatch(exchange, path, session.getRole(), session.getCustomer());
+                }
+                return;
+            }
+            String[] credentials = credentials(exchange);
+            if (credentials == null) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"bank\"");
+                send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Missing credentials.");
+            } else if (path.equals("/login")) {
+                Session session = Database.getSessions().login(credentials[0], credentials[1], "Manager");
+                if (session == null) {
+                    session = Database.getSessions().login(credentials[0], credentials[1], "Customer");
+                }
+                if (session == null) {
+                    send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Wrong username or password.");
+                } else {
+                    send(exchange, HttpURLConnection.HTTP_OK, session.getToken() + " " + session.getRole());
+                }
+            } else if (Manager.login(credentials[0], credentials[1], "Manager")) {
+                dispatch(exchange, path, "Manager", null);
+            } else {
+                Customer customer = authenticate(credentials);
+                if (customer == null) {
+                    send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Wrong username or password.");
+                } else {
+                    dispatch(exchange, path, "Customer", customer);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, HTTP_TOO_MANY_REQUESTS, e.getMessage());
+        } catch (RuntimeException e) {
+            Database.getMetrics().failure("server.request", e);
+            send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "Internal error.");
+        } finally {
+            exchange.close();
+            REQUEST_MICROS.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Handles a request of an authenticated user.
+     *
+     * @param role the role of the user
+     * @param customer the customer, or null for the manager
+     */
+    private void dispatch(HttpExchange exchange, String path, String role, Customer customer) throws IOException {
+        Map<String, String> params = params(exchange);
+        if (path.equals("/metrics")) {
+            if (!"Manager".equals(role)) {
+                send(exchange, HttpURLConnection.HTTP_FORBIDDEN, "Only the Manager can read the metrics.");
+            } else {
+                send(exchange, HttpURLConnection.HTTP_OK, Database.getMetrics().toString());
+            }
+        } else if (path.equals("/totals")) {
+            if (!"Manager".equals(role)) {
+                send(exchange, HttpURLConnection.HTTP_FORBIDDEN, "Only the Manager can read the totals.");
+            } else {
+                send(exchange, HttpURLConnection.HTTP_OK, Manager.getTotals().toString());
+            }
+        } else if (path.equals("/snapshot")) {
+            if (!"Manager".equals(role)) {
+                send(exchange, HttpURLConnection.HTTP_FORBIDDEN, "Only the Manager can take snapshots.");
+            } else if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Use POST.");
+            } else {
+                int accounts = AccountSnapshot.write(new File(Database.DATABASE_DIR, AccountSnapshot.DEFAULT_FILE),
+                        Database.getLog(), Database.getStore());
+                send(exchange, HttpURLConnection.HTTP_OK, "Wrote " + accounts + " accounts.");
+            }
+        } else if (path.equals("/customers")) {
+            if (!"Manager".equals(role)) {
+                send(exchange, HttpURLConnection.HTTP_FORBIDDEN, "Only the Manager can manage customers.");
+            } else {
+                handleManager(exchange, params);
+            }
+        } else if (customer == null) {
+            send(exchange, HttpURLConnection.HTTP_FORBIDDEN, "Only customers have an account.");
+        } else {
+            handleCustomer(exchange, path, customer, params);
+        }
+    }
+
+    private void handleCustomer(HttpExchange exchange, String path, Customer customer, Map<String, String> params)
+            throws IOException {
+        String method = exchange.getRequestMethod();
+        switch (path) {
+            case "/balance":
+                send(exchange, HttpURLConnection.HTTP_OK,
+                        Money.format(customer.getBalance()) + " " + customer.getLevel());
+                return;
+            case "/history":
+                int limit = limit(params);
+                List<Transaction> transactions = params.containsKey("from") || params.containsKey("to")
+                        ? Database.getHistory().between(customer.getUsername(), startOfDay(params.get("from")),
+                                endOfDay(params.get("to")), limit)
+                        : Database.getHistory().last(customer.getUsername(), limit);
+                StringBuilder body = new StringBuilder(transactions.size() * 80);
+                for (Transaction transaction : transactions) {
+                    transaction.appendTo(body).append('\n');
+                }
+                send(exchange, HttpURLConnection.HTTP_OK, body.toString());
+                return;
+            case "/statement":
+                // Before the headers, so that a bad date is still answered with 400
+                long first = startOfDay(params.get("from"));
+                long last = endOfDay(params.get("to"));
+                exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0); // Chunked, the length is not known
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                        StandardCharsets.UTF_8))) {
+                    Database.getHistory().exportStatement(customer.getUsername(), first, last, out);
+                }
+                return;
+            case "/deposit":
+            case "/withdraw":
+            case "/purchase":
+                if (!"POST".equals(method)) {
+                    send(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Use POST.");
+                    return;
+                }
+                long amount = amount(params);
+                String username = customer.getUsername();
+                long balance;
+                try {
+                    if (path.equals("/deposit")) {
+                        balance = await(Database.getService().deposit(username, amount));
+                    } else if (amount < Customer.MINIMUM_PURCHASE && path.equals("/purchase")) {
+                        throw new IllegalArgumentException("Purchase amount must be at least $50.");
+                    } else if (await(path.equals("/withdraw") ? Database.getService().withdraw(username, amount)
+                            : Database.getService().purchase(username, amount))) {
+                        balance = await(Database.getService().balance(username));
+                    } else {
+                        send(exchange, HttpURLConnection.HTTP_CONFLICT, "Insufficient funds.");
+                        return;
+                    }
+                } catch (IllegalArgumentException e) {
+                    if (Manager.getUsernames().contains(username)) {
+                        throw e;
+                    }
+                    send(exchange, HttpURLConnection.HTTP_NOT_FOUND, "No such customer.");
+                    return;
+                }
+                send(exchange, HttpURLConnection.HTTP_OK, Money.format(balance));
+                return;
+            case "/transfer":
+                if (!"POST".equals(method)) {
+                    send(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Use POST.");
+                    return;
+                }
+                String to = params.get("to");
+                long transferred = amount(params);
+                if (to == null || !Manager.getUsernames().contains(to)) {
+                    send(exchange, HttpURLConnection.HTTP_NOT_FOUND, "No such recipient.");
+                } else if (to.equals(customer.getUsername())) {
+                    throw new IllegalArgumentException("Cannot transfer to the same account.");
+                } else if (await(Database.getService().transfer(customer.getUsername(), to, transferred))) {
+                    send(exchange, HttpURLConnection.HTTP_OK,
+                            Money.format(await(Database.getService().balance(customer.getUsername()))));
+                } else {
+                    send(exchange, HttpURLConnection.HTTP_CONFLICT, "Insufficient funds.");
+                }
+                return;
+            default:
+                send(exchange, HttpURLConnection.HTTP_NOT_FOUND, "Unknown path " + path + ".");
+        }
+    }
+
+    private void handleManager(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String username = params.get("username");
+        switch (exchange.getRequestMethod()) {
+            case "GET":
+                int limit = limit(params);
+                List<String> page = Manager.getUsernamePage(params.getOrDefault("prefix", ""), params.get("after"),
+                        limit);
+                StringBuilder body = new StringBuilder();
+                for (String name : page) {
+                    body.append(name).append('\n');
+                }
+                send(exchange, HttpURLConnection.HTTP_OK, body.toString());
+                return;
+            case "POST":
+                String password = params.get("password");
+                if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+                    throw new IllegalArgumentException("Username and password cannot be empty.");
+                }
+                if (Manager.getUsernames().contains(username)) {
+                    send(exchange, HttpURLConnection.HTTP_CONFLICT, "Customer already exists.");
+                    return;
+                }
+                await(Database.getService().addCustomer(username, password));
+                send(exchange, HttpURLConnection.HTTP_OK, "Created " + username + ".");
+                return;
+            case "DELETE":
+                if (username == null || !Manager.getUsernames().contains(username)) {
+                    send(exchange, HttpURLConnection.HTTP_NOT_FOUND, "No such customer.");
+                    return;
+                }
+                await(Database.getService().deleteCustomer(username));
+                send(exchange, HttpURLConnection.HTTP_OK, "Deleted " + username + ".");
+                return;
+            default:
+                send(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Use GET, POST or DELETE.");
+        }
+    }
+
+    /**
+     * Waits for an operation queued to a shard, rethrowing its exception unwrapped.
+     */
+    private static <T> T await(CompletableFuture<T> operation) {
+        try {
+            return operation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the customer with the given credentials, or null if they do not match a customer
+     */
+    private static Customer authenticate(String[] credentials) {
+        Customer customer = Manager.getCustomer(credentials[0]);
+        if (customer == null || !customer.login(credentials[0], credentials[1], "Customer")) {
+            return null;
+        }
+        return customer;
+    }
+
+    /**
+     * @return the first millisecond of a UTC date, or of the epoch if the date is null
+     */
+    private static long startOfDay(String date) {
+        return date == null ? 0 : parseDate(date).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return the last millisecond of a UTC date, or the end of time if the date is null
+     */
+    private static long endOfDay(String date) {
+        return date == null ? Long.MAX_VALUE
+                : parseDate(date).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - 1;
+    }
+
+    private static LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Dates must be given as yyyy-MM-dd.");
+        }
+    }
+
+    /**
+     * @return the limit parameter, 100 if there is none, at most MAX_PAGE_SIZE
+     * @throws IllegalArgumentException if the limit is not a positive number
+     */
+    private static int limit(Map<String, String> params) {
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", "100"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The limit must be a number.");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be at least 1.");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    private static long amount(Map<String, String> params) {
+        String text = params.get("amount");
+        long amount;
+        try {
+            amount = Money.parse(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Please enter a valid amount.");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than zero.");
+        }
+        return amount;
+    }
+
+    /**
+     * @return the token of the Bearer Authorization header, or null if there is none
+     */
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    /**
+     * @return the username and password of the Basic Authorization header, or null if there is none
+     */
+    private static String[] credentials(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Basic ")) {
+            return null;
+        }
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = decoded.indexOf(':');
+        return colon < 0 ? null : new String[] {decoded.substring(0, colon), decoded.substring(colon + 1)};
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[512];
+            for (int n = in.read(chunk); n > 0; n = in.read(chunk)) {
+                if (body.size() + n > MAX_BODY_BYTES) {
+                    throw new IllegalArgumentException("Request body too large.");
+                }
+                body.write(chunk, 0, n);
+            }
+        }
+        parse(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+        return params;
+    }
+
+    private static void parse(String form, Map<String, String> params) throws UnsupportedEncodingException {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs customer and manager operations on background threads for the JavaFX controllers.
+ *
+ * Overview:
+ * Every operation changes the ledger and waits until the change is durable in the transaction
+ * log, and the manager's operations also read or write the customer index. Running them on the
+ * JavaFX Application Thread would freeze the UI for as long as the disk takes, so the controllers
+ * call this service instead. Operations on an account are queued to the shard that owns it and
+ * act on its canonical customer; listing customers and reading transaction histories run on a
+ * pool of daemon worker threads. Each
+ * method returns a CompletableFuture that completes with the result, or exceptionally with the
+ * exception the operation threw. Callers hand the completion back to the UI thread with
+ * Platform::runLater.
+ *
+ * Withdrawals, purchases and transfers first take a token from the RateLimiter for the debited
+ * account; when the account or the bank is over its rate, or the shard's queue is full, the
+ * future fails at once with a RejectedExecutionException and nothing is changed. The UI, the
+ * server and the batch mode all change accounts through this service, so every debit is held to
+ * the same limits.
+ */
+public class BankService {
+
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService executor;
+
+    /**
+     * @param threads the number of worker threads
+     * @requires threads > 0
+     */
+    public BankService(int threads) {
+        AtomicInteger number = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bank-service-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Logs a user in, verifying the password off the caller's thread.
+     *
+     * @param username the username
+     * @param password the password
+     * @param role "Manager" or "Customer"
+     * @return a future completing with the new session, or with null if the credentials are wrong
+     */
+    public CompletableFuture<Session> login(String username, String password, String role) {
+        return CompletableFuture.supplyAsync(() -> Database.getSessions().login(username, password, role), executor);
+    }
+
+    /**
+     * @param username the username
+     * @return a future completing with the canonical customer, once every operation queued
+     *         before on the account has run
+     */
+    public CompletableFuture<Customer> getCustomer(String username) {
+        return Database.getShards().submit(username, customer -> customer);
+    }
+
+    /**
+     * @param username the username of the customer
+     * @return a future completing with the balance of the customer, in cents, once every
+     *         operation queued before on the account has run, or exceptionally with an
+     *         IllegalArgumentException if the customer does not exist
+     */
+    public CompletableFuture<Long> balance(String username) {
+        return Database.getShards().submit(username, Customer::getBalance);
+    }
+
+    /**
+     * Deposits into a customer's account.
+     *
+     * @param username the username of the customer
+     * @param amount the amount, in cents
+     * @return a future completing with the new balance once the deposit is durable
+     */
+    public CompletableFuture<Long> deposit(String username, long amount) {
+        return Database.getShards().submit(username, customer -> {
+            CompletableFuture<Void> durable = customer.depositAsync(amount);
+            long balance = customer.getBalance();
+            return durable.thenApply(done -> balance);
+        }).thenCompose(durable -> durable);
+    }
+
+    /**
+     * Withdraws from a customer's account.
+     *
+     * @param username the username of the customer
+     * @param amount the amount, in cents
+     * @return a future completing with true once the withdrawal is durable, with false if the
+     *         funds were insufficient, or exceptionally with a RejectedExecutionException if the
+     *         request was throttled
+     */
+    public CompletableFuture<Boolean> withdraw(String username, long amount) {
+        CompletableFuture<Boolean> throttled = throttle(username);
+        if (throttled != null) {
+            return throttled;
+        }
+        return Database.getShards().submit(username, customer -> customer.withdrawAsync(amount))
+                .thenCompose(durable -> durable);
+    }
+
+    /**
+     * Makes an online purchase, paying the fee of the customer's level.
+     *
+     * @param username the username of the customer
+     * @param amount the purchase amount, in cents
+     * @return a future completing with true once the purchase is durable, with false if the
+     *         funds were insufficient, or exceptionally with a RejectedExecutionException if the
+     *         request was throttled
+     */
+    public CompletableFuture<Boolean> purchase(String username, long amount) {
+        CompletableFuture<Boolean> throttled = throttle(username);
+        if (throttled != null) {
+            return throttled;
+        }
+        return Database.getShards().submit(username, customer -> customer.purchaseAsync(amount))
+                .thenCompose(durable -> durable);
+    }
+
+    /**
+     * Transfers money between two customers' accounts. The transfer is applied by the commit
+     * pipeline rather than by a shard, as it changes two accounts owned by different shards; both
+     * customers are pinned in the cache until it is durable.
+     *
+     * @param from the username of the customer debited
+     * @param to the username of the customer credited
+     * @param amount the amount, in cents
+     * @return a future completing with true once the transfer is durable, with false if the funds
+     *         were insufficient, or exceptionally with an IllegalArgumentException if either
+     *         customer does not exist or a RejectedExecutionException if the request was throttled
+     */
+    public CompletableFuture<Boolean> transfer(String from, String to, long amount) {
+        CompletableFuture<Boolean> throttled = throttle(from);
+        if (throttled != null) {
+            return throttled;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            CustomerCache cache = Database.getCache();
+            Customer source = cache.pin(from);
+            Customer target;
+            try {
+                target = cache.pin(to);
+            } catch (IllegalArgumentException e) {
+                cache.unpin(from);
+                throw e;
+            }
+            return source.transferAsync(target, amount).whenComplete((done, error) -> {
+                cache.unpin(from);
+                cache.unpin(to);
+            });
+        }, executor).thenCompose(durable -> durable);
+    }
+
+    /**
+     * Takes a token for a debit from an account.
+     *
+     * @param username the username of the debited account
+     * @return null if the debit may go ahead, or a future failed with the RejectedExecutionException
+     *         of the limiter
+     */
+    private static <T> CompletableFuture<T> throttle(String username) {
+        try {
+            Database.getLimiter().acquire(username);
+            return null;
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> throttled = new CompletableFuture<>();
+            throttled.completeExceptionally(e);
+            return throttled;
+        }
+    }
+
+    /**
+     * Reads one sorted page of the usernames starting with a prefix. The first call also loads
+     * the customer index.
+     *
+     * @param prefix the prefix, or "" for every username
+     * @param after the last username of the previous page, or null for the first page
+     * @param limit the most usernames to return
+     * @return a future completing with at most limit usernames
+     */
+    public CompletableFuture<List<String>> listUsernames(String prefix, String after, int limit) {
+        return CompletableFuture.supplyAsync(() -> Manager.getUsernamePage(prefix, after, limit), executor);
+    }
+
+    /**
+     * @return a future completing with the bank-wide totals
+     */
+    public CompletableFuture<BankTotals> totals() {
+        return CompletableFuture.supplyAsync(Manager::getTotals, executor);
+    }
+
+    /**
+     * Reads the most recent transactions of a customer.
+     *
+     * @param username the username of the customer
+     * @param n the most transactions to return
+     * @return a future completing with at most n transactions, oldest first
+     */
+    public CompletableFuture<List<Transaction>> recentTransactions(String username, int n) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Database.getHistory().last(username, n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @param username the username of the new customer
+     * @param password the password of the new customer
+     * @return a future completing once the customer is created
+     */
+    public CompletableFuture<Void> addCustomer(String username, String password) {
+        return Database.getShards().run(username, () -> Manager.addCustomer(username, password));
+    }
+
+    /**
+     * @param username the username of the customer to delete
+     * @return a future completing once the customer is deleted
+     */
+    public CompletableFuture<Void> deleteCustomer(String username) {
+        return Database.getShards().run(username, () -> Manager.deleteCustomer(username));
+    }
+
+    /**
+     * Stops accepting operations; operations already submitted still run.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+}
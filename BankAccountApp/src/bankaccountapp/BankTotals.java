@@ -0,0 +1,102 @@
+package bankaccountapp;
+
+import java.util.List;
+
+/**
+ * Bank-wide totals read from the aggregates kept by the BalanceIndex.
+ *
+ * This class is immutable. Each figure is exact at the moment it was read; figures read while
+ * customers change may come from slightly different moments, so the per-level sums can differ
+ * from the total by the changes made during the read.
+ */
+public final class BankTotals {
+
+    private final List<Level> levels;
+    private final long customers;
+    private final long totalBalance;
+    private final long[] counts;
+    private final long[] sums;
+    private final long feeRevenue;
+
+    /**
+     * @param levels the levels of the tier table, from the lowest to the highest
+     * @param customers the number of customers
+     * @param totalBalance the sum of every balance, in cents
+     * @param counts the number of customers at each level, in the order of levels
+     * @param sums the sum of the balances at each level in cents, in the order of levels
+     * @param feeRevenue the online fees charged since the application started, in cents
+     */
+    BankTotals(List<Level> levels, long customers, long totalBalance, long[] counts, long[] sums, long feeRevenue) {
+        this.levels = levels;
+        this.customers = customers;
+        this.totalBalance = totalBalance;
+        this.counts = counts;
+        this.sums = sums;
+        this.feeRevenue = feeRevenue;
+    }
+
+    /**
+     * @return the levels of the tier table, from the lowest to the highest
+     */
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    /**
+     * @return the sum of every balance, in cents
+     */
+    public long getTotalBalance() {
+        return totalBalance;
+    }
+
+    /**
+     * @param level a level of the tier table
+     * @return the number of customers at that level
+     */
+    public long getCount(Level level) {
+        return counts[indexOf(level)];
+    }
+
+    /**
+     * @param level a level of the tier table
+     * @return the sum of the balances at that level, in cents
+     */
+    public long getSum(Level level) {
+        return sums[indexOf(level)];
+    }
+
+    /**
+     * @return the online fees charged since the application started, in cents
+     */
+    public long getFeeRevenue() {
+        return feeRevenue;
+    }
+
+    private int indexOf(Level level) {
+        int index = levels.indexOf(level);
+        if (index < 0) {
+            throw new IllegalArgumentException("Level " + level + " is not in the tier table.");
+        }
+        return index;
+    }
+
+    /**
+     * @return one line per figure, e.g. "Gold 12 $150000.00"
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append("Customers ").append(customers).append(" $");
+        Money.appendTo(out, totalBalance).append('\n');
+        for (int i = 0; i < levels.size(); i++) {
+            out.append(levels.get(i)).append(' ').append(counts[i]).append(" $");
+            Money.appendTo(out, sums[i]).append('\n');
+        }
+        out.append("Fees $");
+        return Money.appendTo(out, feeRevenue).append('\n').toString();
+    }
+}
@@ -0,0 +1,279 @@
+package bankaccountapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Headless batch mode that applies a file of money movements without the JavaFX UI.
+ *
+ * Overview:
+ * The input is a CSV file with one instruction per line: username,operation,amount where the
+ * operation is deposit, withdraw or purchase and the amount is in dollars. Lines that are empty
+ * or start with # are skipped. The file is streamed, and each instruction is handed to the
+ * partition that owns its account (hash of the username), so instructions for one account are
+ * applied in file order while different accounts proceed in parallel. Every partition has a
+ * bounded queue, so memory stays bounded however large the file is.
+ *
+ * A partition only reads the file order; it hands each instruction to the BankService and waits
+ * for it, so the instruction runs on the shard owning the account, serialized with the requests
+ * of the UI and the server, and follows the same rules: amounts must be positive, purchases must
+ * be at least $50 and pay the online fee of the customer's level, and withdrawals and purchases
+ * are rejected when funds are insufficient. Withdrawals and purchases take a token from the same
+ * RateLimiter as every other debit; an instruction over the rate of its account or of the bank,
+ * or refused by a full shard, is queued again after THROTTLE_WAIT_MILLIS rather than rejected, so
+ * a batch is applied in full at no more than the configured rates. Applied instructions are
+ * written to the results file with the new balance, rejected ones to the rejects file with the
+ * reason; both start with the input line number.
+ *
+ * Usage: java -jar BankAccountApp.jar --batch input.csv results.csv rejects.csv [partitions]
+ */
+public class BatchProcessor {
+
+    private static final int DEFAULT_PARTITIONS = 64;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long THROTTLE_WAIT_MILLIS = 10;
+
+    private static final LongAdder THROTTLED = Database.getMetrics().counter("batch.throttled");
+    private static final Instruction END = new Instruction(0, null, null, null);
+
+    private final Partition[] partitions;
+    private final Writer results;
+    private final Writer rejects;
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param partitions the number of partitions applying instructions in parallel
+     * @param results where applied instructions are written
+     * @param rejects where rejected instructions are written
+     */
+    public BatchProcessor(int partitions, Writer results, Writer rejects) {
+        this.partitions = new Partition[partitions];
+        this.results = results;
+        this.rejects = rejects;
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchProcessor <input.csv> <results.csv> <rejects.csv> [partitions]");
+            System.exit(2);
+        }
+        int partitions = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PARTITIONS;
+        Database.startMetricsDump();
+        try (BufferedReader input = new BufferedReader(new FileReader(args[0]));
+                Writer results = new BufferedWriter(new FileWriter(args[1]));
+                Writer rejects = new BufferedWriter(new FileWriter(args[2]))) {
+            BatchProcessor processor = new BatchProcessor(partitions, results, rejects);
+            long start = System.nanoTime();
+            processor.process(input);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long total = processor.getApplied() + processor.getRejected();
+            System.out.printf("Processed %d records (%d applied, %d rejected) in %.1f s: %.0f records/s%n",
+                    total, processor.getApplied(), processor.getRejected(), seconds, total / seconds);
+        } finally {
+            Database.getPipeline().close();
+            Database.getLog().close();
+            Database.getHistory().close();
+            Database.dumpMetrics();
+        }
+    }
+
+    /**
+     * Applies every instruction read from the input and waits until all partitions are done.
+     *
+     * @param input the CSV instructions
+     * @throws IOException if the input cannot be read or a result cannot be written
+     * @throws InterruptedException if interrupted while waiting for the partitions
+     */
+    public void process(BufferedReader input) throws IOException, InterruptedException {
+        for (Partition partition : partitions) {
+            partition.start();
+        }
+        try {
+            String line;
+            long lineNumber = 0;
+            while ((line = input.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    reject(lineNumber, line, "malformed line");
+                    continue;
+                }
+                String username = fields[0].trim();
+                Instruction instruction = new Instruction(lineNumber, username, fields[1].trim(), fields[2].trim());
+                partitions[Math.floorMod(username.hashCode(), partitions.length)].queue.put(instruction);
+            }
+        } finally {
+            for (Partition partition : partitions) {
+                partition.queue.put(END);
+            }
+            for (Partition partition : partitions) {
+                partition.join();
+            }
+            results.flush();
+            rejects.flush();
+        }
+    }
+
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void apply(Instruction instruction) throws IOException, InterruptedException {
+        long amount;
+        try {
+            amount = Money.parse(instruction.amount);
+        } catch (NumberFormatException e) {
+            reject(instruction, "invalid amount");
+            return;
+        }
+        if (amount <= 0) {
+            reject(instruction, "amount must be positive");
+            return;
+        }
+        BankService service = Database.getService();
+        String username = instruction.username;
+        long balance;
+        try {
+            switch (instruction.operation.toLowerCase()) {
+                case "deposit":
+                    balance = await(() -> service.deposit(username, amount));
+                    break;
+                case "withdraw":
+                case "purchase":
+                    boolean purchase = instruction.operation.equalsIgnoreCase("purchase");
+                    if (purchase && amount < Customer.MINIMUM_PURCHASE) {
+                        reject(instruction, "minimum purchase is $50");
+                        return;
+                    }
+                    if (!await(() -> purchase ? service.purchase(username, amount) : service.withdraw(username, amount))) {
+                        reject(instruction, "insufficient funds");
+                        return;
+                    }
+                    balance = await(() -> service.balance(username));
+                    break;
+                default:
+                    reject(instruction, "unknown operation");
+                    return;
+            }
+        } catch (IllegalArgumentException e) {
+            reject(instruction, "unknown account");
+            return;
+        }
+        applied.increment();
+        StringBuilder line = new StringBuilder(64);
+        line.append(instruction.lineNumber).append(',').append(instruction.username).append(',')
+                .append(instruction.operation).append(',').append(instruction.amount).append(",OK,");
+        write(results, Money.appendTo(line, balance));
+    }
+
+    /**
+     * Queues an operation to the BankService and waits for it, rethrowing its exception unwrapped.
+     * An operation throttled by the rate limiter or refused by a full shard has changed nothing,
+     * so it is queued again after THROTTLE_WAIT_MILLIS until it is accepted.
+     *
+     * @param operation queues the operation
+     * @return the result of the operation
+     * @throws InterruptedException if interrupted while waiting to queue the operation again
+     */
+    private static <T> T await(Supplier<CompletableFuture<T>> operation) throws InterruptedException {
+        while (true) {
+            try {
+                return operation.get().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    THROTTLED.increment();
+                    Thread.sleep(THROTTLE_WAIT_MILLIS);
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void reject(Instruction instruction, String reason) throws IOException {
+        reject(instruction.lineNumber, instruction.username + "," + instruction.operation + "," + instruction.amount,
+                reason);
+    }
+
+    private void reject(long lineNumber, String line, String reason) throws IOException {
+        rejected.increment();
+        write(rejects, new StringBuilder(64).append(lineNumber).append(',').append(line).append(",REJECTED,")
+                .append(reason));
+    }
+
+    private static void write(Writer out, CharSequence line) throws IOException {
+        synchronized (out) {
+            out.append(line).append(System.lineSeparator());
+        }
+    }
+
+    /**
+     * One parsed line of the input file.
+     */
+    private static final class Instruction {
+
+        final long lineNumber;
+        final String username;
+        final String operation;
+        final String amount;
+
+        Instruction(long lineNumber, String username, String operation, String amount) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.operation = operation;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * A worker thread owning every account whose username hashes to it.
+     */
+    private final class Partition extends Thread {
+
+        final BlockingQueue<Instruction> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        Partition(int number) {
+            super("batch-partition-" + number);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Instruction instruction = queue.take(); instruction != END; instruction = queue.take()) {
+                    try {
+                        apply(instruction);
+                    } catch (IOException | RuntimeException e) {
+                        Database.getMetrics().failure("batch.apply", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
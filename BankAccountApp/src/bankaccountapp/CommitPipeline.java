@@ -0,0 +1,253 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces customer changes from many threads into batched, durable log writes.
+ *
+ * Overview:
+ * Callers submit changes and receive a future. A single committer thread takes the first pending
+ * change, keeps collecting changes until the batch is full or the linger time has passed, appends
+ * the whole batch to the transaction log and forces it to disk once. Every future in the batch
+ * completes only after that force returns, so N concurrent tellers cost one disk flush per batch
+ * instead of N. A transfer between two customers is applied by the committer itself, as its pair
+ * of records is written, so it is durable in the same flush as the changes around it.
+ *
+ * Raising the batch size or the linger time trades commit latency for fewer flushes per second;
+ * the batch size histogram and the commit latency histogram show where the pipeline sits.
+ *
+ * A change that throws while it is written, e.g. one whose username is too long for the log, fails
+ * only its own future, as nothing of it was written. A write or force that fails with an
+ * IOException fails the future of every change in the batch, since none of them is known to be
+ * durable, and the committer goes on with the next batch.
+ *
+ * close queues a STOP marker behind every change submitted before it and waits for the committer
+ * to reach it. The committer is never interrupted, as interrupting a thread inside a FileChannel
+ * operation closes the channel of the log. Changes submitted after close fail at once.
+ *
+ * Abstraction Function:
+ * AF(p) = The changes in p.queue waiting to be made durable in p.log, in submission order.
+ *
+ * Representation Invariant:
+ * RI(p) = p.log != null && p.maxBatchSize > 0 && p.lingerNanos >= 0
+ */
+public class CommitPipeline {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_LINGER_MILLIS = 2;
+
+    /**
+     * Queued by close after every change; the committer stops when it takes it.
+     */
+    private static final Pending STOP = new Pending(null, null);
+
+    private final TransactionLog log;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram commitLatency = new Histogram();
+    private final Thread committer;
+    private boolean closed; // Guarded by this; no change is queued after STOP
+
+    /**
+     * Starts a pipeline in front of the given log.
+     *
+     * @param log the log to append to
+     * @param maxBatchSize the most changes made durable by one flush
+     * @param lingerMillis how long to wait for more changes after the first one arrives
+     * @requires maxBatchSize > 0 && lingerMillis >= 0
+     */
+    public CommitPipeline(TransactionLog log, int maxBatchSize, long lingerMillis) {
+        if (maxBatchSize <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and linger time non-negative.");
+        }
+        this.log = log;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.committer = new Thread(this::run, "commit-pipeline");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Queues the current state of a customer to be made durable.
+     *
+     * @param customer the customer that changed
+     * @return a future completed once the change is durable, or exceptionally if the write fails
+     */
+    public CompletableFuture<Void> submit(Customer customer) {
+        return enqueue(new Pending(customer, null));
+    }
+
+    /**
+     * Queues a transfer between two customers. The transfer is applied when its batch is written,
+     * under the transaction log's lock, and the images of both customers are logged as one pair.
+     *
+     * @param from the customer debited
+     * @param to the customer credited
+     * @param transfer the steps of the transfer
+     * @return a future completed with the result of its debit once the pair is durable, or
+     *         exceptionally if a step throws or the write fails, in which case nothing was moved
+     */
+    public CompletableFuture<Boolean> submitTransfer(Customer from, Customer to, TransactionLog.Transfer transfer) {
+        Pending pending = new Pending(from, null);
+        pending.other = to;
+        pending.transfer = transfer;
+        return enqueue(pending).thenApply(durable -> pending.applied);
+    }
+
+    /**
+     * Queues the deletion of a customer to be made durable.
+     *
+     * @param username the username of the deleted customer
+     * @return a future completed once the deletion is durable, or exceptionally if the write fails
+     */
+    public CompletableFuture<Void> submitDelete(String username) {
+        return enqueue(new Pending(null, username));
+    }
+
+    /**
+     * Commits every queued change and stops the committer thread. Changes submitted afterwards
+     * fail with an IllegalStateException.
+     */
+    public void close() {
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                queue.add(STOP);
+            }
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getLingerMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lingerNanos);
+    }
+
+    /**
+     * @return the histogram of the number of changes made durable per flush
+     */
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return the histogram of nanoseconds from submission to durability
+     */
+    public Histogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        synchronized (this) {
+            if (!closed) {
+                queue.add(pending);
+                return pending.future;
+            }
+        }
+        pending.future.completeExceptionally(new IllegalStateException("Commit pipeline is closed."));
+        return pending.future;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Pending first = queue.take();
+                if (first == STOP) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts the committer on purpose; commit what has been collected
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    commit(batch);
+                } catch (IOException | RuntimeException e) {
+                    // Whatever was not completed is not known to be durable; the committer lives on
+                    Database.getMetrics().failure("pipeline.commit", e);
+                    for (Pending pending : batch) {
+                        pending.future.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        long seq = 0;
+        for (Pending pending : batch) {
+            try {
+                if (pending.transfer != null) {
+                    long written = log.writeTransfer(pending.customer, pending.other, pending.transfer);
+                    pending.applied = written > 0;
+                    seq = Math.max(seq, written);
+                } else {
+                    seq = pending.customer != null ? log.write(pending.customer) : log.writeDelete(pending.username);
+                }
+            } catch (RuntimeException e) {
+                pending.future.completeExceptionally(e); // Rejected before anything of it was written
+            }
+        }
+        log.sync(seq);
+        long now = System.nanoTime();
+        batchSizes.record(batch.size());
+        for (Pending pending : batch) {
+            if (!pending.future.isDone()) {
+                commitLatency.record(now - pending.submitted);
+                pending.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * A change waiting in the queue. The customer's state is encoded when the batch is written,
+     * not when it is submitted, so the log always ends with the latest state.
+     */
+    private static final class Pending {
+
+        final Customer customer;
+        final String username;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Customer other; // The customer credited by a transfer
+        TransactionLog.Transfer transfer; // Null for any change but a transfer
+        boolean applied; // Written by the committer before future completes
+
+        Pending(Customer customer, String username) {
+            this.customer = customer;
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package bankaccountapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted password hashes of the customers and the manager.
+ *
+ * Overview:
+ * Passwords are never stored. Each user has a credential holding a random salt, the PBKDF2
+ * (HMAC-SHA256) hash of the password and the iteration count it was hashed with, plus the user's
+ * role. The credentials live in database/.credentials, a header followed by set and remove
+ * entries, which is read once when the store is opened and compacted like the customer index.
+ * Raising the iteration count only affects new hashes; an older hash is upgraded the next time
+ * its password is verified.
+ *
+ * Hashing is deliberately slow, so it runs on a dedicated pool of worker threads and never on the
+ * threads of the caller. After a password was verified, a SHA-256 digest of it with the salt is
+ * kept in a bounded cache, so verifying the same password again, e.g. on every request of a
+ * session, costs one fast digest. Any other password still pays for the full hash, so the cache
+ * does not make guessing cheaper. Changing or removing a credential invalidates its cache entry.
+ * A password given for an unknown user is hashed as well, with a fixed salt, and a password given
+ * for the wrong role is checked like any other before it is refused, so how long a verification
+ * takes does not tell whether a username exists or which role it has.
+ *
+ * Abstraction Function:
+ * AF(s) = The users { (u, s.credentials.get(u).role) | u in s.credentials.keySet() }, each of
+ *         whom can log in with the password whose hash is s.credentials.get(u).hash.
+ *
+ * Representation Invariant:
+ * RI(s) = s.verified.size() <= s.cacheSize && every entry of s.verified refers to the current
+ *         credential of its user
+ */
+public class CredentialStore {
+
+    public static final int DEFAULT_ITERATIONS = 100000;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final String CREDENTIAL_FILE = ".credentials";
+    private static final int MAGIC = 0x43524544;
+    private static final byte VERSION = 1;
+    private static final byte SET = 1;
+    private static final byte REMOVE = 2;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final byte[] UNKNOWN_USER_SALT = new byte[SALT_BYTES];
+
+    private final File databaseDir;
+    private final File file;
+    private final int iterations;
+    private final int cacheSize;
+    private final ExecutorService hashers;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Verified> verified = new LinkedHashMap<>(16, 0.75f, true);
+    private FileOutputStream stream;
+    private DataOutputStream out;
+
+    private CredentialStore(File databaseDir, int iterations, int cacheSize, int threads) {
+        this.databaseDir = databaseDir;
+        this.file = new File(databaseDir, CREDENTIAL_FILE);
+        this.iterations = iterations;
+        this.cacheSize = cacheSize;
+        AtomicInteger number = new AtomicInteger();
+        this.hashers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bank-hasher-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the credential store of the given database directory, creating it if it does not exist.
+     *
+     * @param databaseDir the database directory, which holds the credential file
+     * @param iterations the PBKDF2 iteration count for new hashes
+     * @param cacheSize the most verified passwords remembered
+     * @param threads the number of threads hashing passwords
+     * @return the opened store
+     * @throws IOException if the credential file cannot be read or written
+     * @requires iterations > 0 && cacheSize >= 0 && threads > 0
+     */
+    public static CredentialStore open(File databaseDir, int iterations, int cacheSize, int threads)
+            throws IOException {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("The iteration count must be positive.");
+        }
+        CredentialStore store = new CredentialStore(databaseDir, iterations, cacheSize, threads);
+        if (!store.file.exists() || store.load()) {
+            store.rewrite();
+        }
+        store.stream = new FileOutputStream(store.file, true);
+        store.out = new DataOutputStream(new BufferedOutputStream(store.stream));
+        return store;
+    }
+
+    /**
+     * Reads the credential file.
+     *
+     * @return true if the file should be compacted
+     */
+    private boolean load() throws IOException {
+        int removed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Unsupported credential format in " + file);
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String username = in.readUTF();
+                    if (op == SET) {
+                        credentials.put(username, readCredential(in));
+                    } else {
+                        credentials.remove(username);
+                        removed++;
+                    }
+                } catch (EOFException e) {
+                    return true; // Torn entry at the tail
+                }
+            }
+        }
+        return removed > credentials.size();
+    }
+
+    /**
+     * Writes the live credentials to a temporary file and atomically replaces the credential file with it.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(databaseDir, CREDENTIAL_FILE + ".tmp");
+        try (FileOutputStream tempStream = new FileOutputStream(temp);
+                DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempStream))) {
+            tempOut.writeInt(MAGIC);
+            tempOut.writeByte(VERSION);
+            for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+                tempOut.writeByte(SET);
+                tempOut.writeUTF(entry.getKey());
+                writeCredential(tempOut, entry.getValue());
+            }
+            tempOut.flush();
+            tempStream.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Credential readCredential(DataInputStream in) throws IOException {
+        String role = in.readUTF();
+        int iterations = in.readInt();
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] hash = new byte[HASH_BYTES];
+        in.readFully(salt);
+        in.readFully(hash);
+        return new Credential(role, iterations, salt, hash);
+    }
+
+    private static void writeCredential(DataOutputStream out, Credential credential) throws IOException {
+        out.writeUTF(credential.role);
+        out.writeInt(credential.iterations);
+        out.write(credential.salt);
+        out.write(credential.hash);
+    }
+
+    /**
+     * Sets the password and role of a user, replacing any previous credential.
+     *
+     * @param username the username
+     * @param password the new password
+     * @param role the role, "Manager" or "Customer"
+     * @throws IOException if the credential cannot be written
+     */
+    public void set(String username, String password, String role) throws IOException {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Credential credential = new Credential(role, iterations, salt,
+                CompletableFuture.supplyAsync(() -> hash(password, salt, iterations), hashers).join());
+        store(username, credential);
+    }
+
+    private synchronized void store(String username, Credential credential) throws IOException {
+        out.writeByte(SET);
+        out.writeUTF(username);
+        writeCredential(out, credential);
+        out.flush();
+        stream.getFD().sync();
+        credentials.put(username, credential);
+        invalidate(username);
+    }
+
+    /**
+     * Changes the role of a user without rehashing the password.
+     *
+     * @param username the username
+     * @param role the new role
+     * @throws IOException if the credential cannot be written
+     */
+    public void setRole(String username, String role) throws IOException {
+        Credential current = credentials.get(username);
+        if (current != null && !current.role.equals(role)) {
+            store(username, new Credential(role, current.iterations, current.salt, current.hash));
+        }
+    }
+
+    /**
+     * Removes the credential of a deleted user.
+     *
+     * @param username the username
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized void remove(String username) throws IOException {
+        if (credentials.containsKey(username)) {
+            out.writeByte(REMOVE);
+            out.writeUTF(username);
+            out.flush();
+            stream.getFD().sync();
+            credentials.remove(username);
+            invalidate(username);
+        }
+    }
+
+    public boolean contains(String username) {
+        return credentials.containsKey(username);
+    }
+
+    /**
+     * @param role the role
+     * @return true if at least one user has the role
+     */
+    public boolean hasRole(String role) {
+        for (Credential credential : credentials.values()) {
+            if (credential.role.equals(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verifies a password, waiting for the hash if the password is not cached.
+     *
+     * @param username the username
+     * @param password the password
+     * @param role the role the user logs in with
+     * @return true if the user exists with that role and password
+     */
+    public boolean verify(String username, String password, String role) {
+        return verifyAsync(username, password, role).join();
+    }
+
+    /**
+     * Verifies a password, hashing it on the hashing threads if it is not cached.
+     *
+     * @param username the username
+     * @param password the password
+     * @param role the role the user logs in with
+     * @return a future completing with true if the user exists with that role and password
+     */
+    public CompletableFuture<Boolean> verifyAsync(String username, String password, String role) {
+        Credential credential = credentials.get(username);
+        if (credential == null || password == null) {
+            return CompletableFuture.supplyAsync(() -> {
+                hash(password == null ? "" : password, UNKNOWN_USER_SALT, iterations);
+                return false;
+            }, hashers);
+        }
+        boolean roleMatches = credential.role.equals(role);
+        byte[] digest = digest(password, credential.salt);
+        Verified cached;
+        synchronized (this) {
+            cached = verified.get(username);
+        }
+        if (cached != null && cached.credential == credential && MessageDigest.isEqual(cached.digest, digest)) {
+            return CompletableFuture.completedFuture(roleMatches);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            boolean matches = MessageDigest.isEqual(credential.hash, hash(password, credential.salt,
+                    credential.iterations));
+            if (matches) {
+                remember(username, credential, digest);
+                if (credential.iterations < iterations) {
+                    upgrade(username, password, credential);
+                }
+            }
+            return matches && roleMatches;
+        }, hashers);
+    }
+
+    private synchronized void remember(String username, Credential credential, byte[] digest) {
+        if (cacheSize > 0 && credentials.get(username) == credential) {
+            verified.put(username, new Verified(credential, digest));
+            if (verified.size() > cacheSize) {
+                verified.remove(verified.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Rehashes a verified password with the current iteration count.
+     */
+    private void upgrade(String username, String password, Credential old) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Credential upgraded = new Credential(old.role, iterations, salt, hash(password, salt, iterations));
+        synchronized (this) {
+            if (credentials.get(username) == old) {
+                try {
+                    store(username, upgraded);
+                } catch (IOException e) {
+                    Database.getMetrics().failure("credentials.upgrade", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the verified password of a user, so the next verification hashes it again.
+     *
+     * @param username the username
+     */
+    public synchronized void invalidate(String username) {
+        verified.remove(username);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Closes the credential file and stops the hashing threads.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        hashers.shutdown();
+        out.close();
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available.", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] digest(String password, byte[] salt) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(salt);
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * The stored hash of one user's password.
+     */
+    private static final class Credential {
+
+        final String role;
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        Credential(String role, int iterations, byte[] salt, byte[] hash) {
+            this.role = role;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A password verified against a credential, remembered as a fast digest.
+     */
+    private static final class Verified {
+
+        final Credential credential;
+        final byte[] digest;
+
+        Verified(Credential credential, byte[] digest) {
+            this.credential = credential;
+            this.digest = digest;
+        }
+    }
+}
@@ -1,18 +1,16 @@
 package bankaccountapp;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a customer in the bank application.
  * 
  * Overview:
  * This class represents a bank customer, including their account information, login credentials, and role.
- * It allows for operations such as deposit, withdrawal, online purchases, and login/logout.
+ * It allows for operations such as deposit, withdrawal, online purchases, transfers to another customer,
+ * and login/logout.
  * This class is mutable as it allows modifications to the customer's account balance, password, and role.
  * 
  * Abstraction Function:
@@ -27,37 +25,51 @@ import java.io.PrintWriter;
 public class Customer {
 
     private String username;
-    private String password;
+    private String password; // Plaintext of a customer created before hashing, "" once migrated
     private String role; // Role for login (Manager or Customer)
-    private Level level; // Level based on balance (Silver, Gold, or Platinum)
+    private volatile Level level; // Level based on balance, shared with every customer of the level
     private CustomerAccount account;
 
-    private static final String DATABASE_DIR = System.getProperty("user.dir") + "/database/";
-    private static final double SILVER_THRESHOLD = 10000.0;
-    private static final double GOLD_THRESHOLD = 20000.0;
+    public static final long MINIMUM_PURCHASE = Money.dollars(50);
+
+    // Looked up once so an operation only records into them
+    private static final Metrics METRICS = Database.getMetrics();
+    private static final Histogram LOAD_MICROS = METRICS.histogram("customer.load.micros");
+    private static final Histogram DEPOSIT_MICROS = METRICS.histogram("customer.deposit.micros");
+    private static final Histogram WITHDRAW_MICROS = METRICS.histogram("customer.withdraw.micros");
+    private static final Histogram PURCHASE_MICROS = METRICS.histogram("customer.purchase.micros");
+    private static final Histogram TRANSFER_MICROS = METRICS.histogram("customer.transfer.micros");
+    private static final LongAdder REJECTED_INVALID_AMOUNT = METRICS.counter("customer.rejected.invalidAmount");
+    private static final LongAdder REJECTED_INSUFFICIENT_FUNDS =
+            METRICS.counter("customer.rejected.insufficientFunds");
+    private static final LongAdder REJECTED_MINIMUM_PURCHASE = METRICS.counter("customer.rejected.minimumPurchase");
 
     public Customer(String username) {
+        long start = System.nanoTime();
         this.username = username;
-        loadCustomerFromFile();
+        loadCustomer();
         updateLevel(); // Initialize level based on balance
+        LOAD_MICROS.record((System.nanoTime() - start) / 1000);
     }
 
-    private void loadCustomerFromFile() {
-        File file = new File(DATABASE_DIR, username);
-        if (!file.exists()) {
-            throw new IllegalArgumentException("Customer file does not exist.");
+    private void loadCustomer() {
+        // A change that is only in the log yet is newer than the stored record
+        CustomerRecord record = Database.getLog().pendingImage(username);
+        if (record == null) {
+            try {
+                record = Database.getStore().read(username);
+            } catch (IOException e) {
+                METRICS.failure("customer.load", e);
+                throw new IllegalArgumentException();
+            }
         }
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            this.username = reader.readLine();
-            this.password = reader.readLine();
-            this.role = reader.readLine();
-            double balance = Double.parseDouble(reader.readLine());
-            this.account = new CustomerAccount(balance);
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException();
+        if (record == null || record == TransactionLog.DELETED) {
+            throw new IllegalArgumentException("Customer file does not exist.");
         }
+        this.username = record.getUsername();
+        this.password = record.getPassword();
+        this.role = record.getRole();
+        this.account = Database.getLedger().open(username, record.getBalance());
     }
 
     /**
@@ -65,11 +77,20 @@ public class Customer {
      * 
      * @param password the new password
      * @modifies this.password
-     * @effects updates the password and writes the change to the customer file
+     * @effects stores the hash of the password in the credential store and removes any plaintext
+     *          password from the customer file
      */
     public void setPassword(String password) {
-        this.password = password;
-        updateCustomerFile();
+        try {
+            Database.getCredentials().set(username, password, role);
+        } catch (IOException e) {
+            METRICS.failure("customer.credentials", e);
+            return;
+        }
+        if (!this.password.isEmpty()) {
+            this.password = ""; // Drop the plaintext password of a customer created before hashing
+            updateCustomerFile();
+        }
     }
 
     /**
@@ -82,73 +103,203 @@ public class Customer {
      */
     public void setRole(String role) {
         this.role = role;
+        try {
+            Database.getCredentials().setRole(username, role);
+        } catch (IOException e) {
+            METRICS.failure("customer.credentials", e);
+        }
         updateCustomerFile();
     }
 
     /**
      * Deposits a specified amount into the customer's account.
      * 
-     * @param amount the amount to deposit
+     * @param amount the amount to deposit, in cents
      * @requires amount > 0
      * @modifies this.account.balance
      * @effects increases the account balance by the specified amount and updates the level
      */
-    public void deposit(double amount) {
+    public void deposit(long amount) {
+        depositAsync(amount).join();
+    }
+
+    /**
+     * Deposits like deposit, but returns once the change is queued to the transaction log.
+     *
+     * @return a future completing once the change is durable, or exceptionally if it cannot be
+     *         made durable; the deposit then stays applied in memory only
+     */
+    CompletableFuture<Void> depositAsync(long amount) {
+        long start = System.nanoTime();
         if (amount > 0) {
-            account.setBalance(account.getBalance() + amount);
+            long balance = account.deposit(amount);
             updateLevel(); // Update level based on new balance
-            updateCustomerFile();
+            return persist(DEPOSIT_MICROS, start)
+                    .thenCompose(durable -> record(Transaction.Type.DEPOSIT, amount, 0, balance));
         } else {
-            System.out.println("Deposit amount must be positive.");
+            REJECTED_INVALID_AMOUNT.increment();
+            return CompletableFuture.completedFuture(null);
         }
     }
 
     /**
      * Withdraws a specified amount from the customer's account.
      * 
-     * @param amount the amount to withdraw
+     * @param amount the amount to withdraw, in cents
      * @requires amount > 0 && amount <= account.getBalance()
      * @modifies this.account.balance
      * @effects decreases the account balance by the specified amount and updates the level
+     * @return true if the withdrawal was successful, false otherwise
+     */
+    public boolean withdraw(long amount) {
+        return withdrawAsync(amount).join();
+    }
+
+    /**
+     * Withdraws like withdraw, but returns once the change is queued to the transaction log.
+     *
+     * @return a future completing with the result of withdraw once the change is durable, or
+     *         exceptionally as for depositAsync
      */
-    public void withdraw(double amount) {
-        if (amount > 0 && amount <= account.getBalance()) {
-            account.setBalance(account.getBalance() - amount);
+    CompletableFuture<Boolean> withdrawAsync(long amount) {
+        long start = System.nanoTime();
+        if (amount <= 0) {
+            REJECTED_INVALID_AMOUNT.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+        long balance = account.withdrawAndGet(amount, current -> 0);
+        if (balance >= 0) {
             updateLevel(); // Update level based on new balance
-            updateCustomerFile();
+            return persist(WITHDRAW_MICROS, start)
+                    .thenCompose(durable -> record(Transaction.Type.WITHDRAWAL, amount, 0, balance))
+                    .thenApply(recorded -> true);
         } else {
-            System.out.println("Insufficient funds or invalid amount.");
+            REJECTED_INSUFFICIENT_FUNDS.increment();
+            return CompletableFuture.completedFuture(false);
         }
     }
 
     /**
      * Performs an online purchase if the balance is sufficient.
      * 
-     * @param amount the amount to purchase
-     * @requires amount >= 50.0
+     * @param amount the amount to purchase, in cents
+     * @requires amount >= 5000 ($50)
      * @modifies this.account.balance
      * @effects deducts the purchase amount and the online fee from the account balance if sufficient funds exist
      * @return true if the purchase was successful, false otherwise
      */
-    public boolean doOnlinePurchase(double amount) {
-        if (amount >= 50.0) {
-            double fee = level.getOnlineFee();
-            double totalAmount = amount + fee;
+    public boolean doOnlinePurchase(long amount) {
+        return purchaseAsync(amount).join();
+    }
 
-            if (account.getBalance() >= totalAmount) {
-                account.setBalance(account.getBalance() - totalAmount);
+    /**
+     * Purchases like doOnlinePurchase, but returns once the change is queued to the transaction log.
+     *
+     * @return a future completing with the result of doOnlinePurchase once the change is durable,
+     *         or exceptionally as for depositAsync
+     */
+    CompletableFuture<Boolean> purchaseAsync(long amount) {
+        long start = System.nanoTime();
+        if (amount >= MINIMUM_PURCHASE) {
+            // The fee is taken from the level of the balance being debited
+            long[] fee = new long[1];
+            long balance = account.withdrawAndGet(amount, debited -> fee[0] = levelFor(debited).getOnlineFee());
+            if (balance >= 0) {
                 updateLevel();
-                updateCustomerFile();
-                
-                return true;
+                Database.getBalanceIndex().addFee(fee[0]);
+                return persist(PURCHASE_MICROS, start)
+                        .thenCompose(durable -> record(Transaction.Type.PURCHASE, amount, fee[0], balance))
+                        .thenApply(recorded -> true);
             } else {
-                System.out.println("Insufficient funds for the purchase and fee.");
-                return false;
+                REJECTED_INSUFFICIENT_FUNDS.increment();
+                return CompletableFuture.completedFuture(false);
             }
         } else {
-            System.out.println("Minimum purchase amount is $50.");
-            return false;
+            REJECTED_MINIMUM_PURCHASE.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Transfers an amount to another customer if the balance is sufficient. Both customers must
+     * stay cached until it returns, e.g. by pinning them.
+     *
+     * @param to the customer credited
+     * @param amount the amount to transfer, in cents
+     * @requires amount > 0 && to is not this customer
+     * @modifies this.account.balance, to.account.balance
+     * @effects moves the amount from this account to the other atomically and updates both levels
+     * @return true if the transfer was successful, false otherwise
+     */
+    public boolean transfer(Customer to, long amount) {
+        return transferAsync(to, amount).join();
+    }
+
+    /**
+     * Transfers like transfer, but returns once the transfer is queued to the transaction log.
+     * The transfer is applied when its batch is written, so the balances change only later.
+     *
+     * @return a future completing with the result of transfer once it is durable, or
+     *         exceptionally if either customer was deleted meanwhile
+     */
+    CompletableFuture<Boolean> transferAsync(Customer to, long amount) {
+        long start = System.nanoTime();
+        if (amount <= 0 || to.username.equals(username)) {
+            REJECTED_INVALID_AMOUNT.increment();
+            return CompletableFuture.completedFuture(false);
         }
+        long[] balances = new long[2];
+        // Pinned until durable, for the same reason as in persist
+        CustomerCache cache = Database.getCache();
+        boolean pinnedFrom = cache.pinIfCached(this);
+        boolean pinnedTo = cache.pinIfCached(to);
+        return Database.getPipeline().submitTransfer(this, to, new TransactionLog.Transfer() {
+            @Override
+            public long amount() {
+                return amount;
+            }
+
+            @Override
+            public boolean debit() {
+                Ledger ledger = Database.getLedger();
+                // A customer deleted before the transfer was written has left the ledger, and its
+                // deletion is already logged; logging its image now would bring it back
+                if (ledger.get(username) != account || ledger.get(to.username) != to.account) {
+                    throw new IllegalArgumentException("Customer no longer exists.");
+                }
+                balances[0] = account.withdrawAndGet(amount, balance -> 0);
+                return balances[0] >= 0;
+            }
+
+            @Override
+            public void credit() {
+                balances[1] = to.account.deposit(amount);
+            }
+
+            @Override
+            public void refund() {
+                account.deposit(amount);
+            }
+        }).whenComplete((done, e) -> {
+            if (pinnedFrom) {
+                cache.unpin(username);
+            }
+            if (pinnedTo) {
+                cache.unpin(to.username);
+            }
+        }).thenCompose(done -> { // On the committer, which only queues the index and history updates
+            if (!done) {
+                REJECTED_INSUFFICIENT_FUNDS.increment();
+                return CompletableFuture.completedFuture(false);
+            }
+            updateLevel();
+            to.updateLevel();
+            Database.getBalanceIndex().update(this);
+            Database.getBalanceIndex().update(to);
+            TRANSFER_MICROS.record((System.nanoTime() - start) / 1000);
+            return record(Transaction.Type.TRANSFER_OUT, amount, 0, balances[0])
+                    .thenCombine(to.record(Transaction.Type.TRANSFER_IN, amount, 0, balances[1]), (out, in) -> true);
+        });
     }
 
     /**
@@ -160,7 +311,19 @@ public class Customer {
      * @return true if login is successful, false otherwise
      */
     public boolean login(String username, String password, String role) {
-        return this.username.equals(username) && this.password.equals(password) && this.role.equals(role);
+        if (!this.username.equals(username) || !this.role.equals(role)) {
+            return false;
+        }
+        CredentialStore credentials = Database.getCredentials();
+        if (credentials.contains(username)) {
+            return credentials.verify(username, password, role);
+        }
+        // A customer created before hashing still has a plaintext password; hash it on first login
+        if (!this.password.isEmpty() && this.password.equals(password)) {
+            setPassword(password);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -171,28 +334,65 @@ public class Customer {
         System.out.println("Logged out.");
     }
 
+    /**
+     * Sets the level from the current balance. If another thread changed the balance meanwhile the
+     * level is recomputed, so the last thread to finish always leaves the level of the final balance.
+     */
     private void updateLevel() {
-        double balance = account.getBalance();
-        if (balance >= GOLD_THRESHOLD) {
-            this.level = new Platinum();
-        } else if (balance >= SILVER_THRESHOLD) {
-            this.level = new Gold();
-        } else {
-            this.level = new Silver();
-        }
+        long balance;
+        do {
+            balance = account.getBalance();
+            this.level = levelFor(balance);
+        } while (balance != account.getBalance());
+    }
+
+    static Level levelFor(long balance) {
+        return Database.getTiers().levelFor(balance);
+    }
+
+    /**
+     * Queues a money movement that is durable to the transaction history, whose writer thread
+     * appends it; a failure is reported and does not undo the movement.
+     *
+     * @return a future completing once the movement is appended or its failure reported
+     */
+    private CompletableFuture<Void> record(Transaction.Type type, long amount, long fee, long balance) {
+        return Database.getHistory().appendLater(username, System.currentTimeMillis(), type, amount, fee, balance)
+                .exceptionally(e -> {
+                    METRICS.failure("customer.history", e);
+                    return null;
+                });
     }
 
     private void updateCustomerFile() {
-        File file = new File(DATABASE_DIR, username);
-        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-            writer.println(username);
-            writer.println(password);
-            writer.println(role);
-            writer.println(account.getBalance());
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        persist(null, 0).join();
+    }
+
+    /**
+     * Queues the current state of the customer to the transaction log and re-indexes it. The
+     * customer stays pinned in the cache until its state is durable, so it is not evicted and
+     * loaded again from the older stored record while the change waits in the pipeline.
+     *
+     * @param latency where the time from start until the state is durable is recorded, or null
+     * @param start the System.nanoTime at which the operation started
+     * @return a future completing once the state is durable, or exceptionally with the failure of
+     *         the commit pipeline, which is also counted in the metrics
+     */
+    private CompletableFuture<Void> persist(Histogram latency, long start) {
+        CustomerCache cache = Database.getCache();
+        boolean pinned = cache.pinIfCached(this);
+        CompletableFuture<Void> durable = Database.getPipeline().submit(this).whenComplete((done, e) -> {
+            if (pinned) {
+                cache.unpin(username);
+            }
+            if (e != null) {
+                METRICS.failure("customer.persist", e);
+            } else if (latency != null) {
+                latency.record((System.nanoTime() - start) / 1000);
+            }
+        });
+        Database.getBalanceIndex().update(this);
+        return durable;
     }
 
     // Getter methods
@@ -200,6 +400,9 @@ public class Customer {
         return username;
     }
 
+    /**
+     * @return the plaintext password of a customer created before passwords were hashed, or ""
+     */
     public String getPassword() {
         return password;
     }
@@ -212,7 +415,10 @@ public class Customer {
         return level;
     }
 
-    public double getBalance() {
+    /**
+     * @return the balance in cents
+     */
+    public long getBalance() {
         return account.getBalance();
     }
     
@@ -238,6 +444,6 @@ public class Customer {
      */
     @Override
     public String toString() {
-        return "Customer[username=" + username + ", balance=" + account.getBalance() + ", level=" + level + "]";
+        return "Customer[username=" + username + ", balance=" + Money.format(account.getBalance()) + ", level=" + level + "]";
     }
 }
@@ -1,21 +1,94 @@
 package bankaccountapp;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
 /**
  * Represents a customer's bank account.
+ *
+ * The balance is held as a number of cents and every change is a compare-and-set on it, so
+ * concurrent deposits and withdrawals never lose an update and a withdrawal can never take the
+ * balance below zero.
  */
 public class CustomerAccount {
 
-    private double balance;
+    private final AtomicLong balanceCents;
+
+    /**
+     * @param initialBalance the opening balance in cents
+     */
+    public CustomerAccount(long initialBalance) {
+        this.balanceCents = new AtomicLong(initialBalance);
+    }
+
+    /**
+     * @return the balance in cents
+     */
+    public long getBalance() {
+        return balanceCents.get();
+    }
+
+    /**
+     * @param balance the new balance in cents
+     */
+    public void setBalance(long balance) {
+        balanceCents.set(balance);
+    }
+
+    /**
+     * Atomically adds to the balance.
+     *
+     * @param cents the amount to add
+     * @requires cents > 0
+     * @return the new balance in cents
+     */
+    public long deposit(long cents) {
+        return balanceCents.accumulateAndGet(cents, Money::add);
+    }
 
-    public CustomerAccount(double initialBalance) {
-        this.balance = initialBalance;
+    /**
+     * Atomically subtracts from the balance if it is sufficient.
+     *
+     * @param cents the amount to subtract
+     * @requires cents > 0
+     * @return true if the balance covered the amount and was reduced, false otherwise
+     */
+    public boolean withdraw(long cents) {
+        return withdraw(cents, balance -> 0);
     }
 
-    public double getBalance() {
-        return balance;
+    /**
+     * Atomically subtracts an amount plus a fee from the balance if it covers both. The fee is
+     * computed from the same balance that is debited, so it always matches the customer's level
+     * at the moment of the withdrawal.
+     *
+     * @param cents the amount to subtract
+     * @param feeForBalance maps the current balance in cents to the fee in cents
+     * @requires cents > 0
+     * @return true if the balance covered the amount and fee and was reduced, false otherwise
+     */
+    public boolean withdraw(long cents, LongUnaryOperator feeForBalance) {
+        return withdrawAndGet(cents, feeForBalance) >= 0;
     }
 
-    public void setBalance(double balance) {
-        this.balance = balance;
+    /**
+     * Withdraws like withdraw(cents, feeForBalance) and returns the balance it left.
+     *
+     * @param cents the amount to subtract
+     * @param feeForBalance maps the current balance in cents to the fee in cents
+     * @requires cents > 0
+     * @return the new balance in cents, or -1 if the balance did not cover the amount and fee
+     */
+    public long withdrawAndGet(long cents, LongUnaryOperator feeForBalance) {
+        while (true) {
+            long balance = balanceCents.get();
+            long total = cents + feeForBalance.applyAsLong(balance);
+            if (balance < total) {
+                return -1;
+            }
+            if (balanceCents.compareAndSet(balance, balance - total)) {
+                return balance - total;
+            }
+        }
     }
 }
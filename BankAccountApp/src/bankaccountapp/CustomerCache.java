@@ -0,0 +1,243 @@
+package bankaccountapp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of customers shared by login and the manager screen.
+ *
+ * Overview:
+ * Customers are kept in least-recently-used order. A customer is loaded from disk on its first
+ * access and evicted once the cache holds more than the maximum number of entries or the
+ * estimated heap used by the cached customers exceeds the budget. Every change to a cached
+ * customer is still persisted by the customer itself before it returns, so the cache is
+ * write-through and evicting an entry never loses data. Evicting a customer also releases its
+ * account from the ledger, so only the hot working set stays resident. Customers pinned by a
+ * session are never evicted, so a session keeps the canonical customer for as long as it lives.
+ * A customer is also pinned while a change to it is queued in the commit pipeline: the change is
+ * not in the transaction log yet, so a copy loaded meanwhile would start from the stored balance
+ * and its next change would overwrite the queued one.
+ *
+ * Abstraction Function:
+ * AF(c) = The customers c.entries.values(), ordered from least to most recently used.
+ *
+ * Representation Invariant:
+ * RI(c) = (c.entries.size() <= c.maxEntries || every entry beyond the limit is pinned) &&
+ *         c.bytes == sum of estimateBytes over c.entries && every key of c.pins is in c.entries
+ */
+public class CustomerCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Ledger ledger;
+    private final LinkedHashMap<String, Customer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Integer> pins = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries the most customers held at once
+     * @param maxBytes the estimated heap budget for the cached customers
+     * @param ledger the ledger holding the accounts of the cached customers
+     * @requires maxEntries > 0 && maxBytes > 0
+     */
+    public CustomerCache(int maxEntries, long maxBytes, Ledger ledger) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Returns a customer, loading it from disk if it is not cached.
+     *
+     * @param username the username
+     * @return the customer
+     * @throws IllegalArgumentException if the customer does not exist
+     */
+    public Customer get(String username) {
+        return get(username, false);
+    }
+
+    /**
+     * @param username the username
+     * @return the cached customer, or null if it is not cached
+     */
+    public Customer getIfPresent(String username) {
+        Customer customer;
+        synchronized (this) {
+            customer = entries.get(username);
+        }
+        if (customer != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return customer;
+    }
+
+    /**
+     * Returns a customer and keeps it cached until it is unpinned as often as it was pinned.
+     *
+     * @param username the username
+     * @return the canonical customer
+     * @throws IllegalArgumentException if the customer does not exist
+     */
+    public Customer pin(String username) {
+        return get(username, true);
+    }
+
+    /**
+     * Pins a customer if it is the cached, canonical customer of its username.
+     *
+     * @param customer the customer
+     * @return true if the customer was pinned and must be unpinned later
+     */
+    public synchronized boolean pinIfCached(Customer customer) {
+        if (entries.get(customer.getUsername()) != customer) {
+            return false;
+        }
+        pins.merge(customer.getUsername(), 1, Integer::sum);
+        return true;
+    }
+
+    /**
+     * Releases a pin taken by pin or pinIfCached.
+     *
+     * @param username the username
+     */
+    public synchronized void unpin(String username) {
+        pins.computeIfPresent(username, (name, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Caches a customer that was just created.
+     *
+     * @param customer the customer
+     */
+    public synchronized void put(Customer customer) {
+        Customer previous = entries.remove(customer.getUsername());
+        if (previous != null) {
+            bytes -= estimateBytes(previous);
+        }
+        add(customer);
+    }
+
+    /**
+     * Removes a customer from the cache, e.g. after it was deleted.
+     *
+     * @param username the username
+     */
+    public synchronized void invalidate(String username) {
+        pins.remove(username);
+        Customer removed = entries.remove(username);
+        if (removed != null) {
+            bytes -= estimateBytes(removed);
+        }
+    }
+
+    /**
+     * Returns a customer, loading it from disk if it is not cached, and pins it under the same
+     * lock that finds or adds it, so it cannot be evicted before it is pinned.
+     */
+    private Customer get(String username, boolean pin) {
+        Customer customer;
+        synchronized (this) {
+            customer = entries.get(username);
+            if (customer != null && pin) {
+                pins.merge(username, 1, Integer::sum);
+            }
+        }
+        if (customer != null) {
+            hits.increment();
+            return customer;
+        }
+        misses.increment();
+        // Loaded outside the lock so a slow disk read does not block other lookups
+        Customer loaded = new Customer(username);
+        synchronized (this) {
+            customer = entries.get(username);
+            if (customer == null) {
+                add(loaded);
+                customer = loaded;
+            }
+            if (pin) {
+                pins.merge(username, 1, Integer::sum);
+            }
+        }
+        return customer;
+    }
+
+    private void add(Customer customer) {
+        entries.put(customer.getUsername(), customer);
+        bytes += estimateBytes(customer);
+        Iterator<Map.Entry<String, Customer>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && entries.size() > 1 && eldest.hasNext()) {
+            Customer evicted = eldest.next().getValue();
+            if (evicted == customer) {
+                break; // Everything older is pinned; keep the customer just added
+            }
+            if (pins.containsKey(evicted.getUsername())) {
+                continue;
+            }
+            eldest.remove();
+            bytes -= estimateBytes(evicted);
+            ledger.remove(evicted.getUsername(), evicted.getAccount());
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Estimates the heap held by a cached customer: the object graph of the customer, its account
+     * and map entry, plus the characters of its strings.
+     */
+    private static long estimateBytes(Customer customer) {
+        return 240 + 2L * (customer.getUsername().length() + customer.getPassword().length());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + "]";
+    }
+}
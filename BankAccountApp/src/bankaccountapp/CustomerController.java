@@ -1,8 +1,10 @@
 package bankaccountapp;
 
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.Parent;
@@ -10,9 +12,15 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.fxml.FXMLLoader;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class CustomerController {
 
+    private static final int HISTORY_SIZE = 20;
+
     @FXML
     private Label balanceLabel;
 
@@ -28,18 +36,47 @@ public class CustomerController {
     @FXML
     private TextField purchaseAmount;
 
-    private Customer customer;
+    @FXML
+    private Button depositButton;
+
+    @FXML
+    private Button withdrawButton;
 
     @FXML
-    public void initialize() {
-        customer = LoginController.getCurrentCustomer();
+    private Button purchaseButton;
+
+    private Session session;
+    private Customer customer;
+
+    /**
+     * Shows the page for the customer of a session.
+     *
+     * @param session the session of the logged-in customer
+     */
+    public void setSession(Session session) {
+        this.session = session;
+        this.customer = session.getCustomer(); // Kept in memory for as long as the session lives
         updateBalance();
         updateLevel();
     }
 
+    /**
+     * Records that the session was used, or returns to the login page if it expired.
+     *
+     * @return true if the session is still live
+     */
+    private boolean sessionAlive() {
+        if (Database.getSessions().get(session.getToken()) != null) {
+            return true;
+        }
+        showAlert("Session expired", "Your session has expired. Please log in again.");
+        handleLogout(null);
+        return false;
+    }
+
     private void updateBalance() {
         if (customer != null) {
-            balanceLabel.setText("Balance: $" + customer.getBalance());
+            balanceLabel.setText("Balance: $" + Money.format(customer.getBalance()));
         }
     }
 
@@ -51,12 +88,14 @@ public class CustomerController {
 
     @FXML
     public void handleDeposit(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
         try {
-            double amount = Double.parseDouble(depositAmount.getText());
+            long amount = Money.parse(depositAmount.getText());
             if (amount > 0) {
-                customer.deposit(amount);
-                updateBalance();
-                updateLevel();
+                runInBackground(Database.getService().deposit(customer.getUsername(), amount),
+                        balance -> depositAmount.clear());
             } else {
                 showAlert("Invalid Deposit", "Deposit amount must be greater than zero.");
             }
@@ -67,16 +106,21 @@ public class CustomerController {
 
     @FXML
     public void handleWithdraw(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
         try {
-            double amount = Double.parseDouble(withdrawAmount.getText());
-            if (amount > 0 && customer.getBalance() >= amount) {
-                customer.withdraw(amount);
-                updateBalance();
-                updateLevel();
-            } else if (amount <= 0) {
-                showAlert("Invalid Withdraw", "Withdraw amount must be greater than zero.");
+            long amount = Money.parse(withdrawAmount.getText());
+            if (amount > 0) {
+                runInBackground(Database.getService().withdraw(customer.getUsername(), amount), withdrawn -> {
+                    if (withdrawn) {
+                        withdrawAmount.clear();
+                    } else {
+                        showAlert("Insufficient funds", "You don't have enough balance to withdraw this amount.");
+                    }
+                });
             } else {
-                showAlert("Insufficient funds", "You don't have enough balance to withdraw this amount.");
+                showAlert("Invalid Withdraw", "Withdraw amount must be greater than zero.");
             }
         } catch (NumberFormatException e) {
             showAlert("Invalid input", "Please enter a valid number for withdraw.");
@@ -85,17 +129,20 @@ public class CustomerController {
 
     @FXML
     public void handlePurchase(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
         try {
-            double amount = Double.parseDouble(purchaseAmount.getText());
-            if (amount >= 50) {
-                double fee = customer.getLevel().getOnlineFee();
-                if (customer.getBalance() >= amount + fee) {
-                    customer.withdraw(amount + fee);
-                    updateBalance();
-                    updateLevel();
-                } else {
-                    showAlert("Insufficient funds", "You don't have enough balance to make this purchase.");
-                }
+            long amount = Money.parse(purchaseAmount.getText());
+            if (amount >= Customer.MINIMUM_PURCHASE) {
+                // The fee of the customer's level is charged together with the purchase
+                runInBackground(Database.getService().purchase(customer.getUsername(), amount), purchased -> {
+                    if (purchased) {
+                        purchaseAmount.clear();
+                    } else {
+                        showAlert("Insufficient funds", "You don't have enough balance to make this purchase.");
+                    }
+                });
             } else {
                 showAlert("Invalid Purchase", "Purchase amount must be at least $50.");
             }
@@ -104,8 +151,34 @@ public class CustomerController {
         }
     }
 
+    /**
+     * Disables the money buttons until an operation running in the background completes, then
+     * refreshes the labels and hands the result to onSuccess on the JavaFX Application Thread.
+     */
+    private <T> void runInBackground(CompletableFuture<T> operation, Consumer<T> onSuccess) {
+        setBusy(true);
+        operation.whenCompleteAsync((result, error) -> {
+            setBusy(false);
+            updateBalance();
+            updateLevel();
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert("Error", "The operation failed. " + cause.getMessage());
+            } else {
+                onSuccess.accept(result);
+            }
+        }, Platform::runLater);
+    }
+
+    private void setBusy(boolean busy) {
+        depositButton.setDisable(busy);
+        withdrawButton.setDisable(busy);
+        purchaseButton.setDisable(busy);
+    }
+
     @FXML
     public void handleLogout(ActionEvent event) {
+        Database.getSessions().logout(session.getToken());
         try {
             // Load the login scene
             FXMLLoader loader = new FXMLLoader(getClass().getResource("Login.fxml"));
@@ -123,7 +196,41 @@ public class CustomerController {
 
     @FXML
     public void handleShowBalance(ActionEvent event) {
-        showAlert("Current Balance", "Your current balance is: $" + customer.getBalance());
+        showAlert("Current Balance", "Your current balance is: $" + Money.format(customer.getBalance()));
+    }
+
+    @FXML
+    public void handleShowHistory(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
+        Database.getService().recentTransactions(customer.getUsername(), HISTORY_SIZE)
+                .whenCompleteAsync((transactions, error) -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        showAlert("Error", "Failed to load the transaction history. " + cause.getMessage());
+                    } else {
+                        showAlert("Recent Transactions", describe(transactions));
+                    }
+                }, Platform::runLater);
+    }
+
+    private static String describe(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return "No transactions yet.";
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = transactions.size() - 1; i >= 0; i--) { // Newest first
+            Transaction transaction = transactions.get(i);
+            text.append(Instant.ofEpochMilli(transaction.getTime())).append("  ")
+                    .append(transaction.getType()).append("  $");
+            Money.appendTo(text, transaction.getAmount());
+            if (transaction.getFee() > 0) {
+                Money.appendTo(text.append(" + fee $"), transaction.getFee());
+            }
+            Money.appendTo(text.append("  balance $"), transaction.getBalance()).append('\n');
+        }
+        return text.toString();
     }
 
     private void showAlert(String title, String message) {
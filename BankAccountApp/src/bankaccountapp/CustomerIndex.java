@@ -0,0 +1,260 @@
+package bankaccountapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Compact on-disk index of every customer in the database.
+ *
+ * Overview:
+ * The index maps each username to a record id and is stored in database/.index as a header
+ * followed by add and remove entries. Opening the index reads only this file, so startup costs
+ * O(index size) instead of a directory listing plus a read of every customer file. Adding or
+ * removing a customer appends one entry; the file is compacted when it is opened if removed
+ * entries outnumber live ones or its tail was torn by a crash. If the index is missing it is
+ * rebuilt once from the account store.
+ *
+ * Abstraction Function:
+ * AF(i) = The set of customers { (u, i.ids.get(u)) | u in i.ids.keySet() }, sorted by username.
+ *
+ * Representation Invariant:
+ * RI(i) = i.ids != null && every id in i.ids is distinct && every id < i.nextId
+ */
+public class CustomerIndex {
+
+    private static final String INDEX_FILE = ".index";
+    private static final int MAGIC = 0x42414E4B;
+    private static final byte VERSION = 1;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    private final File databaseDir;
+    private final File file;
+    private final AccountStore store;
+    private final ConcurrentSkipListMap<String, Integer> ids = new ConcurrentSkipListMap<>();
+    private FileOutputStream stream;
+    private DataOutputStream out;
+    private int nextId;
+
+    private CustomerIndex(File databaseDir, AccountStore store) {
+        this.databaseDir = databaseDir;
+        this.store = store;
+        this.file = new File(databaseDir, INDEX_FILE);
+    }
+
+    /**
+     * Opens the index of the given database directory, building it if it does not exist.
+     *
+     * @param databaseDir the database directory, which holds the index file
+     * @param store the store to build the index from if it does not exist
+     * @return the opened index
+     * @throws IOException if the index cannot be read or written
+     */
+    public static CustomerIndex open(File databaseDir, AccountStore store) throws IOException {
+        CustomerIndex index = new CustomerIndex(databaseDir, store);
+        if (!index.file.exists()) {
+            index.rebuild();
+            index.rewrite();
+        } else if (index.load()) {
+            index.rewrite();
+        }
+        index.stream = new FileOutputStream(index.file, true);
+        index.out = new DataOutputStream(new BufferedOutputStream(index.stream));
+        return index;
+    }
+
+    /**
+     * Replaces the index of a database directory with one built from the account store, e.g.
+     * after the store was restored from a snapshot.
+     *
+     * @param databaseDir the database directory, which holds the index file
+     * @param store the store to build the index from
+     * @throws IOException if the store cannot be listed or the index cannot be written
+     */
+    public static void recreate(File databaseDir, AccountStore store) throws IOException {
+        CustomerIndex index = new CustomerIndex(databaseDir, store);
+        index.rebuild();
+        index.rewrite();
+    }
+
+    /**
+     * Reads the index file.
+     *
+     * @return true if the file should be compacted
+     */
+    private boolean load() throws IOException {
+        int removed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Unsupported index format in " + file);
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                int id;
+                String username;
+                try {
+                    id = in.readInt();
+                    username = in.readUTF();
+                } catch (EOFException e) {
+                    return true; // Torn entry at the tail
+                }
+                if (op == ADD) {
+                    ids.put(username, id);
+                    nextId = Math.max(nextId, id + 1);
+                } else {
+                    ids.remove(username);
+                    removed++;
+                }
+            }
+        }
+        return removed > ids.size();
+    }
+
+    /**
+     * Builds the index from the customers in the account store.
+     */
+    private void rebuild() throws IOException {
+        for (String username : store.listUsernames()) {
+            ids.put(username, nextId++);
+        }
+    }
+
+    /**
+     * Writes the live entries to a temporary file and atomically replaces the index with it.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(databaseDir, INDEX_FILE + ".tmp");
+        try (FileOutputStream tempStream = new FileOutputStream(temp);
+                DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempStream))) {
+            tempOut.writeInt(MAGIC);
+            tempOut.writeByte(VERSION);
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                writeEntry(tempOut, ADD, entry.getValue(), entry.getKey());
+            }
+            tempOut.flush();
+            tempStream.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeEntry(DataOutputStream out, byte op, int id, String username) throws IOException {
+        out.writeByte(op);
+        out.writeInt(id);
+        out.writeUTF(username);
+    }
+
+    private void append(byte op, int id, String username) throws IOException {
+        writeEntry(out, op, id, username);
+        out.flush();
+        stream.getFD().sync();
+    }
+
+    /**
+     * Adds a customer to the index.
+     *
+     * @param username the username of the new customer
+     * @return the record id of the customer
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized int add(String username) throws IOException {
+        Integer existing = ids.get(username);
+        if (existing != null) {
+            return existing;
+        }
+        int id = nextId++;
+        append(ADD, id, username);
+        ids.put(username, id);
+        return id;
+    }
+
+    /**
+     * Removes a customer from the index.
+     *
+     * @param username the username of the removed customer
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized void remove(String username) throws IOException {
+        Integer id = ids.get(username);
+        if (id != null) {
+            append(REMOVE, id, username);
+            ids.remove(username);
+        }
+    }
+
+    public boolean contains(String username) {
+        return ids.containsKey(username);
+    }
+
+    /**
+     * @param username the username
+     * @return the record id of the customer, or -1 if the index does not hold it
+     */
+    public int idOf(String username) {
+        Integer id = ids.get(username);
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return a live, sorted, read-only view of every username in the index
+     */
+    public NavigableSet<String> getUsernames() {
+        return Collections.unmodifiableNavigableSet(ids.keySet());
+    }
+
+    /**
+     * Returns one page of the usernames starting with a prefix, in sorted order. Only the
+     * returned usernames are visited, so a page costs O(log n + limit) however many customers
+     * there are.
+     *
+     * @param prefix the prefix, or "" for every username
+     * @param after the last username of the previous page, or null for the first page
+     * @param limit the most usernames to return
+     * @return a new list of at most limit usernames
+     */
+    public List<String> page(String prefix, String after, int limit) {
+        NavigableSet<String> usernames = ids.keySet();
+        NavigableSet<String> tail = after != null && after.compareTo(prefix) >= 0
+                ? usernames.tailSet(after, false) : usernames.tailSet(prefix, true);
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String username : tail) {
+            if (page.size() == limit || !username.startsWith(prefix)) {
+                break;
+            }
+            page.add(username);
+        }
+        return page;
+    }
+
+    /**
+     * Closes the index file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,51 @@
+package bankaccountapp;
+
+/**
+ * The persisted state of a customer: username, password, role and balance.
+ *
+ * This class is immutable; it is what the account stores and the transaction log read and write.
+ */
+public final class CustomerRecord {
+
+    private final String username;
+    private final String password;
+    private final String role;
+    private final long balance;
+
+    /**
+     * @param username the username
+     * @param password the password
+     * @param role the role (Manager or Customer)
+     * @param balance the balance in cents
+     */
+    public CustomerRecord(String username, String password, String role, long balance) {
+        this.username = username;
+        this.password = password;
+        this.role = role;
+        this.balance = balance;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * @return the balance in cents
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerRecord[username=" + username + ", role=" + role + ", balance=" + Money.format(balance) + "]";
+    }
+}
@@ -0,0 +1,203 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Versioned binary encoding of a customer record.
+ *
+ * Overview:
+ * An encoded record is a header of a zero byte, the format version and the length of the body as
+ * an unsigned short, followed by the body. The body of version 1 is the username and password,
+ * each as one length byte and at most MAX_FIELD_BYTES bytes of UTF-8, the role as one byte and
+ * the balance in cents as a long. The level is not encoded because it follows from the balance.
+ * The leading zero byte never starts a text customer file, so isBinary tells the two formats
+ * apart from their first byte.
+ *
+ * A later version may only append fields to the body. A reader decodes the fields it knows and
+ * skips the rest of the body by its length, so records written by a newer version stay readable.
+ *
+ * encode writes straight into the caller's buffer, encoding the strings character by character,
+ * and allocates nothing. decode allocates only the record and its two strings. The body alone,
+ * without a header, is what an AccountSnapshot stores for each record.
+ */
+public final class CustomerRecordCodec {
+
+    public static final byte VERSION = 1;
+
+    /**
+     * The largest encoded record, header included.
+     */
+    public static final int MAX_SIZE = 4 + 2 * (1 + TransactionLog.MAX_FIELD_BYTES) + 1 + 8;
+
+    static final int HEADER_SIZE = 4;
+
+    private static final byte BINARY = 0;
+    private static final byte CUSTOMER = 0;
+    private static final byte MANAGER = 1;
+
+    private CustomerRecordCodec() {
+    }
+
+    /**
+     * @param bytes the start of a customer file
+     * @param length the number of bytes of the file
+     * @return true if the file holds a binary record rather than the legacy text lines
+     */
+    public static boolean isBinary(byte[] bytes, int length) {
+        return length > 0 && bytes[0] == BINARY;
+    }
+
+    /**
+     * Encodes a record with its header.
+     *
+     * @param record the record
+     * @param out where the record is written, from its position
+     * @requires out has at least MAX_SIZE bytes remaining
+     * @modifies out
+     * @effects advances the position of out past the encoded record
+     * @throws IllegalArgumentException if the username or password is longer than
+     *         MAX_FIELD_BYTES bytes; the position of out is then undefined
+     */
+    public static void encode(CustomerRecord record, ByteBuffer out) {
+        int start = out.position();
+        out.put(BINARY).put(VERSION).putShort((short) 0);
+        encodeBody(record, out);
+        out.putShort(start + 2, (short) (out.position() - start - HEADER_SIZE));
+    }
+
+    /**
+     * Encodes the body of a record, without a header.
+     *
+     * @param record the record
+     * @param out where the body is written, from its position
+     * @requires out has at least MAX_SIZE - HEADER_SIZE bytes remaining
+     * @modifies out
+     * @effects advances the position of out past the encoded body
+     * @throws IllegalArgumentException as for encode
+     */
+    static void encodeBody(CustomerRecord record, ByteBuffer out) {
+        putString(out, record.getUsername());
+        putString(out, record.getPassword());
+        out.put("Manager".equals(record.getRole()) ? MANAGER : CUSTOMER);
+        out.putLong(record.getBalance());
+    }
+
+    /**
+     * Decodes a record with its header.
+     *
+     * @param in holds the record from its position
+     * @modifies in
+     * @effects advances the position of in past the record, including any fields of a newer
+     *          version
+     * @return the record
+     * @throws IOException if in does not hold a complete record of a known format
+     */
+    public static CustomerRecord decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_SIZE || in.get() != BINARY) {
+            throw new IOException("Not a binary customer record.");
+        }
+        int version = in.get() & 0xFF;
+        int length = in.getShort() & 0xFFFF;
+        if (version < 1) {
+            throw new IOException("Unknown customer record version " + version + ".");
+        }
+        if (length > in.remaining()) {
+            throw new IOException("Truncated customer record.");
+        }
+        int end = in.position() + length;
+        ByteBuffer body = in.duplicate();
+        body.limit(end);
+        CustomerRecord record = decodeBody(body);
+        in.position(end);
+        return record;
+    }
+
+    /**
+     * Decodes the body of a record of version 1, without a header.
+     *
+     * @param in holds the body from its position
+     * @modifies in
+     * @effects advances the position of in past the body
+     * @return the record
+     * @throws IOException if in does not hold a complete body
+     */
+    static CustomerRecord decodeBody(ByteBuffer in) throws IOException {
+        try {
+            String username = getString(in);
+            String password = getString(in);
+            String role = in.get() == MANAGER ? "Manager" : "Customer";
+            return new CustomerRecord(username, password, role, in.getLong());
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated customer record.", e);
+        }
+    }
+
+    /**
+     * Writes a length byte and the UTF-8 encoding of a string, one character at a time. An
+     * unpaired surrogate is written as '?', as String.getBytes would.
+     */
+    private static void putString(ByteBuffer out, String value) {
+        int lengthAt = out.position();
+        out.put((byte) 0);
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int codePoint = c;
+            if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                } else {
+                    codePoint = '?';
+                }
+            }
+            int bytes = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            length += bytes;
+            if (length > TransactionLog.MAX_FIELD_BYTES) {
+                throw new IllegalArgumentException("Username and password must be at most "
+                        + TransactionLog.MAX_FIELD_BYTES + " bytes.");
+            }
+            switch (bytes) {
+                case 1:
+                    out.put((byte) codePoint);
+                    break;
+                case 2:
+                    out.put((byte) (0xC0 | codePoint >> 6));
+                    out.put((byte) (0x80 | codePoint & 0x3F));
+                    break;
+                case 3:
+                    out.put((byte) (0xE0 | codePoint >> 12));
+                    out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    out.put((byte) (0x80 | codePoint & 0x3F));
+                    break;
+                default:
+                    out.put((byte) (0xF0 | codePoint >> 18));
+                    out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    out.put((byte) (0x80 | codePoint & 0x3F));
+                    break;
+            }
+        }
+        out.put(lengthAt, (byte) length);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.get() & 0xFF;
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
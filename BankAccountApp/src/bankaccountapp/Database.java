@@ -0,0 +1,332 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the location of the bank database and the ledger and persistence components shared by
+ * Customer and Manager. The database lives in ./database unless the bank.database.dir system
+ * property names another directory.
+ */
+public final class Database {
+
+    public static final String DATABASE_DIR =
+            System.getProperty("bank.database.dir", System.getProperty("user.dir") + "/database/");
+
+    private static final String METRICS_FILE = ".metrics";
+    private static final long DEFAULT_METRICS_DUMP_SECONDS = 60;
+    private static final long DEFAULT_RECONCILE_SECONDS = 600;
+
+    private static final Metrics metrics = new Metrics();
+    private static final Ledger ledger = new Ledger();
+    private static final TierTable tiers = loadTiers();
+    private static AccountStore store;
+    private static TransactionLog log;
+    private static CommitPipeline pipeline;
+    private static CustomerIndex index;
+    private static CustomerCache cache;
+    private static BankService service;
+    private static BalanceIndex balanceIndex;
+    private static ShardedExecutor shards;
+    private static RateLimiter limiter;
+    private static CredentialStore credentials;
+    private static SessionManager sessions;
+    private static TransactionHistory history;
+
+    private Database() {
+    }
+
+    /**
+     * @return the in-memory ledger holding the balance of every loaded account
+     */
+    public static Ledger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * @return the registry of the application's metrics
+     */
+    public static Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Dumps the metrics to database/.metrics every bank.metrics.dumpSeconds seconds, 60 by
+     * default. A period of 0 disables the dump.
+     */
+    public static void startMetricsDump() {
+        long seconds = Long.getLong("bank.metrics.dumpSeconds", DEFAULT_METRICS_DUMP_SECONDS);
+        if (seconds > 0) {
+            metrics.startDump(new File(DATABASE_DIR, METRICS_FILE), seconds * 1000);
+        }
+    }
+
+    /**
+     * Writes the metrics to database/.metrics once, e.g. at shutdown.
+     *
+     * @throws IOException if the dump cannot be written
+     */
+    public static void dumpMetrics() throws IOException {
+        metrics.dumpTo(new File(DATABASE_DIR, METRICS_FILE));
+    }
+
+    /**
+     * @return the tier table mapping balances to levels
+     */
+    public static TierTable getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Loads the tier table named by the bank.tiers system property, or the default Silver, Gold
+     * and Platinum tiers if it is not set. The table is loaded once so level lookups never
+     * touch the disk.
+     */
+    private static TierTable loadTiers() {
+        String file = System.getProperty("bank.tiers");
+        if (file == null) {
+            return TierTable.DEFAULT;
+        }
+        try {
+            return TierTable.load(new File(file));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load the tier table.", e);
+        }
+    }
+
+    /**
+     * Returns the account store. The bank.store system property selects the engine: "files"
+     * (the default) keeps one file per customer, "mapped" keeps every customer in one
+     * memory-mapped file.
+     *
+     * @return the shared account store
+     * @throws IllegalStateException if the store cannot be opened
+     */
+    public static synchronized AccountStore getStore() {
+        if (store == null) {
+            File dbDir = new File(DATABASE_DIR);
+            if (!dbDir.exists()) {
+                dbDir.mkdirs();
+            }
+            try {
+                store = "mapped".equals(System.getProperty("bank.store"))
+                        ? MappedAccountStore.open(dbDir) : new FileAccountStore(dbDir);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open the account store.", e);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns the transaction log, recovering it into the account store on first use.
+     *
+     * @return the shared transaction log
+     * @throws IllegalStateException if the log cannot be recovered
+     */
+    public static synchronized TransactionLog getLog() {
+        if (log == null) {
+            long start = System.nanoTime();
+            try {
+                log = TransactionLog.open(new File(DATABASE_DIR), getStore());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to recover the transaction log.", e);
+            }
+            metrics.histogram("startup.log.micros").record((System.nanoTime() - start) / 1000);
+            metrics.register("log.write.micros", log.getWriteMicros());
+            metrics.register("log.sync.micros", log.getSyncMicros());
+            metrics.register("log.checkpoint.micros", log.getCheckpointMicros());
+        }
+        return log;
+    }
+
+    /**
+     * Returns the customer index, building it from the customer files if it does not exist yet.
+     *
+     * @return the shared customer index
+     * @throws IllegalStateException if the index cannot be loaded
+     */
+    public static synchronized CustomerIndex getIndex() {
+        if (index == null) {
+            getLog(); // The log must be replayed before the index can be built from the store
+            long start = System.nanoTime();
+            try {
+                index = CustomerIndex.open(new File(DATABASE_DIR), getStore());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load the customer index.", e);
+            }
+            metrics.histogram("startup.index.micros").record((System.nanoTime() - start) / 1000);
+            metrics.gauge("index.customers", index::size);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the customer cache. Its limits are read from the bank.cache.maxEntries and
+     * bank.cache.maxBytes system properties.
+     *
+     * @return the shared customer cache
+     */
+    public static synchronized CustomerCache getCache() {
+        if (cache == null) {
+            cache = new CustomerCache(Integer.getInteger("bank.cache.maxEntries", CustomerCache.DEFAULT_MAX_ENTRIES),
+                    Long.getLong("bank.cache.maxBytes", CustomerCache.DEFAULT_MAX_BYTES), ledger);
+            metrics.gauge("cache.size", cache::size);
+            metrics.gauge("cache.bytes", cache::getEstimatedBytes);
+            metrics.gauge("cache.hits", cache::getHits);
+            metrics.gauge("cache.misses", cache::getMisses);
+            metrics.gauge("cache.evictions", cache::getEvictions);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the executor owning the accounts. The number of shards and the most operations
+     * waiting in each are read from the bank.shards and bank.shards.queue system properties.
+     *
+     * @return the shared sharded executor
+     */
+    public static synchronized ShardedExecutor getShards() {
+        if (shards == null) {
+            shards = new ShardedExecutor(Integer.getInteger("bank.shards", ShardedExecutor.DEFAULT_SHARDS),
+                    Integer.getInteger("bank.shards.queue", ShardedExecutor.DEFAULT_QUEUE_CAPACITY));
+            metrics.gauge("shards.queued", shards::getQueuedCount);
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the limiter of debits. The rate and burst of each account are read from the
+     * bank.limit.accountRate and bank.limit.accountBurst system properties, those of the whole
+     * bank from bank.limit.globalRate and bank.limit.globalBurst; a rate of 0 disables the limit.
+     *
+     * @return the shared rate limiter
+     */
+    public static synchronized RateLimiter getLimiter() {
+        if (limiter == null) {
+            limiter = new RateLimiter(
+                    Integer.getInteger("bank.limit.accountRate", RateLimiter.DEFAULT_ACCOUNT_RATE),
+                    Integer.getInteger("bank.limit.accountBurst", RateLimiter.DEFAULT_ACCOUNT_BURST),
+                    Integer.getInteger("bank.limit.globalRate", RateLimiter.DEFAULT_GLOBAL_RATE),
+                    Integer.getInteger("bank.limit.globalBurst", RateLimiter.DEFAULT_GLOBAL_BURST), metrics);
+        }
+        return limiter;
+    }
+
+    /**
+     * Returns the credential store. The PBKDF2 iteration count, the number of remembered
+     * verifications and the number of hashing threads are read from the bank.auth.iterations,
+     * bank.auth.cacheSize and bank.auth.threads system properties.
+     *
+     * @return the shared credential store
+     * @throws IllegalStateException if the credentials cannot be loaded
+     */
+    public static synchronized CredentialStore getCredentials() {
+        if (credentials == null) {
+            File dbDir = new File(DATABASE_DIR);
+            if (!dbDir.exists()) {
+                dbDir.mkdirs();
+            }
+            try {
+                credentials = CredentialStore.open(dbDir,
+                        Integer.getInteger("bank.auth.iterations", CredentialStore.DEFAULT_ITERATIONS),
+                        Integer.getInteger("bank.auth.cacheSize", CredentialStore.DEFAULT_CACHE_SIZE),
+                        Integer.getInteger("bank.auth.threads", CredentialStore.DEFAULT_THREADS));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to load the credentials.", e);
+            }
+        }
+        return credentials;
+    }
+
+    /**
+     * Returns the session manager. The idle timeout is read from the bank.session.timeoutSeconds
+     * system property.
+     *
+     * @return the shared session manager
+     */
+    public static synchronized SessionManager getSessions() {
+        if (sessions == null) {
+            long timeoutSeconds = Long.getLong("bank.session.timeoutSeconds",
+                    SessionManager.DEFAULT_TIMEOUT_MILLIS / 1000);
+            sessions = new SessionManager(timeoutSeconds * 1000, SessionManager.DEFAULT_TICK_MILLIS);
+            metrics.gauge("sessions.active", sessions::getActiveCount);
+            metrics.gauge("sessions.created", sessions::getCreated);
+            metrics.gauge("sessions.expired", sessions::getExpired);
+            metrics.gauge("sessions.loggedOut", sessions::getLoggedOut);
+            metrics.register("sessions.sweep.micros", sessions.getSweepMicros());
+        }
+        return sessions;
+    }
+
+    /**
+     * Returns the transaction history. The number of accounts whose newest history segment stays
+     * open is read from the bank.history.openAccounts system property.
+     *
+     * @return the shared transaction history
+     */
+    public static synchronized TransactionHistory getHistory() {
+        if (history == null) {
+            history = new TransactionHistory(new File(DATABASE_DIR),
+                    Integer.getInteger("bank.history.openAccounts", TransactionHistory.DEFAULT_OPEN_ACCOUNTS));
+        }
+        return history;
+    }
+
+    /**
+     * @return the number of threads reading all stored customers at once, from the
+     *         bank.loader.parallelism system property, by default the number of processors
+     */
+    public static int getLoaderParallelism() {
+        return Math.max(1, Integer.getInteger("bank.loader.parallelism", AccountStore.DEFAULT_PARALLELISM));
+    }
+
+    /**
+     * Returns the index of the customers by balance and level, which is built on its first query.
+     * Its aggregates are reconciled every bank.aggregates.reconcileSeconds seconds, 600 by
+     * default; a period of 0 disables the reconciliation.
+     *
+     * @return the shared balance index
+     */
+    public static synchronized BalanceIndex getBalanceIndex() {
+        if (balanceIndex == null) {
+            balanceIndex = new BalanceIndex(tiers);
+            metrics.gauge("balanceIndex.customers", balanceIndex::size);
+            long seconds = Long.getLong("bank.aggregates.reconcileSeconds", DEFAULT_RECONCILE_SECONDS);
+            if (seconds > 0) {
+                balanceIndex.startReconciler(seconds * 1000);
+            }
+        }
+        return balanceIndex;
+    }
+
+    /**
+     * Returns the commit pipeline in front of the transaction log. The batch size and linger time
+     * are read from the bank.commit.batchSize and bank.commit.lingerMillis system properties.
+     *
+     * @return the shared commit pipeline
+     */
+    public static synchronized CommitPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new CommitPipeline(getLog(),
+                    Integer.getInteger("bank.commit.batchSize", CommitPipeline.DEFAULT_MAX_BATCH_SIZE),
+                    Long.getLong("bank.commit.lingerMillis", CommitPipeline.DEFAULT_LINGER_MILLIS));
+            metrics.register("pipeline.batchSize", pipeline.getBatchSizes());
+            metrics.register("pipeline.commit.nanos", pipeline.getCommitLatency());
+        }
+        return pipeline;
+    }
+
+    /**
+     * Returns the service running operations for the UI in the background. The number of worker
+     * threads is read from the bank.service.threads system property.
+     *
+     * @return the shared bank service
+     */
+    public static synchronized BankService getService() {
+        if (service == null) {
+            service = new BankService(Integer.getInteger("bank.service.threads", BankService.DEFAULT_THREADS));
+        }
+        return service;
+    }
+}
@@ -0,0 +1,263 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Account store keeping each customer in its own file named after the username.
+ *
+ * A file holds one record in the binary format of the CustomerRecordCodec. Files of the original
+ * layout, the username, password, role and balance as four lines of text, are still read, and are
+ * replaced by the binary format the next time the customer is written. Every file is written to a
+ * temporary file, forced and then atomically moved into place, so a crash never leaves a
+ * half-written file; sync forces the directory, so that the moves and deletions so far survive a
+ * crash too. Each writing thread encodes into a buffer of its own that it reuses from write to
+ * write. Files whose name starts with a dot belong to the database itself and are never
+ * treated as customers.
+ *
+ * Files are parsed from their bytes by parse, which both read and readAll share; readAll lists
+ * the directory once and reads the files in parallel with the AccountLoader.
+ */
+public class FileAccountStore implements AccountStore {
+
+    private static final String TEMP_DIR = ".tmp";
+    private static final String[] ROLES = {"Customer", "Manager"};
+
+    private final File databaseDir;
+    private final File tempDir;
+    private final ThreadLocal<ByteBuffer> encoders =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(CustomerRecordCodec.MAX_SIZE));
+
+    /**
+     * @param databaseDir the directory holding the customer files
+     */
+    public FileAccountStore(File databaseDir) {
+        this.databaseDir = databaseDir;
+        this.tempDir = new File(databaseDir, TEMP_DIR);
+    }
+
+    @Override
+    public CustomerRecord read(String username) throws IOException {
+        File file = new File(databaseDir, username);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return parse(bytes, bytes.length, file);
+    }
+
+    /**
+     * Reads every customer file on a fork-join pool of the given parallelism.
+     */
+    @Override
+    public Map<String, CustomerRecord> readAll(int parallelism) throws IOException {
+        return AccountLoader.load(databaseDir, parallelism);
+    }
+
+    /**
+     * Parses a customer file, either a binary record or the legacy text layout.
+     *
+     * @param bytes the bytes of the file
+     * @param length the length of the file in bytes
+     * @param file the file, for the error message
+     * @return the record
+     * @throws IOException if the file is malformed
+     */
+    static CustomerRecord parse(byte[] bytes, int length, File file) throws IOException {
+        if (!CustomerRecordCodec.isBinary(bytes, length)) {
+            return parseText(bytes, length, file);
+        }
+        try {
+            return CustomerRecordCodec.decode(ByteBuffer.wrap(bytes, 0, length));
+        } catch (IOException e) {
+            throw new IOException("Malformed customer file " + file, e);
+        }
+    }
+
+    /**
+     * Parses a legacy text customer file: the username, password, role and balance on four lines
+     * ended by \n or \r\n. Only the username and password are copied into new strings; the role
+     * is one of the shared constants and the balance is parsed in place.
+     *
+     * @throws IOException if the file does not hold four lines or the balance is not a number
+     */
+    private static CustomerRecord parseText(byte[] bytes, int length, File file) throws IOException {
+        int[] ends = new int[4];
+        int line = 0;
+        for (int i = 0; i < length && line < ends.length; i++) {
+            if (bytes[i] == '\n') {
+                ends[line++] = i;
+            }
+        }
+        if (line < 3 || line == 3 && length == ends[2] + 1) {
+            throw new IOException("Malformed customer file " + file);
+        }
+        if (line == 3) {
+            ends[3] = length; // The last line has no line separator
+        }
+        int start = 0;
+        String[] fields = new String[3];
+        for (int i = 0; i < fields.length; i++) {
+            int end = lineEnd(bytes, start, ends[i]);
+            fields[i] = i == 2 ? role(bytes, start, end) : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            start = ends[i] + 1;
+        }
+        try {
+            long balance = Money.parse(new AsciiChars(bytes, start, lineEnd(bytes, start, ends[3])));
+            return new CustomerRecord(fields[0], fields[1], fields[2], balance);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed customer file " + file, e);
+        }
+    }
+
+    /**
+     * @return the end of the line [start, newline), without a carriage return before the newline
+     */
+    private static int lineEnd(byte[] bytes, int start, int newline) {
+        return newline > start && bytes[newline - 1] == '\r' ? newline - 1 : newline;
+    }
+
+    private static String role(byte[] bytes, int start, int end) {
+        for (String role : ROLES) {
+            if (matches(bytes, start, end, role)) {
+                return role;
+            }
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(byte[] bytes, int start, int end, String ascii) {
+        if (end - start != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void write(CustomerRecord record) throws IOException {
+        if (!tempDir.exists() && !tempDir.mkdirs()) {
+            throw new IOException("Cannot create " + tempDir);
+        }
+        File temp = new File(tempDir, record.getUsername());
+        ByteBuffer encoded = encoders.get();
+        encoded.clear();
+        CustomerRecordCodec.encode(record, encoded);
+        encoded.flip();
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (encoded.hasRemaining()) {
+                out.write(encoded);
+            }
+            out.force(false);
+        }
+        Files.move(temp.toPath(), new File(databaseDir, record.getUsername()).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void delete(String username) throws IOException {
+        Files.deleteIfExists(new File(databaseDir, username).toPath());
+    }
+
+    @Override
+    public List<String> listUsernames() {
+        List<String> usernames = new ArrayList<>();
+        File[] files = databaseDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().startsWith(".")) {
+                    usernames.add(file.getName());
+                }
+            }
+        }
+        return usernames;
+    }
+
+    /**
+     * Forces the directory, so that every file moved into place or deleted so far stays so after a
+     * crash; the contents of each file were already forced before it was moved.
+     */
+    @Override
+    public void sync() throws IOException {
+        forceDirectory(databaseDir);
+    }
+
+    /**
+     * Forces the entries of a directory to disk. Platforms that cannot open a directory, such as
+     * Windows, make the entries durable themselves and are skipped.
+     *
+     * @param dir the directory
+     * @throws IOException if the directory cannot be forced
+     */
+    static void forceDirectory(File dir) throws IOException {
+        FileChannel directory;
+        try {
+            directory = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            return;
+        }
+        try {
+            directory.force(true);
+        } finally {
+            directory.close();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A read-only view of ASCII bytes as characters, so an amount is parsed without copying it.
+     */
+    private static final class AsciiChars implements CharSequence {
+
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+
+        AsciiChars(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new AsciiChars(bytes, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
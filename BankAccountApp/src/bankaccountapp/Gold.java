@@ -1,19 +1,11 @@
 package bankaccountapp;
 
 /**
- * Represents a Gold level customer in the bank application.
+ * Represents a Gold level customer in the bank application: balances from $10,000.
  */
 public class Gold extends Level {
 
-    private double onlineFee = 10.0;
-
-    @Override
-    public double getOnlineFee() {
-        return onlineFee;
-    }
-
-    @Override
-    public String toString() {
-        return "Gold";
+    public Gold() {
+        super("Gold", Money.dollars(10000), Money.dollars(10));
     }
 }
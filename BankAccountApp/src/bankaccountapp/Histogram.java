@@ -0,0 +1,137 @@
+package bankaccountapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative long values.
+ *
+ * Overview:
+ * Values below 16 are counted exactly. Larger values fall into log-linear buckets: each power of
+ * two is split into 8 equal sub-buckets, so every reported percentile is within 12.5% of the
+ * recorded value. Recording is lock-free and allocation-free.
+ *
+ * Abstraction Function:
+ * AF(h) = A multiset of values where the number of values in [lowerBound(i), lowerBound(i + 1))
+ *         is h.counts[i].
+ *
+ * Representation Invariant:
+ * RI(h) = h.counts.length == BUCKETS && sum of h.counts == h.count && h.max >= every recorded value
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value to record; negative values are recorded as 0
+     * @modifies this
+     * @effects adds value to the histogram
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns an upper bound of the value at the given percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the number of recorded values in each bucket, keyed by the bucket's lower bound.
+     *
+     * @return a two-row array: row 0 holds lower bounds, row 1 holds counts of non-empty buckets
+     */
+    public long[][] getBuckets() {
+        int nonEmpty = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                nonEmpty++;
+            }
+        }
+        long[][] buckets = new long[2][nonEmpty];
+        int j = 0;
+        for (int i = 0; i < BUCKETS && j < nonEmpty; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                buckets[0][j] = lowerBound(i);
+                buckets[1][j] = c;
+                j++;
+            }
+        }
+        return buckets;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + String.format("%.1f", getMean()) + ", p50=" + getPercentile(50)
+                + ", p99=" + getPercentile(99) + ", p999=" + getPercentile(99.9) + ", max=" + getMax();
+    }
+}
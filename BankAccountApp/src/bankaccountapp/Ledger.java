@@ -0,0 +1,67 @@
+package bankaccountapp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent in-memory ledger of account balances keyed by username.
+ *
+ * Overview:
+ * Every account lives in exactly one CustomerAccount cell in this ledger, and every Customer object
+ * for that username shares the cell, so two Customer objects for the same account cannot overwrite
+ * each other's balance. Operations on different accounts never contend, and operations on the same
+ * account are lock-free compare-and-set loops.
+ *
+ * Abstraction Function:
+ * AF(l) = A map from each username u in l.accounts to the balance l.accounts.get(u).getBalance().
+ *
+ * Representation Invariant:
+ * RI(l) = l.accounts != null && no key or value of l.accounts is null && every balance >= 0
+ */
+public class Ledger {
+
+    private final ConcurrentHashMap<String, CustomerAccount> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the account of a user, creating it with the given balance if the ledger does not
+     * hold it yet. An account already in the ledger keeps its current balance.
+     *
+     * @param username the username
+     * @param initialBalance the balance read from storage, in cents
+     * @return the shared account of the user
+     */
+    public CustomerAccount open(String username, long initialBalance) {
+        return accounts.computeIfAbsent(username, name -> new CustomerAccount(initialBalance));
+    }
+
+    /**
+     * @param username the username
+     * @return the account of the user, or null if the ledger does not hold it
+     */
+    public CustomerAccount get(String username) {
+        return accounts.get(username);
+    }
+
+    /**
+     * Removes the account of a user from the ledger.
+     *
+     * @param username the username
+     */
+    public void remove(String username) {
+        accounts.remove(username);
+    }
+
+    /**
+     * Removes the account of a user from the ledger if it is still the given account, e.g. when a
+     * customer is evicted from memory. Its balance must already be persisted.
+     *
+     * @param username the username
+     * @param account the account to release
+     */
+    public void remove(String username, CustomerAccount account) {
+        accounts.remove(username, account);
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+}
@@ -1,9 +1,57 @@
 package bankaccountapp;
 
 /**
- * Abstract class representing a customer's level in the bank application.
+ * A customer's level in the bank application.
+ *
+ * Overview:
+ * A level is an immutable tier of the TierTable: the balance from which it applies and the fee
+ * charged for online purchases. Levels are created once when the tier table is loaded and shared
+ * by every customer, so changing a customer's level never allocates. Further tiers are added by
+ * configuring the tier table, not by subclassing.
+ *
+ * Abstraction Function:
+ * AF(l) = The level named l.name for balances from l.minimumBalance, paying l.onlineFee per purchase.
+ *
+ * Representation Invariant:
+ * RI(l) = l.name != null && l.minimumBalance >= 0 && l.onlineFee >= 0
  */
-public abstract class Level {
-    public abstract double getOnlineFee();
-    public abstract String toString();
+public class Level {
+
+    private final String name;
+    private final long minimumBalance;
+    private final long onlineFee;
+
+    /**
+     * @param name the name shown to the user
+     * @param minimumBalance the balance from which the level applies, in cents
+     * @param onlineFee the fee for online purchases, in cents
+     * @requires name != null && minimumBalance >= 0 && onlineFee >= 0
+     */
+    public Level(String name, long minimumBalance, long onlineFee) {
+        if (name == null || minimumBalance < 0 || onlineFee < 0) {
+            throw new IllegalArgumentException("Invalid level " + name + ".");
+        }
+        this.name = name;
+        this.minimumBalance = minimumBalance;
+        this.onlineFee = onlineFee;
+    }
+
+    /**
+     * @return the balance from which this level applies, in cents
+     */
+    public long getMinimumBalance() {
+        return minimumBalance;
+    }
+
+    /**
+     * @return the fee for online purchases, in cents
+     */
+    public long getOnlineFee() {
+        return onlineFee;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
 }
@@ -0,0 +1,261 @@
+package bankaccountapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for the BankServer.
+ *
+ * Overview:
+ * Creates the customers load0 .. load(n - 1) through the manager API if they do not exist, then
+ * logs all of them in at once from the client threads, so the server holds one session per
+ * customer. It then runs the client threads for a fixed time. Each thread repeatedly picks a
+ * random customer and sends a balance query, a deposit or a withdrawal of $1 with the session
+ * token of the customer, and records the latency of every request. A hot share of the requests,
+ * in percent, can be sent by load0 alone to overload one account. At the end it prints the login
+ * throughput, the request throughput and the p50, p99 and p999 latencies, both of every request
+ * and of the requests the server accepted. Requests the server throttled with 429 are counted as
+ * rejected rather than failed.
+ *
+ * Usage: LoadGenerator [baseUrl] [threads] [seconds] [customers] [managerUser:managerPassword]
+ *        [hotShare]
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "load";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final String baseUrl;
+    private final int customers;
+    private final String[] tokens;
+    private final Histogram loginMicros = new Histogram();
+    private final Histogram latencyMicros = new Histogram();
+    private final Histogram acceptedMicros = new Histogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder hotAccepted = new LongAdder();
+    private int hotShare;
+
+    /**
+     * @param baseUrl the URL of the server, e.g. http://localhost:8080
+     * @param customers the number of customers the requests are spread over
+     */
+    public LoadGenerator(String baseUrl, int customers) {
+        this.baseUrl = baseUrl;
+        this.customers = customers;
+        this.tokens = new String[customers];
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:" + BankServer.DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int customers = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        String manager = args.length > 4 ? args[4] : "admin:admin";
+        LoadGenerator generator = new LoadGenerator(baseUrl, customers);
+        generator.setHotShare(args.length > 5 ? Integer.parseInt(args[5]) : 0);
+        generator.createCustomers(manager);
+        long loginElapsed = generator.login(threads);
+        Histogram logins = generator.getLoginMicros();
+        System.out.printf("%d logins in %.1f s: %.0f logins/s, p50=%d us p99=%d us, %d failed%n", logins.getCount(),
+                loginElapsed / 1e9, logins.getCount() / (loginElapsed / 1e9), logins.getPercentile(50),
+                logins.getPercentile(99), generator.getFailures());
+        long elapsed = generator.run(threads, seconds * 1000L);
+        Histogram latency = generator.getLatencyMicros();
+        System.out.printf("%d requests in %.1f s: %.0f requests/s, %d rejected, %d failed%n", latency.getCount(),
+                elapsed / 1e9, latency.getCount() / (elapsed / 1e9), generator.getRejected(), generator.getFailures());
+        System.out.printf("latency (us): p50=%d p99=%d p999=%d max=%d%n", latency.getPercentile(50),
+                latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax());
+        Histogram accepted = generator.getAcceptedMicros();
+        System.out.printf("accepted latency (us): p50=%d p99=%d p999=%d max=%d%n", accepted.getPercentile(50),
+                accepted.getPercentile(99), accepted.getPercentile(99.9), accepted.getMax());
+        if (generator.hotShare > 0) {
+            System.out.printf("hot account: %d accepted, others: %d accepted%n", generator.hotAccepted.sum(),
+                    accepted.getCount() - generator.hotAccepted.sum());
+        }
+    }
+
+    /**
+     * @param hotShare the percentage of requests sent by load0
+     * @requires 0 <= hotShare <= 100
+     */
+    public void setHotShare(int hotShare) {
+        this.hotShare = hotShare;
+    }
+
+    /**
+     * Creates the load customers that do not exist yet.
+     *
+     * @param manager the manager credentials as user:password
+     * @throws IOException if the server cannot be reached or rejects the manager
+     */
+    public void createCustomers(String manager) throws IOException {
+        for (int i = 0; i < customers; i++) {
+            int status = request("POST", "/customers", "username=load" + i + "&password=" + PASSWORD, basic(manager),
+                    null);
+            if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_CONFLICT) {
+                throw new IOException("Failed to create customer load" + i + ": HTTP " + status);
+            }
+        }
+    }
+
+    /**
+     * Logs every load customer in, spreading the logins over the client threads, and keeps the
+     * session tokens for run.
+     *
+     * @param threads the number of client threads
+     * @return the elapsed time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long login(int threads) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            clients[t] = new Thread(() -> {
+                for (int i = next.getAndIncrement(); i < customers; i = next.getAndIncrement()) {
+                    StringBuilder response = new StringBuilder();
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        status = request("POST", "/login", null, basic("load" + i + ":" + PASSWORD), response);
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    loginMicros.record((System.nanoTime() - sent) / 1000);
+                    if (status == HttpURLConnection.HTTP_OK) {
+                        tokens[i] = response.substring(0, response.indexOf(" "));
+                    } else {
+                        failures.increment();
+                    }
+                }
+            }, "load-login-" + t);
+            clients[t].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the client threads and waits for them. Customers logged in by login send their session
+     * token, the others their password.
+     *
+     * @param threads the number of client threads
+     * @param millis how long to send requests
+     * @return the elapsed time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long run(int threads, long millis) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000L;
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            clients[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    int customer = random.nextInt(100) < hotShare ? 0 : random.nextInt(customers);
+                    String authorization = tokens[customer] != null ? "Bearer " + tokens[customer]
+                            : basic("load" + customer + ":" + PASSWORD);
+                    int operation = random.nextInt(3);
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        if (operation == 0) {
+                            status = request("GET", "/balance", null, authorization, null);
+                        } else {
+                            status = request("POST", operation == 1 ? "/deposit" : "/withdraw", "amount=1",
+                                    authorization, null);
+                        }
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    long micros = (System.nanoTime() - sent) / 1000;
+                    latencyMicros.record(micros);
+                    // An insufficient-funds withdrawal is a valid answer, not a failure
+                    if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_CONFLICT) {
+                        acceptedMicros.record(micros);
+                        if (customer == 0) {
+                            hotAccepted.increment();
+                        }
+                    } else if (status == HTTP_TOO_MANY_REQUESTS) {
+                        rejected.increment();
+                    } else {
+                        failures.increment();
+                    }
+                }
+            }, "load-client-" + t);
+            clients[t].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    public Histogram getLoginMicros() {
+        return loginMicros;
+    }
+
+    public Histogram getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public Histogram getAcceptedMicros() {
+        return acceptedMicros;
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Sends one request and reads the whole response so the connection can be reused.
+     *
+     * @param response where the response body is appended, or null to discard it
+     * @return the HTTP status
+     */
+    private int request(String method, String path, String form, String authorization, StringBuilder response)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+        if (form != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[512];
+                for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                    if (response != null) {
+                        response.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        return status;
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+}
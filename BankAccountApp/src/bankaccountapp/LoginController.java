@@ -3,6 +3,7 @@ package bankaccountapp;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -11,6 +12,7 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
@@ -28,12 +30,12 @@ public class LoginController implements Initializable {
     @FXML
     private ComboBox<String> userTypeComboBox;
 
-    private static Customer currentCustomer;
+    @FXML
+    private Button loginButton;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
         userTypeComboBox.setItems(FXCollections.observableArrayList("Manager", "Customer"));
-        currentCustomer=null;
     }
 
     @FXML
@@ -47,39 +49,44 @@ public class LoginController implements Initializable {
             return;
         }
 
-        if ("Manager".equals(userType)) {
-            if (Manager.login(username, password, "Manager")) {
-                try {
-                    // Load Manager Page
-                    Parent root = FXMLLoader.load(getClass().getResource("ManagerPage.fxml"));
-                    Stage stage = (Stage) usernameField.getScene().getWindow();
-                    stage.setScene(new Scene(root));
-                    stage.show();
-                } catch (IOException e) {
-                    showAlert("Error", "Failed to load Manager page.");
-                }
+        // The password is verified off the UI thread; the page opens once the session exists
+        loginButton.setDisable(true);
+        Database.getService().login(username, password, userType).whenCompleteAsync((session, error) -> {
+            loginButton.setDisable(false);
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert("Error", "Login failed. " + cause.getMessage());
+            } else if (session == null) {
+                showAlert("Login Error", "Manager".equals(userType) ? "Invalid Manager credentials."
+                        : "Wrong username or password.");
+            } else if ("Manager".equals(userType)) {
+                openPage("ManagerPage.fxml", session);
             } else {
-                showAlert("Login Error", "Invalid Manager credentials.");
+                openPage("CustomerPage.fxml", session);
             }
-        } else if ("Customer".equals(userType)) {
-            try {
-                currentCustomer = new Customer(username);
-                if (currentCustomer.login(username, password, "Customer")) {
-                    try {
-                        // Load Customer Page
-                        Parent root = FXMLLoader.load(getClass().getResource("CustomerPage.fxml"));
-                        Stage stage = (Stage) usernameField.getScene().getWindow();
-                        stage.setScene(new Scene(root));
-                        stage.show();
-                    } catch (IOException e) {
-                        showAlert("Error", "Failed to load Customer page.");
-                    }
-                } else {
-                    showAlert("Login Error", "Wrong username or password.");
-                }
-            } catch (IllegalArgumentException e) {
-                showAlert("Error", "Wrong username or password.");
+        }, Platform::runLater);
+    }
+
+    /**
+     * Replaces the login page with the page of the logged-in user and hands it the session.
+     */
+    private void openPage(String page, Session session) {
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource(page));
+            Parent root = loader.load();
+            Object controller = loader.getController();
+            if (controller instanceof CustomerController) {
+                ((CustomerController) controller).setSession(session);
+            } else {
+                ((ManagerController) controller).setSession(session);
             }
+            Stage stage = (Stage) usernameField.getScene().getWindow();
+            stage.setScene(new Scene(root));
+            stage.show();
+        } catch (IOException e) {
+            Database.getSessions().logout(session.getToken());
+            showAlert("Error", "Failed to load " + ("Manager".equals(session.getRole()) ? "Manager" : "Customer")
+                    + " page.");
         }
     }
 
@@ -90,8 +97,4 @@ public class LoginController implements Initializable {
         alert.setContentText(message);
         alert.showAndWait();
     }
-
-    public static Customer getCurrentCustomer() {
-        return currentCustomer;
-    }
 }
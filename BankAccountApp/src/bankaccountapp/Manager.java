@@ -1,25 +1,23 @@
 package bankaccountapp;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.BufferedWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletionException;
 
 /**
  * Manager class for handling customer operations in the bank application.
  */
 public class Manager {
 
-    private static final String DATABASE_DIR = System.getProperty("user.dir") + "/database/";
-    private static Map<String, Customer> customers = new HashMap<>();
+    private static final String DATABASE_DIR = Database.DATABASE_DIR;
+    private static final CustomerCache customers = Database.getCache();
+    private static final CustomerIndex index;
 
-    private static final String MANAGER_USERNAME = "admin";
-    private static final String MANAGER_PASSWORD = "admin";
     private static final String MANAGER_ROLE = "Manager";
 
     static {
@@ -27,71 +25,186 @@ public class Manager {
         if (!dbDir.exists()) {
             dbDir.mkdirs(); // Create the database directory if it doesn't exist
         }
-        populateCustomers();
+        index = Database.getIndex(); // Customers are loaded lazily, only the index is read here
+        createManagerIfMissing();
     }
 
-    private static void populateCustomers() {
-        File dbDir = new File(DATABASE_DIR);
-        File[] files = dbDir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    String username = file.getName();
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                        username=reader.readLine();
-                        String password = reader.readLine();
-                        String role = reader.readLine();
-                        double balance = Double.parseDouble(reader.readLine());
-                        // Create a Customer object and add it to the map
-                        Customer customer = new Customer(username);
-                        customer.setPassword(password);
-                        customer.setRole(role);
-                        customer.getAccount().setBalance(balance);
-                        customers.put(username, customer);
-                    } catch (IOException | NumberFormatException e) {
-                        e.printStackTrace();
-                    }
-                }
+    /**
+     * Creates the manager account on the first start. Its credentials are read from the
+     * bank.manager.username and bank.manager.password system properties and default to admin/admin,
+     * which should be changed on a real installation.
+     */
+    private static void createManagerIfMissing() {
+        CredentialStore credentials = Database.getCredentials();
+        if (!credentials.hasRole(MANAGER_ROLE)) {
+            try {
+                credentials.set(System.getProperty("bank.manager.username", "admin"),
+                        System.getProperty("bank.manager.password", "admin"), MANAGER_ROLE);
+            } catch (IOException e) {
+                Database.getMetrics().failure("manager.bootstrap", e);
             }
         }
     }
 
-    public static ArrayList<Customer> getCustomers() {
-        return new ArrayList<>(customers.values());
+    /**
+     * Returns a customer from the shared cache, loading it from disk if it is not cached.
+     *
+     * @param username the username
+     * @return the customer, or null if there is no customer with that username
+     */
+    public static Customer getCustomer(String username) {
+        if (!index.contains(username)) {
+            return null;
+        }
+        try {
+            return customers.get(username);
+        } catch (IllegalArgumentException e) {
+            Database.getMetrics().failure("manager.getCustomer", e);
+            return null;
+        }
     }
 
-    public static void addCustomer(String username, String password) {
-        if (!customers.containsKey(username)) {
-            saveCustomerToFile(username, password, "Customer", 100.0);
-            Customer customer = new Customer(username);
-            customers.put(username, customer);
+    /**
+     * @return a live, sorted, read-only view of every username, without loading any customer
+     */
+    public static NavigableSet<String> getUsernames() {
+        return index.getUsernames();
+    }
+
+    /**
+     * Returns one sorted page of the usernames starting with a prefix, without loading any customer.
+     *
+     * @param prefix the prefix, or "" for every username
+     * @param after the last username of the previous page, or null for the first page
+     * @param limit the most usernames to return
+     * @return a new list of at most limit usernames
+     */
+    public static List<String> getUsernamePage(String prefix, String after, int limit) {
+        return index.page(prefix, after, limit);
+    }
+
+    /**
+     * @param min the lowest balance, in cents
+     * @param max the highest balance, in cents
+     * @return the usernames of the customers whose balance is within the range, ordered by balance
+     */
+    public static List<String> findByBalance(long min, long max) {
+        return Database.getBalanceIndex().findByBalance(min, max);
+    }
+
+    /**
+     * @param level a level of the tier table, e.g. from Database.getTiers().getLevels()
+     * @return the sorted usernames of the customers at that level
+     */
+    public static List<String> findByLevel(Level level) {
+        return Database.getBalanceIndex().findByLevel(level);
+    }
+
+    /**
+     * @return the total balance, the customers and balance per level and the fee revenue
+     */
+    public static BankTotals getTotals() {
+        return Database.getBalanceIndex().getTotals();
+    }
+
+    /**
+     * Returns every customer, loading each one that is not cached. With more customers than the
+     * cache holds, customers at the start of the list may already have been evicted when it returns.
+     *
+     * @return a new list of all customers
+     */
+    public static ArrayList<Customer> getCustomers() {
+        ArrayList<Customer> result = new ArrayList<>(index.size());
+        for (String username : index.getUsernames()) {
+            Customer customer = getCustomer(username);
+            if (customer != null) {
+                result.add(customer);
+            }
         }
+        return result;
     }
 
-    public static void deleteCustomer(String username) {
-        customers.remove(username);
-        File file = new File(DATABASE_DIR, username);
-        if (file.exists()) {
-            file.delete();
+    /**
+     * Creates a customer with a balance of $100, unless the username is taken. The credentials and
+     * the account are written first and the username is added to the index last, so the index never
+     * lists a customer that is not stored; if any write fails, whatever was written is undone.
+     *
+     * @param username the username
+     * @param password the password
+     * @throws IllegalArgumentException if the username starts with a dot or is longer than
+     *         TransactionLog.MAX_FIELD_BYTES bytes of UTF-8
+     * @throws UncheckedIOException if the customer cannot be written; it is not created then
+     */
+    public static synchronized void addCustomer(String username, String password) {
+        if (username.startsWith(".")) {
+            throw new IllegalArgumentException("Username cannot start with a dot.");
+        }
+        if (username.getBytes(StandardCharsets.UTF_8).length > TransactionLog.MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Username must be at most " + TransactionLog.MAX_FIELD_BYTES + " bytes.");
+        }
+        if (index.contains(username)) {
+            return;
+        }
+        try {
+            // A deletion of the username still in the log would hide the new record written below
+            if (Database.getLog().pendingImage(username) == TransactionLog.DELETED) {
+                Database.getLog().checkpoint();
+            }
+            Database.getCredentials().set(username, password, "Customer");
+            // Only the hash of the password is kept, in the credential store
+            Database.getStore().write(new CustomerRecord(username, "", "Customer", Money.dollars(100)));
+            Customer customer = new Customer(username);
+            customers.put(customer);
+            Database.getPipeline().submit(customer).join();
+            index.add(username);
+            Database.getBalanceIndex().update(customer);
+        } catch (IOException e) {
+            Database.getMetrics().failure("manager.addCustomer", e);
+            deleteCustomer(username);
+            throw new UncheckedIOException(e);
+        } catch (CompletionException e) {
+            Database.getMetrics().failure("manager.addCustomer", e);
+            deleteCustomer(username);
+            throw e;
         }
     }
 
-    private static void saveCustomerToFile(String username, String password, String role, double balance) {
-        File file = new File(DATABASE_DIR, username);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            writer.write(username);
-            writer.newLine();
-            writer.write(password);
-            writer.newLine();
-            writer.write(role);
-            writer.newLine();
-            writer.write(String.valueOf(balance));
+    public static synchronized void deleteCustomer(String username) {
+        customers.invalidate(username);
+        Database.getLedger().remove(username);
+        try {
+            Database.getPipeline().submitDelete(username).join();
+        } catch (CompletionException e) {
+            Database.getMetrics().failure("manager.persist", e);
+        }
+        try {
+            index.remove(username);
+        } catch (IOException e) {
+            Database.getMetrics().failure("manager.index", e);
+        }
+        Database.getBalanceIndex().remove(username);
+        Database.getSessions().endSessionsOf(username);
+        try {
+            Database.getHistory().delete(username);
+        } catch (IOException e) {
+            Database.getMetrics().failure("manager.history", e);
+        }
+        try {
+            Database.getCredentials().remove(username);
         } catch (IOException e) {
-            e.printStackTrace();
+            Database.getMetrics().failure("manager.credentials", e);
         }
     }
 
+    /**
+     * Verifies the credentials of a manager against the credential store.
+     *
+     * @param username the username
+     * @param password the password
+     * @param role the role the user logs in with
+     * @return true if role is "Manager" and the manager exists with that password
+     */
     public static boolean login(String username, String password, String role) {
-        return MANAGER_USERNAME.equals(username) && MANAGER_PASSWORD.equals(password) && MANAGER_ROLE.equals(role);
+        return MANAGER_ROLE.equals(role) && Database.getCredentials().verify(username, password, role);
     }
 }
@@ -1,50 +1,130 @@
 package bankaccountapp;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 
+/**
+ * Controller of the manager page.
+ *
+ * The customer list is filled in sorted pages read from the customer index as the manager
+ * scrolls, so opening the page costs one page however many customers there are. Typing in the
+ * search field restarts the paging with the typed prefix. The bank-wide totals are read from the
+ * aggregates of the balance index, so showing them does not visit the customers.
+ */
 public class ManagerController {
 
+    private static final int PAGE_SIZE = 200;
+
+    @FXML
+    private Label totalsLabel;
+
     @FXML
     private ListView<String> customerList;
 
+    @FXML
+    private TextField searchField;
+
     @FXML
     private TextField newCustomerUsername;
 
     @FXML
     private TextField newCustomerPassword;
 
+    @FXML
+    private Button addCustomerButton;
+
+    @FXML
+    private Button deleteCustomerButton;
+
+    private Session session;
+    private String prefix = "";
+    private String lastLoaded; // Last username of the loaded pages, null before the first page
+    private boolean loading;
+    private boolean exhausted;
+    private int generation; // Incremented when the search changes, so stale pages are dropped
+
     @FXML
     public void initialize() {
-        // Populate the customer list when the manager page is loaded
+        // Load the next page when one of the last rows of the loaded pages is shown
+        customerList.setCellFactory(list -> new ListCell<String>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                if (!empty && getIndex() >= list.getItems().size() - PAGE_SIZE / 4) {
+                    loadNextPage();
+                }
+            }
+        });
+        searchField.textProperty().addListener((observable, oldText, newText) -> {
+            prefix = newText.trim();
+            refreshCustomerList();
+        });
+        // Populate the customer list and the totals when the manager page is loaded
         refreshCustomerList();
+        refreshTotals();
+    }
+
+    /**
+     * @param session the session of the logged-in manager
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Records that the session was used, or returns to the login page if it expired.
+     *
+     * @return true if the session is still live
+     */
+    private boolean sessionAlive() {
+        if (Database.getSessions().get(session.getToken()) != null) {
+            return true;
+        }
+        showAlert("Session expired", "Your session has expired. Please log in again.");
+        handleLogout(null);
+        return false;
     }
 
     @FXML
     public void handleAddCustomer(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
         String username = newCustomerUsername.getText();
         String password = newCustomerPassword.getText();
         
         if (!username.isEmpty() && !password.isEmpty()) {
-            try {
-                // Add customer using the Manager class
-                Manager.addCustomer(username, password);
-                
-                // Add customer to the list view
-                customerList.getItems().add(username);
+            // Add customer using the Manager class, off the UI thread
+            runInBackground(Database.getService().addCustomer(username, password), "Failed to add customer. ", done -> {
+                // Add customer to the list view if it falls within the loaded pages
+                if (username.startsWith(prefix) && (exhausted || lastLoaded != null && username.compareTo(lastLoaded) < 0)) {
+                    List<String> items = customerList.getItems();
+                    int position = Collections.binarySearch(items, username);
+                    if (position < 0) {
+                        items.add(-position - 1, username);
+                    }
+                }
                 
                 // Clear input fields
                 newCustomerUsername.clear();
                 newCustomerPassword.clear();
-            } catch (Exception e) {
-                showAlert("Error", "Failed to add customer. " + e.getMessage());
-            }
+                refreshTotals();
+            });
         } else {
             showAlert("Error", "Username and password cannot be empty.");
         }
@@ -52,25 +132,33 @@ public class ManagerController {
 
     @FXML
     public void handleDeleteCustomer(ActionEvent event) {
+        if (!sessionAlive()) {
+            return;
+        }
         String selectedCustomer = customerList.getSelectionModel().getSelectedItem();
         
         if (selectedCustomer != null) {
-            try {
-                // Delete customer using the Manager class
-                Manager.deleteCustomer(selectedCustomer);
-                
-                // Remove customer from the list view
-                customerList.getItems().remove(selectedCustomer);
-            } catch (Exception e) {
-                showAlert("Error", "Failed to delete customer. " + e.getMessage());
-            }
+            // Delete customer using the Manager class, off the UI thread
+            runInBackground(Database.getService().deleteCustomer(selectedCustomer), "Failed to delete customer. ",
+                    done -> {
+                        customerList.getItems().remove(selectedCustomer);
+                        refreshTotals();
+                    });
         } else {
             showAlert("Error", "No customer selected for deletion.");
         }
     }
 
+    @FXML
+    public void handleRefreshTotals(ActionEvent event) {
+        if (sessionAlive()) {
+            refreshTotals();
+        }
+    }
+
     @FXML
     public void handleLogout(ActionEvent event) {
+        Database.getSessions().logout(session.getToken());
         try {
             // Load the login scene
             FXMLLoader loader = new FXMLLoader(getClass().getResource("Login.fxml"));
@@ -86,11 +174,84 @@ public class ManagerController {
         }
     }
 
+    /**
+     * Shows the current bank-wide totals.
+     */
+    private void refreshTotals() {
+        Database.getService().totals().whenCompleteAsync((totals, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                totalsLabel.setText("Totals unavailable: " + cause.getMessage());
+            } else {
+                totalsLabel.setText(totals.toString().trim());
+            }
+        }, Platform::runLater);
+    }
+
+    /**
+     * Replaces the list with the first page of the usernames matching the search.
+     */
     private void refreshCustomerList() {
-        customerList.getItems().clear();
-        for (Customer customer : Manager.getCustomers()) {
-            customerList.getItems().add(customer.getUsername());
+        generation++;
+        lastLoaded = null;
+        loading = false;
+        exhausted = false;
+        loadNextPage();
+    }
+
+    /**
+     * Appends the next page of usernames in one update, unless a page is already loading or
+     * every matching username is shown.
+     */
+    private void loadNextPage() {
+        if (loading || exhausted) {
+            return;
         }
+        loading = true;
+        int requested = generation;
+        String after = lastLoaded;
+        Database.getService().listUsernames(prefix, after, PAGE_SIZE).whenCompleteAsync((page, error) -> {
+            if (requested != generation) {
+                return; // The search changed while the page was loading
+            }
+            loading = false;
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert("Error", "Failed to load customers. " + cause.getMessage());
+                return;
+            }
+            if (after == null) {
+                customerList.getItems().setAll(page);
+            } else {
+                customerList.getItems().addAll(page);
+            }
+            exhausted = page.size() < PAGE_SIZE;
+            if (!page.isEmpty()) {
+                lastLoaded = page.get(page.size() - 1);
+            }
+        }, Platform::runLater);
+    }
+
+    /**
+     * Disables the buttons until an operation running in the background completes, then hands its
+     * result to onSuccess on the JavaFX Application Thread or shows the failure.
+     */
+    private <T> void runInBackground(CompletableFuture<T> operation, String failure, Consumer<T> onSuccess) {
+        setBusy(true);
+        operation.whenCompleteAsync((result, error) -> {
+            setBusy(false);
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showAlert("Error", failure + cause.getMessage());
+            } else {
+                onSuccess.accept(result);
+            }
+        }, Platform::runLater);
+    }
+
+    private void setBusy(boolean busy) {
+        addCustomerButton.setDisable(busy);
+        deleteCustomerButton.setDisable(busy);
     }
 
     private void showAlert(String title, String message) {
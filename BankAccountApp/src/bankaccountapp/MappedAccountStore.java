@@ -0,0 +1,248 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Account store keeping every customer in fixed-width slots of one memory-mapped file.
+ *
+ * Overview:
+ * The file database/.accounts starts with a header slot followed by account slots of SLOT_SIZE
+ * bytes. A slot holds a used flag, the role, the hash and bytes of the username, the password and
+ * the balance in cents; the level is not stored because it follows from the balance. Slots of
+ * deleted customers are chained into a free list and reused before the file grows. The file is
+ * mapped as one region, which FileChannel.map limits to 2 GB, so it holds at most
+ * MAX_CAPACITY - 1 accounts; it doubles until it reaches that size. Reads and
+ * updates touch only the mapped memory of one slot, with no system call per operation; sync
+ * forces the mapping to disk, which the transaction log does at every checkpoint.
+ *
+ * On open, the used slots are scanned once to build the username to slot map.
+ *
+ * Abstraction Function:
+ * AF(s) = The set of records stored in the slots { s.slots.get(u) | u in s.slots.keySet() }.
+ *
+ * Representation Invariant:
+ * RI(s) = every slot in s.slots is used and < s.highWater && every slot on the free list is unused &&
+ *         s.highWater <= s.capacity
+ */
+public class MappedAccountStore implements AccountStore {
+
+    static final int SLOT_SIZE = 256;
+
+    /**
+     * The most slots, header included, that one mapping of at most Integer.MAX_VALUE bytes holds.
+     */
+    static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+
+    private static final String STORE_FILE = ".accounts";
+    private static final int MAGIC = 0x4143434E;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_SLOT = -1;
+
+    // Header offsets
+    private static final int CAPACITY = 8;
+    private static final int FREE_HEAD = 12;
+    private static final int HIGH_WATER = 16;
+
+    // Slot offsets
+    private static final int USED = 0;
+    private static final int ROLE = 1;
+    private static final int USERNAME_HASH = 4;
+    private static final int BALANCE = 8;
+    private static final int NEXT_FREE = 16;
+    private static final int USERNAME = 20;
+    private static final int PASSWORD = USERNAME + 1 + TransactionLog.MAX_FIELD_BYTES;
+
+    private final FileChannel channel;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final byte[] field = new byte[TransactionLog.MAX_FIELD_BYTES];
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int freeHead;
+    private int highWater;
+
+    private MappedAccountStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the store of the given database directory, creating it if it does not exist.
+     *
+     * @param databaseDir the database directory
+     * @return the opened store
+     * @throws IOException if the store file cannot be mapped or is not a store
+     */
+    public static MappedAccountStore open(File databaseDir) throws IOException {
+        File file = new File(databaseDir, STORE_FILE);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedAccountStore store = new MappedAccountStore(channel);
+        if (channel.size() == 0) {
+            store.map(INITIAL_CAPACITY);
+            store.buffer.putInt(0, MAGIC);
+            store.buffer.putInt(4, VERSION);
+            store.freeHead = NO_SLOT;
+            store.highWater = 1;
+            store.writeHeader();
+        } else {
+            store.map((int) (channel.size() / SLOT_SIZE));
+            if (store.buffer.getInt(0) != MAGIC || store.buffer.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("Unsupported account store format in " + file);
+            }
+            store.freeHead = store.buffer.getInt(FREE_HEAD);
+            store.highWater = store.buffer.getInt(HIGH_WATER);
+            store.scan();
+        }
+        return store;
+    }
+
+    private void map(int newCapacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(CAPACITY, capacity);
+        buffer.putInt(FREE_HEAD, freeHead);
+        buffer.putInt(HIGH_WATER, highWater);
+    }
+
+    private void scan() {
+        for (int slot = 1; slot < highWater; slot++) {
+            if (buffer.get(offset(slot) + USED) == 1) {
+                slots.put(readString(offset(slot) + USERNAME), slot);
+            }
+        }
+    }
+
+    @Override
+    public synchronized CustomerRecord read(String username) {
+        Integer slot = slots.get(username);
+        if (slot == null) {
+            return null;
+        }
+        int base = offset(slot);
+        String role = buffer.get(base + ROLE) == 1 ? "Manager" : "Customer";
+        return new CustomerRecord(username, readString(base + PASSWORD), role, buffer.getLong(base + BALANCE));
+    }
+
+    @Override
+    public synchronized void write(CustomerRecord record) throws IOException {
+        byte[] username = record.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] password = record.getPassword().getBytes(StandardCharsets.UTF_8);
+        if (username.length > TransactionLog.MAX_FIELD_BYTES || password.length > TransactionLog.MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Username and password must be at most "
+                    + TransactionLog.MAX_FIELD_BYTES + " bytes.");
+        }
+        Integer slot = slots.get(record.getUsername());
+        if (slot == null) {
+            slot = allocate();
+            slots.put(record.getUsername(), slot);
+        }
+        int base = offset(slot);
+        buffer.put(base + ROLE, (byte) ("Manager".equals(record.getRole()) ? 1 : 0));
+        buffer.putInt(base + USERNAME_HASH, record.getUsername().hashCode());
+        buffer.putLong(base + BALANCE, record.getBalance());
+        writeBytes(base + USERNAME, username);
+        writeBytes(base + PASSWORD, password);
+        buffer.put(base + USED, (byte) 1);
+    }
+
+    @Override
+    public synchronized void delete(String username) {
+        Integer slot = slots.remove(username);
+        if (slot != null) {
+            int base = offset(slot);
+            buffer.put(base + USED, (byte) 0);
+            buffer.putInt(base + NEXT_FREE, freeHead);
+            freeHead = slot;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Reads every used slot in one pass. Every access to the mapping holds the lock of the store,
+     * so the parallelism is not used.
+     */
+    @Override
+    public synchronized Map<String, CustomerRecord> readAll(int parallelism) {
+        Map<String, CustomerRecord> records = new HashMap<>(slots.size() * 4 / 3 + 1);
+        for (String username : slots.keySet()) {
+            records.put(username, read(username));
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized List<String> listUsernames() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    @Override
+    public synchronized void sync() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Takes a slot from the free list, or the next never-used slot, doubling the file when full.
+     *
+     * @throws IOException if every slot up to MAX_CAPACITY is used
+     */
+    private int allocate() throws IOException {
+        int slot;
+        if (freeHead != NO_SLOT) {
+            slot = freeHead;
+            freeHead = buffer.getInt(offset(slot) + NEXT_FREE);
+        } else {
+            if (highWater == capacity) {
+                if (capacity >= MAX_CAPACITY) {
+                    throw new IOException("The account store is full: one mapped file holds at most "
+                            + (MAX_CAPACITY - 1) + " accounts.");
+                }
+                map((int) Math.min(capacity * 2L, MAX_CAPACITY));
+            }
+            slot = highWater++;
+        }
+        writeHeader();
+        return slot;
+    }
+
+    private static int offset(int slot) {
+        return slot * SLOT_SIZE;
+    }
+
+    private void writeBytes(int offset, byte[] bytes) {
+        buffer.put(offset, (byte) bytes.length);
+        for (int i = 0; i < TransactionLog.MAX_FIELD_BYTES; i++) {
+            buffer.put(offset + 1 + i, i < bytes.length ? bytes[i] : 0);
+        }
+    }
+
+    private String readString(int offset) {
+        int length = buffer.get(offset) & 0xFF;
+        for (int i = 0; i < length; i++) {
+            field[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(field, 0, length, StandardCharsets.UTF_8);
+    }
+}
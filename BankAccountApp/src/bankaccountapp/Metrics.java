@@ -0,0 +1,179 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the application's operational metrics.
+ *
+ * Overview:
+ * A metric is a counter (a LongAdder), a histogram or a gauge read from a component when the
+ * metrics are exported. Code on a hot path looks its counters and histograms up once, usually into
+ * static final fields, and then only increments or records into them: a counter increment is a
+ * striped add and a histogram record a few atomic adds, with no lock and no allocation. Failures
+ * that used to be only printed are counted under failures.<where> as well.
+ *
+ * The metrics are exported as text, one "name value" per line in name order, through the
+ * BankServer's /metrics path and by a periodic dump to a file. A histogram is exported as its
+ * count, mean, p50, p99, p999 and max.
+ *
+ * Abstraction Function:
+ * AF(m) = The named metrics m.counters, m.histograms and m.gauges.
+ *
+ * Representation Invariant:
+ * RI(m) = no name is in more than one of m.counters, m.histograms and m.gauges
+ */
+public class Metrics {
+
+    private final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper; // Guarded by this
+
+    /**
+     * @param name the name of the counter
+     * @return the counter with the name, created on first use
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram with the name, created on first use
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Exports a histogram kept by a component under a name.
+     *
+     * @param name the name of the histogram
+     * @param histogram the histogram
+     */
+    public void register(String name, Histogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    /**
+     * Exports a value read from a component under a name.
+     *
+     * @param name the name of the gauge
+     * @param value reads the current value; it is called on the exporting thread
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Counts a failure and prints its stack trace.
+     *
+     * @param where what failed, e.g. "customer.persist"
+     * @param e the failure
+     */
+    public void failure(String where, Throwable e) {
+        counter("failures." + where).increment();
+        e.printStackTrace();
+    }
+
+    /**
+     * Writes every metric as "name value" lines, sorted by name.
+     *
+     * @param out where the metrics are written
+     * @throws IOException if the metrics cannot be written
+     */
+    public void writeTo(Appendable out) throws IOException {
+        Map<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            lines.put(counter.getKey(), Long.toString(counter.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            lines.put(gauge.getKey(), Long.toString(gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            lines.put(name + ".count", Long.toString(histogram.getCount()));
+            lines.put(name + ".mean", String.format("%.1f", histogram.getMean()));
+            lines.put(name + ".p50", Long.toString(histogram.getPercentile(50)));
+            lines.put(name + ".p99", Long.toString(histogram.getPercentile(99)));
+            lines.put(name + ".p999", Long.toString(histogram.getPercentile(99.9)));
+            lines.put(name + ".max", Long.toString(histogram.getMax()));
+        }
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            out.append(line.getKey()).append(' ').append(line.getValue()).append('\n');
+        }
+    }
+
+    /**
+     * Writes the metrics to a temporary file and atomically replaces the dump file with it, so a
+     * reader never sees a partial dump.
+     *
+     * @param file the dump file
+     * @throws IOException if the dump cannot be written
+     */
+    public void dumpTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writeTo(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Dumps the metrics to a file periodically on a daemon thread, replacing an earlier schedule.
+     *
+     * @param file the dump file
+     * @param periodMillis the time between dumps
+     * @requires periodMillis > 0
+     */
+    public synchronized void startDump(File file, long periodMillis) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "bank-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dumpTo(file);
+            } catch (IOException | RuntimeException e) {
+                failure("metrics.dump", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump, if any.
+     */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringBuilder does not throw
+        }
+        return out.toString();
+    }
+}
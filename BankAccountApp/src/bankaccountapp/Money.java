@@ -0,0 +1,166 @@
+package bankaccountapp;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money arithmetic on amounts held as a primitive long number of cents.
+ *
+ * Overview:
+ * Balances, fees and thresholds are all stored as cents so sums never drift the way doubles do
+ * (0.10 + 0.20 is exactly 0.30). Parsing and formatting of plain amounts such as "820" or
+ * "1250.75" work directly on the characters without creating intermediate objects. Amounts
+ * written by older versions of the application as Java doubles ("100.0", "1.0E7") are still
+ * accepted and rounded to the nearest cent.
+ */
+public final class Money {
+
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    /**
+     * The most digits before the decimal point of an amount that fits in a long number of cents.
+     */
+    private static final int MAX_INTEGER_DIGITS = 17;
+
+    /**
+     * The longest text the slow path parses; a legacy double is at most 24 characters.
+     */
+    private static final int MAX_SLOW_LENGTH = 64;
+
+    private Money() {
+    }
+
+    /**
+     * Converts whole dollars to cents.
+     *
+     * @param dollars the number of dollars
+     * @return the amount in cents
+     * @throws ArithmeticException if the amount overflows
+     */
+    public static long dollars(long dollars) {
+        return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);
+    }
+
+    /**
+     * Adds two amounts.
+     *
+     * @throws ArithmeticException if the sum overflows
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Subtracts one amount from another.
+     *
+     * @throws ArithmeticException if the difference overflows
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Parses an amount in dollars.
+     *
+     * @param text the amount, e.g. "50", "50.5", "-12.34" or a legacy double such as "1.0E7"
+     * @return the amount in cents, rounded half-up when more than two decimals are given
+     * @throws NumberFormatException if text is not a finite number or does not fit in a long
+     */
+    public static long parse(CharSequence text) {
+        if (text == null) {
+            throw new NumberFormatException("null");
+        }
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (decimals == 2 || digits == 16) {
+                    return parseSlow(text);
+                }
+                cents = cents * 10 + (c - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return parseSlow(text);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not an amount: \"" + text + "\"");
+        }
+        for (int d = Math.max(decimals, 0); d < 2; d++) {
+            cents *= 10;
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Handles exponents, long fractions and very large amounts. Only reached for input that the
+     * fast path cannot represent directly. The magnitude is checked before the amount is rounded,
+     * as rounding an amount such as "1e99999999" to cents would take BigDecimal many seconds.
+     */
+    private static long parseSlow(CharSequence text) {
+        if (text.length() > MAX_SLOW_LENGTH) {
+            throw new NumberFormatException("Amount too long: \"" + text.subSequence(0, MAX_SLOW_LENGTH) + "...\"");
+        }
+        BigDecimal amount = new BigDecimal(text.toString().trim());
+        // |amount| < 10^(precision - scale)
+        int magnitude = amount.precision() - amount.scale();
+        if (magnitude > MAX_INTEGER_DIGITS) {
+            throw new NumberFormatException("Amount out of range: \"" + text + "\"");
+        }
+        if (magnitude < -2) {
+            return 0; // Less than a tenth of a cent
+        }
+        try {
+            return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: \"" + text + "\"");
+        }
+    }
+
+    /**
+     * Formats an amount as dollars with exactly two decimals, e.g. 82000 as "820.00".
+     *
+     * @param cents the amount in cents
+     * @return the formatted amount
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends an amount as dollars with exactly two decimals without allocating.
+     *
+     * @param out the builder to append to
+     * @param cents the amount in cents
+     * @return out
+     */
+    public static StringBuilder appendTo(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            if (cents == Long.MIN_VALUE) {
+                return out.append("92233720368547758.08");
+            }
+            cents = -cents;
+        }
+        long fraction = cents % CENTS_PER_DOLLAR;
+        out.append(cents / CENTS_PER_DOLLAR).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
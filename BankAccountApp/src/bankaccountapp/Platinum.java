@@ -2,24 +2,11 @@ package bankaccountapp;
 
 /**
  * Represents a Platinum level customer in the bank application.
- * It extends the Level class and provides the specific online fee for Platinum customers.
+ * It applies from a balance of $20,000 and pays no fee for online purchases.
  */
 public class Platinum extends Level {
 
-    private double onlineFee = 0.0; // Fee for online purchases for Platinum customers
-
-    /**
-     * Gets the fee for online purchases for Platinum customers.
-     *
-     * @return the fee for online purchases (0.0)
-     */
-    @Override
-    public double getOnlineFee() {
-        return onlineFee; // Return the online fee specific to Platinum level
-    }
-
-    @Override
-    public String toString() {
-        return "Platinum";
+    public Platinum() {
+        super("Platinum", Money.dollars(20000), 0); // No online fee for Platinum customers
     }
 }
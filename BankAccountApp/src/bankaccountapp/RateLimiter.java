@@ -0,0 +1,151 @@
+package bankaccountapp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token-bucket limits on the rate of debits, per account and for the whole bank.
+ *
+ * Overview:
+ * Every account has a bucket of accountBurst tokens refilled at accountRate tokens a second, and
+ * the bank one bucket of globalBurst tokens refilled at globalRate tokens a second. A debit takes
+ * a token from its account's bucket first and then one from the bank's; if either is empty the
+ * debit is rejected, and a token already taken from the account is given back. An account that
+ * sends more than its rate is therefore stopped by its own bucket before it draws on the bank's,
+ * so one hot account cannot use up the capacity every other account shares. A rate of 0 disables
+ * a bucket.
+ *
+ * A bucket is one AtomicLong holding the time at which it will be full again, advanced by the
+ * refill interval for every token taken (the generic cell rate algorithm), so taking a token is
+ * one compare-and-set and no thread ever blocks. A full bucket holds no information, so once
+ * more than MAX_IDLE_ACCOUNTS account buckets exist the full ones are dropped, at most once every
+ * SWEEP_INTERVAL_NANOS; an account that comes back gets a new, full bucket, which is the state it
+ * would have had anyway. A token taken from a bucket that was dropped at the same moment is taken
+ * again from the bucket now in the map, so no debit escapes its account's limit.
+ *
+ * Abstraction Function:
+ * AF(l) = For every account u, a bucket missing max(0, fullAt(u) - now) / l.accountInterval of
+ *         its accountBurst tokens, where fullAt(u) is l.accounts.get(u), or now if u has no
+ *         bucket; and the bank's bucket missing max(0, l.global - now) / l.globalInterval of its
+ *         globalBurst tokens.
+ *
+ * Representation Invariant:
+ * RI(l) = l.accounts != null && l.accountInterval >= 0 && l.globalInterval >= 0 &&
+ *         l.accountTolerance >= 0 && l.globalTolerance >= 0
+ */
+public class RateLimiter {
+
+    public static final int DEFAULT_ACCOUNT_RATE = 20;
+    public static final int DEFAULT_ACCOUNT_BURST = 20;
+    public static final int DEFAULT_GLOBAL_RATE = 2000;
+    public static final int DEFAULT_GLOBAL_BURST = 200;
+
+    static final int MAX_IDLE_ACCOUNTS = 100_000;
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final long SWEEP_INTERVAL_NANOS = SECOND;
+
+    private final ConcurrentHashMap<String, AtomicLong> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong global = new AtomicLong(System.nanoTime());
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+    private final long accountInterval;
+    private final long accountTolerance;
+    private final long globalInterval;
+    private final long globalTolerance;
+    private final LongAdder accepted;
+    private final LongAdder rejectedByAccount;
+    private final LongAdder rejectedByBank;
+
+    /**
+     * @param accountRate the tokens a second added to each account's bucket, or 0 for no limit
+     * @param accountBurst the tokens each account's bucket holds
+     * @param globalRate the tokens a second added to the bank's bucket, or 0 for no limit
+     * @param globalBurst the tokens the bank's bucket holds
+     * @param metrics where the accepted and rejected debits are counted
+     * @throws IllegalArgumentException if a rate is negative or a burst is not positive
+     */
+    public RateLimiter(int accountRate, int accountBurst, int globalRate, int globalBurst, Metrics metrics) {
+        if (accountRate < 0 || globalRate < 0 || accountBurst <= 0 || globalBurst <= 0) {
+            throw new IllegalArgumentException("Rates must not be negative and bursts must be positive.");
+        }
+        this.accountInterval = accountRate == 0 ? 0 : SECOND / accountRate;
+        this.accountTolerance = accountInterval * (accountBurst - 1);
+        this.globalInterval = globalRate == 0 ? 0 : SECOND / globalRate;
+        this.globalTolerance = globalInterval * (globalBurst - 1);
+        this.accepted = metrics.counter("limiter.accepted");
+        this.rejectedByAccount = metrics.counter("limiter.rejected.account");
+        this.rejectedByBank = metrics.counter("limiter.rejected.global");
+        metrics.gauge("limiter.accounts", accounts::size);
+    }
+
+    /**
+     * Takes a token for a debit from an account.
+     *
+     * @param username the username of the account
+     * @modifies this
+     * @effects takes a token from the account's bucket and from the bank's
+     * @throws RejectedExecutionException if either bucket is empty; no token is taken then
+     */
+    public void acquire(String username) {
+        long now = System.nanoTime();
+        AtomicLong account = null;
+        if (accountInterval > 0) {
+            boolean taken;
+            do {
+                account = accounts.get(username);
+                if (account == null) {
+                    sweep(now);
+                    account = accounts.computeIfAbsent(username, key -> new AtomicLong(now));
+                }
+                taken = tryTake(account, now, accountInterval, accountTolerance);
+            } while (accounts.get(username) != account); // Dropped by a sweep meanwhile
+            if (!taken) {
+                rejectedByAccount.increment();
+                throw new RejectedExecutionException("Too many requests for account " + username
+                        + "; please try again later.");
+            }
+        }
+        if (globalInterval > 0 && !tryTake(global, now, globalInterval, globalTolerance)) {
+            if (account != null) {
+                account.addAndGet(-accountInterval);
+            }
+            rejectedByBank.increment();
+            throw new RejectedExecutionException("The bank is busy; please try again later.");
+        }
+        accepted.increment();
+    }
+
+    /**
+     * Takes a token from a bucket if it has one.
+     *
+     * @param fullAt the time at which the bucket is full again
+     * @return true if a token was taken
+     */
+    private static boolean tryTake(AtomicLong fullAt, long now, long interval, long tolerance) {
+        for (;;) {
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > tolerance) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets of idle accounts once there are too many. Only one thread sweeps, and
+     * only once every SWEEP_INTERVAL_NANOS, so while most buckets are in use the sweeps that find
+     * little to drop do not run for every new account.
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (accounts.size() > MAX_IDLE_ACCOUNTS && now - next >= 0
+                && nextSweep.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) {
+            accounts.values().removeIf(fullAt -> fullAt.get() - now <= 0);
+        }
+    }
+}
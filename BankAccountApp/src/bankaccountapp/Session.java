@@ -0,0 +1,85 @@
+package bankaccountapp;
+
+/**
+ * A logged-in user.
+ *
+ * Overview:
+ * A session is identified by an unguessable token and belongs to one user and role. A customer
+ * session holds the canonical Customer, which the customer cache keeps resident while the session
+ * lives, so reading the balance during the session never touches the disk. A manager session has
+ * no customer. The session expires after it has been idle for the timeout of its SessionManager.
+ *
+ * Abstraction Function:
+ * AF(s) = The session s.token of user s.username in role s.role, last used at s.lastAccess.
+ *
+ * Representation Invariant:
+ * RI(s) = s.token != null && s.username != null && (s.customer != null <=> s.role.equals("Customer"))
+ */
+public class Session {
+
+    private final String token;
+    private final String username;
+    private final String role;
+    private final Customer customer;
+    private final long createdAt;
+    private volatile long lastAccess;
+    private volatile boolean ended;
+    long deadlineTick; // Guarded by the timer wheel of the SessionManager
+
+    Session(String token, String username, String role, Customer customer, long now) {
+        this.token = token;
+        this.username = username;
+        this.role = role;
+        this.customer = customer;
+        this.createdAt = now;
+        this.lastAccess = now;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * @return the canonical customer of a customer session, or null for a manager session
+     */
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    /**
+     * @return when the session was created, in milliseconds since the epoch
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return when the session was last used, in milliseconds since the epoch
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * @return true if the session was logged out or expired
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    void touch(long now) {
+        lastAccess = now;
+    }
+
+    void end() {
+        ended = true;
+    }
+}
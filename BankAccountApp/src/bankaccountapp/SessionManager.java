@@ -0,0 +1,268 @@
+package bankaccountapp;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates, looks up and expires the sessions of logged-in users.
+ *
+ * Overview:
+ * Sessions are kept in a concurrent map keyed by token, so any number of users can be logged in at
+ * once. Using a session only records the time in it; expiry is handled by a hashed timer wheel of
+ * WHEEL_SLOTS slots that a background thread advances once per tick. Each session sits in the
+ * slot of the tick at which it would expire if it were not used again. When that slot comes up,
+ * the sessions idle for longer than the timeout are ended, and the others are moved to the slot of
+ * their new deadline. Using a session therefore costs no lock and no reordering, and a sweep only
+ * visits the sessions due in its slot.
+ *
+ * Customer sessions pin their customer in the customer cache until they end.
+ *
+ * Abstraction Function:
+ * AF(m) = The live sessions m.sessions.values(), each ending once idle for m.timeoutMillis.
+ *
+ * Representation Invariant:
+ * RI(m) = every session in m.sessions is in exactly one slot of m.wheel, the one of its deadlineTick
+ */
+public class SessionManager {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private static final int WHEEL_SLOTS = 512;
+    private static final int TOKEN_BYTES = 24;
+
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final List<List<Session>> wheel = new ArrayList<>(WHEEL_SLOTS);
+    private final ScheduledExecutorService sweeper;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder loggedOut = new LongAdder();
+    private final LongAdder sweeps = new LongAdder();
+    private final Histogram sweepMicros = new Histogram();
+    private long currentTick; // Guarded by wheel
+
+    /**
+     * Creates a session manager and starts its expiry thread.
+     *
+     * @param timeoutMillis how long a session may stay idle
+     * @param tickMillis how often expired sessions are swept, the resolution of the timeout
+     * @requires timeoutMillis > 0 && tickMillis > 0
+     */
+    public SessionManager(long timeoutMillis, long tickMillis) {
+        if (timeoutMillis <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("Session timeout and tick must be positive.");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "bank-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs a user in. Verifying the password may take a while, so callers on the UI thread should
+     * go through the BankService.
+     *
+     * @param username the username
+     * @param password the password
+     * @param role "Manager" or "Customer"
+     * @return the new session, or null if the credentials are wrong
+     */
+    public Session login(String username, String password, String role) {
+        if ("Manager".equals(role)) {
+            return Manager.login(username, password, role) ? open(username, role, null) : null;
+        }
+        if (!Manager.getUsernames().contains(username)) {
+            return null;
+        }
+        Customer customer;
+        try {
+            customer = Database.getCache().pin(username);
+        } catch (IllegalArgumentException e) {
+            return null; // Deleted meanwhile
+        }
+        if (!customer.login(username, password, role)) {
+            Database.getCache().unpin(username);
+            return null;
+        }
+        return open(username, role, customer);
+    }
+
+    private Session open(String username, String role, Customer customer) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, username, role, customer, System.currentTimeMillis());
+        sessions.put(token, session);
+        synchronized (wheel) {
+            schedule(session);
+        }
+        created.increment();
+        return session;
+    }
+
+    /**
+     * Returns a live session and records that it was used.
+     *
+     * @param token the token of the session
+     * @return the session, or null if the token is unknown or the session ended
+     */
+    public Session get(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.getLastAccess() >= timeoutMillis) {
+            end(session);
+            expired.increment();
+            return null;
+        }
+        session.touch(now);
+        return session;
+    }
+
+    /**
+     * Ends a session.
+     *
+     * @param token the token of the session
+     */
+    public void logout(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null && end(session)) {
+            loggedOut.increment();
+        }
+    }
+
+    /**
+     * Ends every session of a user, e.g. after the user was deleted.
+     *
+     * @param username the username
+     */
+    public void endSessionsOf(String username) {
+        for (Session session : sessions.values()) {
+            if (session.getUsername().equals(username)) {
+                end(session);
+            }
+        }
+    }
+
+    /**
+     * @return true if this call ended the session
+     */
+    private boolean end(Session session) {
+        if (!sessions.remove(session.getToken(), session)) {
+            return false;
+        }
+        session.end();
+        if (session.getCustomer() != null) {
+            Database.getCache().unpin(session.getUsername());
+        }
+        return true; // The sweeper drops the session from its slot when it comes up
+    }
+
+    /**
+     * Puts a session in the slot of the tick at which it expires if it is not used again.
+     */
+    private void schedule(Session session) {
+        session.deadlineTick = Math.max((session.getLastAccess() + timeoutMillis) / tickMillis, currentTick + 1);
+        wheel.get((int) (session.deadlineTick % WHEEL_SLOTS)).add(session);
+    }
+
+    /**
+     * Advances the wheel to the current time, ending the idle sessions of every slot passed.
+     */
+    void sweep() {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long nowTick = now / tickMillis;
+        List<Session> toEnd = new ArrayList<>();
+        synchronized (wheel) {
+            // After a long pause one turn of the wheel visits every slot
+            long from = Math.max(currentTick + 1, nowTick - WHEEL_SLOTS + 1);
+            for (long tick = from; tick <= nowTick; tick++) {
+                currentTick = tick;
+                List<Session> slot = wheel.get((int) (tick % WHEEL_SLOTS));
+                List<Session> due = new ArrayList<>(slot);
+                slot.clear();
+                for (Session session : due) {
+                    if (session.isEnded()) {
+                        continue;
+                    }
+                    if (session.deadlineTick > tick) {
+                        slot.add(session); // Due in a later turn of the wheel
+                    } else if (now - session.getLastAccess() >= timeoutMillis) {
+                        toEnd.add(session);
+                    } else {
+                        schedule(session);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        for (Session session : toEnd) {
+            if (end(session)) {
+                expired.increment();
+            }
+        }
+        sweeps.increment();
+        sweepMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    public int getActiveCount() {
+        return sessions.size();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getLoggedOut() {
+        return loggedOut.sum();
+    }
+
+    public long getSweeps() {
+        return sweeps.sum();
+    }
+
+    /**
+     * @return the duration of the expiry sweeps, in microseconds
+     */
+    public Histogram getSweepMicros() {
+        return sweepMicros;
+    }
+
+    /**
+     * Stops the expiry thread. Sessions stay valid until they are logged out.
+     */
+    public void close() {
+        sweeper.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionManager[active=" + getActiveCount() + ", created=" + getCreated() + ", expired="
+                + getExpired() + ", loggedOut=" + getLoggedOut() + ", sweeps=" + getSweeps() + "]";
+    }
+}
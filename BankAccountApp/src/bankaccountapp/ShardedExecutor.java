@@ -0,0 +1,140 @@
+package bankaccountapp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs every operation on an account on the single thread that owns the account.
+ *
+ * Overview:
+ * The accounts are split into shards by the hash of the username, and each shard has one thread
+ * that runs the operations submitted for its accounts in submission order. Operations on one
+ * account therefore never run concurrently, while operations on accounts of different shards run
+ * in parallel, so throughput grows with the number of shards until the disk is saturated.
+ *
+ * Operations should only queue their change to the transaction log and return a future for its
+ * durability, so a shard thread never waits for the disk and the commits of all shards are
+ * grouped together.
+ *
+ * Each operation is given the canonical Customer of its account, resolved on the shard thread
+ * from the shared customer cache when the operation runs and pinned there until it returns.
+ * Callers pass usernames rather than holding on to Customer objects, so an operation never acts
+ * on a copy of a customer that was evicted and loaded again meanwhile.
+ *
+ * Each shard queues at most queueCapacity operations. When a shard's queue is full, an operation
+ * submitted to it fails at once with a RejectedExecutionException instead of waiting behind the
+ * others, so the time an accepted operation waits stays bounded when the bank is overloaded.
+ */
+public class ShardedExecutor {
+
+    public static final int DEFAULT_SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final LongAdder REJECTED = Database.getMetrics().counter("shards.rejected");
+
+    private final ThreadPoolExecutor[] shards;
+
+    /**
+     * @param shards the number of shards
+     * @param queueCapacity the most operations waiting in each shard
+     * @requires shards > 0 && queueCapacity > 0
+     */
+    public ShardedExecutor(int shards, int queueCapacity) {
+        if (shards <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("The number of shards and the queue capacity must be positive.");
+        }
+        this.shards = new ThreadPoolExecutor[shards];
+        for (int i = 0; i < shards; i++) {
+            String name = "bank-shard-" + i;
+            this.shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), task -> {
+                        Thread thread = new Thread(task, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * Queues an operation on a customer to the shard owning the account.
+     *
+     * @param username the username of the customer
+     * @param operation the operation, given the canonical customer
+     * @return a future completing with the result of the operation, or exceptionally with an
+     *         IllegalArgumentException if the customer does not exist or a
+     *         RejectedExecutionException if the shard's queue is full
+     */
+    public <T> CompletableFuture<T> submit(String username, Function<Customer, T> operation) {
+        return queue(username, () -> CompletableFuture.supplyAsync(() -> {
+            CustomerCache cache = Database.getCache();
+            Customer customer = cache.pin(username);
+            try {
+                return operation.apply(customer);
+            } finally {
+                cache.unpin(username);
+            }
+        }, shardOf(username)));
+    }
+
+    /**
+     * Queues a task that must not run concurrently with operations on the account, e.g. creating
+     * or deleting it.
+     *
+     * @param username the username of the account
+     * @param task the task
+     * @return a future completing when the task has run, or exceptionally with a
+     *         RejectedExecutionException if the shard's queue is full
+     */
+    public CompletableFuture<Void> run(String username, Runnable task) {
+        return queue(username, () -> CompletableFuture.runAsync(task, shardOf(username)));
+    }
+
+    /**
+     * Queues an operation, turning a rejection by a full shard into a failed future.
+     */
+    private <T> CompletableFuture<T> queue(String username, Supplier<CompletableFuture<T>> submit) {
+        try {
+            return submit.get();
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException(
+                    "The bank is busy with other requests for " + username + "; please try again later.", e));
+            return rejected;
+        }
+    }
+
+    private ThreadPoolExecutor shardOf(String username) {
+        return shards[Math.floorMod(username.hashCode(), shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the number of operations waiting in every shard
+     */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            queued += shard.getQueue().size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops accepting operations; operations already queued still run.
+     */
+    public void close() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
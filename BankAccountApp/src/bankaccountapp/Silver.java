@@ -10,15 +10,7 @@ package bankaccountapp;
  * @author mohhe
  */public class Silver extends Level {
   
-   private double onlineFee = 50.0;
-  
-   @Override
-   public double getOnlineFee() {
-       return onlineFee;
-   }
-  
-   @Override
-   public String toString() {
-       return "Silver";
+   public Silver() {
+       super("Silver", 0, Money.dollars(50));
    }
 }
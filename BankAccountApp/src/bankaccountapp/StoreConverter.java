@@ -0,0 +1,27 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command-line tool that copies the customer files of the database directory into the
+ * single-file memory-mapped store.
+ *
+ * The customer files are left in place. Run the application with -Dbank.store=mapped afterwards
+ * to use the converted store.
+ */
+public class StoreConverter {
+
+    public static void main(String[] args) throws IOException {
+        File dbDir = new File(args.length > 0 ? args[0] : Database.DATABASE_DIR);
+        // Replay the log into the customer files first so the copy holds every committed change
+        TransactionLog.open(dbDir, new FileAccountStore(dbDir)).close();
+        MappedAccountStore mapped = MappedAccountStore.open(dbDir);
+        try {
+            int copied = AccountStore.copy(new FileAccountStore(dbDir), mapped);
+            System.out.println("Converted " + copied + " customers into the mapped account store.");
+        } finally {
+            mapped.close();
+        }
+    }
+}
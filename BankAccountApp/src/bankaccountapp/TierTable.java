@@ -0,0 +1,125 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Immutable table mapping a balance to the customer's level.
+ *
+ * Overview:
+ * The table holds the levels sorted by the balance from which they apply. The lowest level must
+ * apply from a balance of 0 so every balance has a level. Looking up a level scans the sorted
+ * thresholds held in a primitive array and returns one of the shared Level objects, so it never
+ * allocates. The default table holds Silver, Gold and Platinum; another table can be loaded once
+ * at startup from a properties file with one line per level:
+ *
+ *     name=minimumBalance,onlineFee
+ *
+ * where both amounts are in dollars, e.g. "Diamond=50000,0".
+ *
+ * Abstraction Function:
+ * AF(t) = The levels t.levels, where balance b has the last level l with l.minimumBalance <= b.
+ *
+ * Representation Invariant:
+ * RI(t) = t.levels.length > 0 && t.minimums[i] == t.levels[i].getMinimumBalance() &&
+ *         t.minimums[0] == 0 && t.minimums is strictly increasing
+ */
+public final class TierTable {
+
+    /**
+     * The levels of the bank before tiers became configurable.
+     */
+    public static final TierTable DEFAULT = new TierTable(Arrays.<Level>asList(new Silver(), new Gold(), new Platinum()));
+
+    private final Level[] levels;
+    private final long[] minimums;
+
+    /**
+     * @param levels the levels, in any order
+     * @throws IllegalArgumentException if no level applies from 0 or two levels apply from the same balance
+     */
+    public TierTable(List<Level> levels) {
+        this.levels = levels.toArray(new Level[0]);
+        Arrays.sort(this.levels, Comparator.comparingLong(Level::getMinimumBalance));
+        this.minimums = new long[this.levels.length];
+        for (int i = 0; i < this.levels.length; i++) {
+            minimums[i] = this.levels[i].getMinimumBalance();
+            if (i > 0 && minimums[i] == minimums[i - 1]) {
+                throw new IllegalArgumentException("Levels " + this.levels[i - 1] + " and " + this.levels[i]
+                        + " apply from the same balance.");
+            }
+        }
+        if (minimums.length == 0 || minimums[0] != 0) {
+            throw new IllegalArgumentException("The lowest level must apply from a balance of 0.");
+        }
+    }
+
+    /**
+     * Loads a tier table from a properties file.
+     *
+     * @param file the file, with one name=minimumBalance,onlineFee line per level
+     * @return the loaded table
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed or the levels do not form a valid table
+     */
+    public static TierTable load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader in = new FileReader(file)) {
+            properties.load(in);
+        }
+        List<Level> levels = new ArrayList<>();
+        for (String name : properties.stringPropertyNames()) {
+            String[] amounts = properties.getProperty(name).split(",");
+            if (amounts.length != 2) {
+                throw new IllegalArgumentException("Expected minimumBalance,onlineFee for level " + name + ".");
+            }
+            try {
+                levels.add(new Level(name, Money.parse(amounts[0].trim()), Money.parse(amounts[1].trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid amount for level " + name + ".", e);
+            }
+        }
+        return new TierTable(levels);
+    }
+
+    /**
+     * Returns the level of a balance without allocating.
+     *
+     * @param balance the balance, in cents
+     * @return the highest level whose minimum balance is at most balance, or the lowest level
+     *         for a negative balance
+     */
+    public Level levelFor(long balance) {
+        return levels[indexFor(balance)];
+    }
+
+    /**
+     * Returns the position of the level of a balance in getLevels.
+     *
+     * @param balance the balance, in cents
+     * @return the index of levelFor(balance) in getLevels()
+     */
+    public int indexFor(long balance) {
+        for (int i = minimums.length - 1; i > 0; i--) {
+            if (balance >= minimums[i]) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the levels, from the lowest to the highest
+     */
+    public List<Level> getLevels() {
+        return Collections.unmodifiableList(Arrays.asList(levels));
+    }
+}
@@ -0,0 +1,97 @@
+package bankaccountapp;
+
+import java.time.Instant;
+
+/**
+ * One entry of a customer's transaction history: a deposit, withdrawal, online purchase or one
+ * side of a transfer.
+ *
+ * This class is immutable; it is what the TransactionHistory writes and reads.
+ */
+public final class Transaction {
+
+    /**
+     * The kind of money movement.
+     */
+    public enum Type {
+        DEPOSIT, WITHDRAWAL, PURCHASE, TRANSFER_OUT, TRANSFER_IN;
+
+        private static final Type[] VALUES = values();
+
+        static Type of(int ordinal) {
+            return VALUES[ordinal];
+        }
+    }
+
+    private final long time;
+    private final Type type;
+    private final long amount;
+    private final long fee;
+    private final long balance;
+
+    /**
+     * @param time when the transaction happened, in milliseconds since the epoch
+     * @param type the kind of transaction
+     * @param amount the amount deposited, withdrawn, purchased or transferred, in cents
+     * @param fee the online fee charged with a purchase, in cents
+     * @param balance the balance after the transaction, in cents
+     */
+    public Transaction(long time, Type type, long amount, long fee, long balance) {
+        this.time = time;
+        this.type = type;
+        this.amount = amount;
+        this.fee = fee;
+        this.balance = balance;
+    }
+
+    /**
+     * @return when the transaction happened, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the amount in cents
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return the fee in cents
+     */
+    public long getFee() {
+        return fee;
+    }
+
+    /**
+     * @return the balance after the transaction, in cents
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * Appends the transaction as one statement line: time,type,amount,fee,balance with the amounts
+     * in dollars.
+     *
+     * @param out the builder to append to
+     * @return out
+     */
+    public StringBuilder appendTo(StringBuilder out) {
+        out.append(Instant.ofEpochMilli(time)).append(',').append(type).append(',');
+        Money.appendTo(out, amount).append(',');
+        Money.appendTo(out, fee).append(',');
+        return Money.appendTo(out, balance);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(80)).toString();
+    }
+}
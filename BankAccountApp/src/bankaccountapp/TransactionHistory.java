@@ -0,0 +1,604 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Append-only store of every customer's deposits, withdrawals and online purchases.
+ *
+ * Overview:
+ * Each account has a directory under database/.history/ named after the hex of its username. The
+ * directory holds segments of at most recordsPerSegment fixed-size binary records of RECORD_SIZE
+ * bytes: time, type, amount, fee and balance after the transaction. A segment is named after the
+ * time of its first record, and times never decrease within an account, so the segment names are
+ * a sparse time index: a query between two dates opens only the segments that overlap them and
+ * binary-searches the first one for its starting record, and the last N transactions are read
+ * backwards from the end of the newest segments. Reads go through a small fixed buffer, so a
+ * query never holds more than the transactions it returns, and a statement export streams any
+ * number of them.
+ *
+ * Appending writes one record to the account's newest segment. The segments of the
+ * DEFAULT_OPEN_ACCOUNTS most recently written accounts stay open; older ones are closed, without
+ * forcing them, and opened again on their next write. A record reaches the disk with the
+ * operating system's write-back or at sync; a torn record at the end of a segment is dropped when
+ * the segment is opened again.
+ *
+ * Customers queue a record with appendLater once its change is durable in the transaction log,
+ * so the history never shows a change whose commit failed. One writer thread appends the queued
+ * records in the order they were queued, so neither the shard threads nor the committer wait for
+ * the history's writes.
+ *
+ * Abstraction Function:
+ * AF(h) = For every account u, the sequence of transactions in the segments of h.historyDir/hex(u),
+ *         in segment name order, then record order.
+ *
+ * Representation Invariant:
+ * RI(h) = h.appenders.size() <= h.maxOpen && every segment name <= the time of its first record &&
+ *         the times of the records of an account never decrease
+ */
+public class TransactionHistory {
+
+    public static final int DEFAULT_OPEN_ACCOUNTS = 256;
+
+    static final int RECORD_SIZE = 33;
+
+    private static final String HISTORY_DIR = ".history";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAGIC = 0x48495354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 32768;
+    private static final int READ_BATCH = 256;
+
+    // Record offsets
+    private static final int TIME = 0;
+    private static final int TYPE = 8;
+    private static final int AMOUNT = 9;
+    private static final int FEE = 17;
+    private static final int BALANCE = 25;
+
+    private final File historyDir;
+    private final int recordsPerSegment;
+    private final int maxOpen;
+    private final LinkedHashMap<String, Appender> appenders = new LinkedHashMap<>(16, 0.75f, true);
+    private final BlockingQueue<Queued> queued = new LinkedBlockingQueue<>();
+    private Thread writer; // Guarded by this; started by the first appendLater
+
+    /**
+     * Opens the history of the given database directory.
+     *
+     * @param databaseDir the database directory, which holds the history directory
+     * @param maxOpen the most accounts whose newest segment is kept open
+     * @requires maxOpen > 0
+     */
+    public TransactionHistory(File databaseDir, int maxOpen) {
+        this(databaseDir, maxOpen, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    TransactionHistory(File databaseDir, int maxOpen, int recordsPerSegment) {
+        if (maxOpen <= 0 || recordsPerSegment <= 0) {
+            throw new IllegalArgumentException("Open accounts and records per segment must be positive.");
+        }
+        this.historyDir = new File(databaseDir, HISTORY_DIR);
+        this.maxOpen = maxOpen;
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    /**
+     * Appends a transaction to the history of an account. Callers serialize the appends of one
+     * account, as the shard owning it does.
+     *
+     * @param username the username of the account
+     * @param time when the transaction happened, in milliseconds since the epoch; an earlier time
+     *        than the last transaction of the account, e.g. after the clock was set back, is
+     *        recorded as the time of that transaction
+     * @param type the kind of transaction
+     * @param amount the amount in cents
+     * @param fee the fee in cents
+     * @param balance the balance after the transaction, in cents
+     * @throws IOException if the record cannot be written
+     */
+    public void append(String username, long time, Transaction.Type type, long amount, long fee, long balance)
+            throws IOException {
+        while (true) {
+            Appender appender = appender(username);
+            synchronized (appender) {
+                if (!appender.closed) {
+                    appender.append(time, type, amount, fee, balance);
+                    return;
+                }
+            }
+            // Closed by eviction or delete between the lookup and the lock
+        }
+    }
+
+    /**
+     * Queues a transaction to be appended like append by the writer thread, after every
+     * transaction queued before it.
+     *
+     * @return a future completing once the transaction is appended, or exceptionally with the
+     *         IOException of append
+     */
+    public CompletableFuture<Void> appendLater(String username, long time, Transaction.Type type, long amount,
+            long fee, long balance) {
+        return queue(new Queued(username, time, type, amount, fee, balance));
+    }
+
+    private synchronized CompletableFuture<Void> queue(Queued entry) {
+        if (writer == null) {
+            writer = new Thread(this::writeQueued, "bank-history");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        queued.add(entry);
+        return entry.future;
+    }
+
+    private void writeQueued() {
+        while (true) {
+            Queued entry;
+            try {
+                entry = queued.take();
+            } catch (InterruptedException e) {
+                continue; // Nothing interrupts the writer on purpose
+            }
+            try {
+                if (entry.username != null) {
+                    append(entry.username, entry.time, entry.type, entry.amount, entry.fee, entry.balance);
+                }
+                entry.future.complete(null);
+            } catch (IOException | RuntimeException e) {
+                entry.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Waits until every transaction queued so far by appendLater is appended or has failed.
+     */
+    private void flush() {
+        queue(new Queued(null, 0, null, 0, 0, 0)).join();
+    }
+
+    private Appender appender(String username) {
+        List<Appender> evicted = new ArrayList<>();
+        Appender appender;
+        synchronized (this) {
+            appender = appenders.get(username);
+            if (appender == null) {
+                appender = new Appender(accountDir(username));
+                appenders.put(username, appender);
+                Iterator<Appender> eldest = appenders.values().iterator();
+                while (appenders.size() > maxOpen) {
+                    evicted.add(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+        for (Appender old : evicted) {
+            synchronized (old) {
+                old.close(false);
+            }
+        }
+        return appender;
+    }
+
+    /**
+     * Returns the most recent transactions of an account.
+     *
+     * @param username the username of the account
+     * @param n the most transactions to return
+     * @return a new list of at most n transactions, oldest first
+     * @throws IOException if the history cannot be read
+     */
+    public List<Transaction> last(String username, int n) throws IOException {
+        Deque<List<Transaction>> chunks = new ArrayDeque<>();
+        int collected = 0;
+        File[] segments = segments(username);
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH * RECORD_SIZE);
+        for (int i = segments.length - 1; i >= 0 && collected < n; i--) {
+            try (FileChannel in = FileChannel.open(segments[i].toPath(), StandardOpenOption.READ)) {
+                long count = count(in);
+                long first = Math.max(0, count - (n - collected));
+                List<Transaction> chunk = new ArrayList<>((int) (count - first));
+                read(in, buffer, first, count, Long.MIN_VALUE, Long.MAX_VALUE, chunk::add);
+                chunks.addFirst(chunk);
+                collected += chunk.size();
+            }
+        }
+        List<Transaction> result = new ArrayList<>(collected);
+        for (List<Transaction> chunk : chunks) {
+            result.addAll(chunk);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the transactions of an account in a time range.
+     *
+     * @param username the username of the account
+     * @param from the start of the range, inclusive, in milliseconds since the epoch
+     * @param to the end of the range, inclusive, in milliseconds since the epoch
+     * @param limit the most transactions to return
+     * @return a new list of at most limit transactions, oldest first
+     * @throws IOException if the history cannot be read
+     */
+    public List<Transaction> between(String username, long from, long to, int limit) throws IOException {
+        List<Transaction> result = new ArrayList<>(Math.min(limit, 1024));
+        scan(username, from, to, limit, result::add);
+        return result;
+    }
+
+    /**
+     * Writes the statement of an account for a time range as CSV, one transaction per line, without
+     * holding the transactions in memory.
+     *
+     * @param username the username of the account
+     * @param from the start of the range, inclusive, in milliseconds since the epoch
+     * @param to the end of the range, inclusive, in milliseconds since the epoch
+     * @param out where the statement is written
+     * @return the number of transactions written
+     * @throws IOException if the history cannot be read or the statement cannot be written
+     */
+    public long exportStatement(String username, long from, long to, Writer out) throws IOException {
+        out.write("time,type,amount,fee,balance");
+        out.write(System.lineSeparator());
+        StringBuilder line = new StringBuilder(80);
+        long[] written = new long[1];
+        IOException[] failure = new IOException[1];
+        scan(username, from, to, Long.MAX_VALUE, transaction -> {
+            if (failure[0] != null) {
+                return;
+            }
+            line.setLength(0);
+            transaction.appendTo(line).append(System.lineSeparator());
+            try {
+                out.append(line);
+                written[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        out.flush();
+        return written[0];
+    }
+
+    /**
+     * Passes the transactions of an account in a time range to an action, in order. Only the
+     * segments overlapping the range are opened.
+     */
+    private void scan(String username, long from, long to, long limit, Consumer<Transaction> action)
+            throws IOException {
+        File[] segments = segments(username);
+        int start = 0;
+        // Every record of a segment is at or before the start of the next one
+        while (start + 1 < segments.length && startTime(segments[start + 1]) < from) {
+            start++;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH * RECORD_SIZE);
+        long[] remaining = {limit};
+        Consumer<Transaction> limited = transaction -> {
+            remaining[0]--;
+            action.accept(transaction);
+        };
+        for (int i = start; i < segments.length && remaining[0] > 0 && startTime(segments[i]) <= to; i++) {
+            try (FileChannel in = FileChannel.open(segments[i].toPath(), StandardOpenOption.READ)) {
+                long count = count(in);
+                long first = i == start ? lowerBound(in, count, from) : 0;
+                // Not first + remaining, which overflows for an unlimited scan
+                long end = first + Math.min(remaining[0], count - first);
+                if (!read(in, buffer, first, end, from, to, limited)) {
+                    return; // Passed the end of the range
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of complete records in a segment
+     */
+    private static long count(FileChannel in) throws IOException {
+        return Math.max(0, (in.size() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * @return the index of the first record of a segment at or after a time
+     */
+    private static long lowerBound(FileChannel in, long count, long time) throws IOException {
+        ByteBuffer field = ByteBuffer.allocate(8);
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            field.clear();
+            readFully(in, field, HEADER_SIZE + mid * RECORD_SIZE);
+            if (field.getLong(0) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the records first until end of a segment in batches and passes those in the time range
+     * to the action.
+     *
+     * @return false if a record after the end of the range was reached
+     */
+    private static boolean read(FileChannel in, ByteBuffer buffer, long first, long end, long from, long to,
+            Consumer<Transaction> action) throws IOException {
+        for (long batch = first; batch < end; batch += READ_BATCH) {
+            int records = (int) Math.min(READ_BATCH, end - batch);
+            buffer.clear();
+            buffer.limit(records * RECORD_SIZE);
+            readFully(in, buffer, HEADER_SIZE + batch * RECORD_SIZE);
+            for (int r = 0; r < records; r++) {
+                int base = r * RECORD_SIZE;
+                long time = buffer.getLong(base + TIME);
+                if (time > to) {
+                    return false;
+                }
+                if (time >= from) {
+                    action.accept(new Transaction(time, Transaction.Type.of(buffer.get(base + TYPE)),
+                            buffer.getLong(base + AMOUNT), buffer.getLong(base + FEE), buffer.getLong(base + BALANCE)));
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of history segment.");
+            }
+        }
+    }
+
+    /**
+     * Deletes the history of an account, e.g. after the customer was deleted.
+     *
+     * @param username the username of the account
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void delete(String username) throws IOException {
+        flush(); // So that no queued transaction creates the history again
+        Appender appender;
+        synchronized (this) {
+            appender = appenders.remove(username);
+        }
+        if (appender != null) {
+            synchronized (appender) {
+                appender.close(false);
+            }
+        }
+        for (File segment : segments(username)) {
+            Files.delete(segment.toPath());
+        }
+        Files.deleteIfExists(accountDir(username).toPath());
+    }
+
+    /**
+     * Forces the open segments to disk.
+     *
+     * @throws IOException if a segment cannot be forced
+     */
+    public void sync() throws IOException {
+        flush();
+        for (Appender appender : openAppenders()) {
+            synchronized (appender) {
+                if (appender.channel != null) {
+                    appender.channel.force(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the queued transactions, then forces and closes the open segments. Later appends open
+     * them again.
+     */
+    public void close() {
+        flush();
+        List<Appender> open = openAppenders();
+        synchronized (this) {
+            appenders.clear();
+        }
+        for (Appender appender : open) {
+            synchronized (appender) {
+                appender.close(true);
+            }
+        }
+    }
+
+    private synchronized List<Appender> openAppenders() {
+        return new ArrayList<>(appenders.values());
+    }
+
+    private File accountDir(String username) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(historyDir, name.toString());
+    }
+
+    private File[] segments(String username) {
+        File[] files = accountDir(username).listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long startTime(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A transaction waiting for the writer thread, or with a null username a marker that completes
+     * once every transaction queued before it is done.
+     */
+    private static final class Queued {
+
+        final String username;
+        final long time;
+        final Transaction.Type type;
+        final long amount;
+        final long fee;
+        final long balance;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Queued(String username, long time, Transaction.Type type, long amount, long fee, long balance) {
+            this.username = username;
+            this.time = time;
+            this.type = type;
+            this.amount = amount;
+            this.fee = fee;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * The newest segment of one account, opened for appending on the first write.
+     */
+    private final class Appender {
+
+        final File dir;
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        FileChannel channel;
+        long segmentStart;
+        long records;
+        long lastTime = Long.MIN_VALUE;
+        boolean opened;
+        boolean closed;
+
+        Appender(File dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Opens the newest segment, dropping a torn record at its end.
+         */
+        private void open() throws IOException {
+            opened = true;
+            File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+            if (files == null || files.length == 0) {
+                return;
+            }
+            Arrays.sort(files);
+            File newest = files[files.length - 1];
+            channel = FileChannel.open(newest.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segmentStart = startTime(newest);
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader();
+            }
+            records = count(channel);
+            channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+            lastTime = segmentStart;
+            if (records > 0) {
+                buffer.clear();
+                buffer.limit(8);
+                readFully(channel, buffer, HEADER_SIZE + (records - 1) * RECORD_SIZE);
+                lastTime = buffer.getLong(0);
+            }
+        }
+
+        void append(long time, Transaction.Type type, long amount, long fee, long balance) throws IOException {
+            if (!opened) {
+                open();
+            }
+            time = Math.max(time, lastTime);
+            if (channel == null || records == recordsPerSegment) {
+                time = roll(time);
+            }
+            buffer.clear();
+            buffer.putLong(TIME, time);
+            buffer.put(TYPE, (byte) type.ordinal());
+            buffer.putLong(AMOUNT, amount);
+            buffer.putLong(FEE, fee);
+            buffer.putLong(BALANCE, balance);
+            long position = HEADER_SIZE + records * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            records++;
+            lastTime = time;
+        }
+
+        /**
+         * Closes the full segment and starts one named after the time of its first record.
+         *
+         * @return the time of the first record, moved past the start of the full segment if that
+         *         segment was filled within one millisecond, since two segments cannot share a name
+         */
+        private long roll(long time) throws IOException {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                time = Math.max(time, segmentStart + 1);
+            }
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            File segment = new File(dir, String.format("%020d", time) + SEGMENT_SUFFIX);
+            channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            segmentStart = time;
+            records = 0;
+            writeHeader();
+            return time;
+        }
+
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        /**
+         * @param force whether to force the segment to disk first; an evicted segment is not, so
+         *        a busy set of accounts larger than maxOpen does not cost an fsync per write
+         */
+        void close(boolean force) {
+            closed = true;
+            if (channel != null) {
+                try {
+                    if (force) {
+                        channel.force(false);
+                    }
+                    channel.close();
+                } catch (IOException e) {
+                    Database.getMetrics().failure("history.close", e);
+                }
+                channel = null;
+            }
+        }
+    }
+}
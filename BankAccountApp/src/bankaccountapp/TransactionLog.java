@@ -0,0 +1,677 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log for customer records.
+ *
+ * Overview:
+ * Every change to a customer is appended to the log as a fixed-size binary record holding the
+ * after-image of the customer (username, password, role and balance in cents). The log is split into
+ * segments under database/.wal/. When the active segment is full it is sealed, the next segment is
+ * started and a checkpoint on a background thread writes the latest image of every customer
+ * changed in the sealed segments to the account store and syncs it, after which the sealed
+ * segments are deleted; the committer never waits for the store. Only one checkpoint runs at a
+ * time, and while it does the active segment grows past its size. On startup the remaining
+ * segments are replayed into the store, so recovery reads at most the sealed segments and one
+ * active segment's worth of records.
+ *
+ * An open log holds a lock on database/.lock, so a second process, such as the AccountSnapshot or
+ * StoreConverter tool, cannot replay the log while the application is running.
+ *
+ * Records are encoded while holding the log's lock, so the last record for a customer always
+ * reflects the latest state of that customer at the time it was appended.
+ *
+ * A transfer is logged as a pair of records in one segment: the first, of type TYPE_TRANSFER,
+ * holds the image of the account debited and the second the image of the account credited. Under
+ * the log's lock the amount is debited, the pair is written with the credit already in the second
+ * image, and only then is the amount credited; if either write fails the records are cut off the
+ * segment and the debit is refunded, so the ledger never holds a transfer the log does not, and
+ * the credited customer can never spend money that is then taken back. Replay applies the first
+ * record of a pair only together with the second, so a crash in the middle of a pair loses the
+ * whole transfer and never half of it.
+ *
+ * While a snapshot reads the account store, checkpoints are deferred, so the store stays frozen
+ * and the active segment grows past its size until the snapshot ends; a snapshot begins only once
+ * the running checkpoint is done, and the store overlaid with the pending images copied then is
+ * the state as of the last record written then.
+ *
+ * Abstraction Function:
+ * AF(l) = The sequence of customer images l.segments[0..n] ordered by sequence number, applied
+ *         on top of the records in l.store; l.dirty overlaid on l.checkpointing holds the latest
+ *         of those images not known to be in the store yet.
+ *
+ * Representation Invariant:
+ * RI(l) = l.channel != null && l.durableSeq <= l.lastSeq &&
+ *         every record in l.channel has a sequence number > every record in older segments
+ */
+public class TransactionLog {
+
+    static final int RECORD_SIZE = 256;
+    static final int MAX_FIELD_BYTES = 100;
+    static final byte TYPE_UPDATE = 1;
+    static final byte TYPE_DELETE = 2;
+    static final byte TYPE_TRANSFER = 3;
+    static final byte FORMAT_CENTS = 1;
+
+    private static final int FORMAT_OFFSET = 224;
+
+    private static final String WAL_DIR = ".wal";
+    private static final String LOCK_FILE = ".lock";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 16384;
+
+    /** Marks a customer deleted in the log but not yet in the store. */
+    static final CustomerRecord DELETED = new CustomerRecord("", "", "Customer", 0);
+
+    /**
+     * The database directories this process has a log open in. Closing any channel to a lock file
+     * may drop every lock the process holds on it, so a second log of the process is refused here
+     * before it opens the file.
+     */
+    private static final Set<String> LOCKED = ConcurrentHashMap.newKeySet();
+
+    private final AccountStore store;
+    private final File walDir;
+    private final int recordsPerSegment;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final List<File> sealed = new ArrayList<>(); // Segments not checkpointed yet
+    private final ExecutorService checkpointer;
+    private final Object syncLock = new Object();
+    private final Histogram writeMicros = new Histogram();
+    private final Histogram syncMicros = new Histogram();
+    private final Histogram checkpointMicros = new Histogram();
+
+    private Map<String, CustomerRecord> dirty = new HashMap<>();
+    private Map<String, CustomerRecord> checkpointing; // Being written to the store, or null
+    private String lockedDir; // Canonical path in LOCKED, or null
+    private FileChannel lockChannel;
+    private FileChannel channel;
+    private File segment;
+    private int recordsInSegment;
+    private long lastSeq;
+    private long durableSeq;
+    private int snapshots; // Snapshots reading the frozen store
+
+    private TransactionLog(File databaseDir, AccountStore store, int recordsPerSegment) {
+        this.store = store;
+        this.walDir = new File(databaseDir, WAL_DIR);
+        this.recordsPerSegment = recordsPerSegment;
+        this.checkpointer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "bank-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the log in the given database directory, replaying and checkpointing any segments
+     * left behind by a previous run.
+     *
+     * @param databaseDir the database directory, which holds the log segments
+     * @param store the store that checkpoints are written to
+     * @return the opened log
+     * @throws IOException if the log cannot be recovered, or another process has it open
+     */
+    public static TransactionLog open(File databaseDir, AccountStore store) throws IOException {
+        return open(databaseDir, store, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    static TransactionLog open(File databaseDir, AccountStore store, int recordsPerSegment) throws IOException {
+        TransactionLog log = new TransactionLog(databaseDir, store, recordsPerSegment);
+        try {
+            log.lock(databaseDir);
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            log.release();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Takes the lock on the database directory, which is released when the lock channel closes.
+     */
+    private void lock(File databaseDir) throws IOException {
+        if (!walDir.exists() && !walDir.mkdirs()) {
+            throw new IOException("Cannot create " + walDir);
+        }
+        String path = databaseDir.getCanonicalPath();
+        if (!LOCKED.add(path)) {
+            throw new IOException("The database in " + databaseDir + " is already open in this process.");
+        }
+        lockedDir = path;
+        lockChannel = FileChannel.open(new File(databaseDir, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            throw new IOException("The database in " + databaseDir + " is in use by another process.");
+        }
+    }
+
+    /**
+     * Stops the checkpoint thread and releases the lock on the database directory, if taken.
+     */
+    private void release() throws IOException {
+        checkpointer.shutdown();
+        try {
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } finally {
+            if (lockedDir != null) {
+                LOCKED.remove(lockedDir);
+            }
+        }
+    }
+
+    /**
+     * Appends the current state of the customer to the log and waits until it is durable.
+     *
+     * @param customer the customer that changed
+     * @throws IOException if the record cannot be written
+     */
+    public void append(Customer customer) throws IOException {
+        sync(write(customer));
+    }
+
+    /**
+     * Appends the deletion of a customer to the log and waits until it is durable.
+     *
+     * @param username the username of the deleted customer
+     * @throws IOException if the record cannot be written
+     */
+    public void appendDelete(String username) throws IOException {
+        sync(writeDelete(username));
+    }
+
+    /**
+     * Returns the latest logged state of a customer that has not been checkpointed to the store yet.
+     * Readers must prefer it over the store, which may still hold an older state.
+     *
+     * @param username the username
+     * @return the pending image, DELETED if the customer was deleted, or null if the store is
+     *         up to date
+     */
+    synchronized CustomerRecord pendingImage(String username) {
+        CustomerRecord image = dirty.get(username);
+        return image != null || checkpointing == null ? image : checkpointing.get(username);
+    }
+
+    /**
+     * Writes every pending image to the account store and discards the log written so far,
+     * waiting for any running snapshot or checkpoint first.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        await(true);
+        checkpointNow();
+    }
+
+    /**
+     * Checkpoints and closes the log, and releases the database directory.
+     *
+     * @throws IOException if the final checkpoint cannot be written
+     */
+    public synchronized void close() throws IOException {
+        await(true);
+        try {
+            checkpointNow();
+            channel.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Starts a snapshot: freezes the account store by deferring checkpoints until endSnapshot,
+     * and returns the images not checkpointed yet. Every change is still logged meanwhile.
+     *
+     * @return a new map of the pending images, DELETED for a deleted customer; overlaid on the
+     *         store it is the state as of the last record written
+     * @throws InterruptedIOException if interrupted while waiting for a running checkpoint
+     */
+    synchronized Map<String, CustomerRecord> beginSnapshot() throws InterruptedIOException {
+        await(false);
+        snapshots++;
+        return new HashMap<>(dirty);
+    }
+
+    /**
+     * Ends a snapshot started by beginSnapshot, checkpointing the segment if it outgrew its size
+     * meanwhile.
+     *
+     * @throws IOException if the deferred checkpoint cannot be written
+     */
+    synchronized void endSnapshot() throws IOException {
+        snapshots--;
+        notifyAll();
+        if (canRoll() && recordsInSegment >= recordsPerSegment) {
+            roll();
+        }
+    }
+
+    /**
+     * Waits until no checkpoint, and optionally no snapshot, is running.
+     */
+    private void await(boolean snapshotsToo) throws InterruptedIOException {
+        while (checkpointing != null || snapshotsToo && snapshots > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while a snapshot or checkpoint was running.");
+            }
+        }
+    }
+
+    /**
+     * @return true if the active segment may be sealed now: no snapshot is reading the store and
+     *         no checkpoint is writing it
+     */
+    private boolean canRoll() {
+        return snapshots == 0 && checkpointing == null;
+    }
+
+    /**
+     * @return the histogram of microseconds spent encoding and writing one record
+     */
+    public Histogram getWriteMicros() {
+        return writeMicros;
+    }
+
+    /**
+     * @return the histogram of microseconds spent forcing the log to disk
+     */
+    public Histogram getSyncMicros() {
+        return syncMicros;
+    }
+
+    /**
+     * @return the histogram of microseconds spent checkpointing sealed segments
+     */
+    public Histogram getCheckpointMicros() {
+        return checkpointMicros;
+    }
+
+    /**
+     * Appends the current state of the customer without waiting for it to become durable.
+     *
+     * @return the sequence number of the record, to be passed to sync
+     */
+    long write(Customer customer) throws IOException {
+        return write(TYPE_UPDATE, customer.getUsername(), customer.getPassword(), customer.getRole(),
+                customer.getBalance());
+    }
+
+    /**
+     * Applies a transfer and appends the images of both customers as one pair, without waiting
+     * for them to become durable.
+     *
+     * @param from the customer debited
+     * @param to the customer credited
+     * @param transfer the steps of the transfer; they run under the log's lock
+     * @modifies this, the ledger
+     * @effects debits the transfer, writes the pair and credits the transfer; if anything fails
+     *          after the debit, the pair is cut off the segment and the debit refunded
+     * @return the sequence number of the pair, to be passed to sync, or 0 if nothing was written
+     * @throws ArithmeticException if the credit would overflow; nothing is moved or written
+     */
+    synchronized long writeTransfer(Customer from, Customer to, Transfer transfer) throws IOException {
+        if (canRoll() && recordsInSegment > recordsPerSegment - 2) {
+            roll(); // Both records go in one segment
+        }
+        if (!transfer.debit()) {
+            return 0;
+        }
+        long position = channel.position();
+        long seq = lastSeq;
+        int records = recordsInSegment;
+        CustomerRecord fromImage = dirty.get(from.getUsername());
+        CustomerRecord toImage = dirty.get(to.getUsername());
+        try {
+            write(TYPE_TRANSFER, from.getUsername(), from.getPassword(), from.getRole(), from.getBalance());
+            long written = write(TYPE_UPDATE, to.getUsername(), to.getPassword(), to.getRole(),
+                    Money.add(to.getBalance(), transfer.amount()));
+            transfer.credit();
+            return written;
+        } catch (IOException | RuntimeException e) {
+            truncate(position, e);
+            lastSeq = seq;
+            recordsInSegment = records;
+            restore(from.getUsername(), fromImage);
+            restore(to.getUsername(), toImage);
+            transfer.refund();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the deletion of a customer without waiting for it to become durable.
+     *
+     * @return the sequence number of the record, to be passed to sync
+     */
+    long writeDelete(String username) throws IOException {
+        return write(TYPE_DELETE, username, "", "Customer", 0);
+    }
+
+    private synchronized long write(byte type, String username, String password, String role, long balance)
+            throws IOException {
+        if (canRoll() && recordsInSegment >= recordsPerSegment) {
+            roll();
+        }
+        long seq = lastSeq + 1;
+        long start = System.nanoTime();
+        encode(seq, type, username, password, role, balance);
+        long position = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            truncate(position, e); // A torn record would end replay before any record after it
+            throw e;
+        }
+        writeMicros.record((System.nanoTime() - start) / 1000);
+        lastSeq = seq;
+        recordsInSegment++;
+        dirty.put(username, type == TYPE_DELETE ? DELETED : new CustomerRecord(username, password, role, balance));
+        return seq;
+    }
+
+    /**
+     * Cuts the active segment back to a length after a failed write, recording a failure to do so
+     * on the cause.
+     */
+    private void truncate(long position, Exception cause) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void restore(String username, CustomerRecord image) {
+        if (image == null) {
+            dirty.remove(username);
+        } else {
+            dirty.put(username, image);
+        }
+    }
+
+    /**
+     * Group commit: the first caller to arrive forces everything appended so far, and callers
+     * whose records were covered by that force return without touching the disk.
+     */
+    void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            if (durableSeq >= seq) {
+                return;
+            }
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                target = lastSeq;
+                current = channel;
+            }
+            long start = System.nanoTime();
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was sealed meanwhile, and sealing forces it before closing
+            }
+            syncMicros.record((System.nanoTime() - start) / 1000);
+            durableSeq = Math.max(durableSeq, target);
+        }
+    }
+
+    private void encode(long seq, byte type, String username, String password, String role, long balance) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pass = password.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_FIELD_BYTES || pass.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Username and password must be at most " + MAX_FIELD_BYTES + " bytes.");
+        }
+        Arrays.fill(buffer.array(), (byte) 0);
+        buffer.clear();
+        buffer.putInt(0);
+        buffer.putLong(seq);
+        buffer.put(type);
+        buffer.put((byte) ("Manager".equals(role) ? 1 : 0));
+        buffer.putLong(balance);
+        buffer.put((byte) name.length);
+        buffer.put(name);
+        buffer.position(buffer.position() + MAX_FIELD_BYTES - name.length);
+        buffer.put((byte) pass.length);
+        buffer.put(pass);
+        buffer.put(FORMAT_OFFSET, FORMAT_CENTS);
+        crc.reset();
+        crc.update(buffer.array(), 4, RECORD_SIZE - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        buffer.clear();
+    }
+
+    private void recover() throws IOException {
+        for (File file : segments()) {
+            replay(file);
+        }
+        checkpointImages(dirty);
+        dirty.clear();
+        for (File file : segments()) {
+            Files.delete(file.toPath());
+        }
+        openSegment();
+    }
+
+    /**
+     * Replays a segment into the pending images. A record with a bad checksum or an out-of-order
+     * sequence number marks a torn write at the tail, and the rest of the segment is ignored,
+     * together with the first record of a transfer whose second record is missing.
+     */
+    private void replay(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            String debited = null;
+            CustomerRecord debitedImage = null;
+            while (true) {
+                buffer.clear();
+                while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                    // keep reading until the record is complete or the file ends
+                }
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                crc.reset();
+                crc.update(buffer.array(), 4, RECORD_SIZE - 4);
+                long seq = buffer.getLong(4);
+                if (buffer.getInt(0) != (int) crc.getValue() || seq <= lastSeq) {
+                    return;
+                }
+                lastSeq = seq;
+                if (buffer.get(12) == TYPE_TRANSFER) {
+                    debited = decodeUsername();
+                    debitedImage = decodeImage();
+                    continue;
+                }
+                if (debited != null) {
+                    dirty.put(debited, debitedImage);
+                    debited = null;
+                }
+                dirty.put(decodeUsername(), decodeImage());
+            }
+        }
+    }
+
+    private String decodeUsername() {
+        int length = buffer.get(22) & 0xFF;
+        return new String(buffer.array(), 23, length, StandardCharsets.UTF_8);
+    }
+
+    private CustomerRecord decodeImage() {
+        if (buffer.get(12) == TYPE_DELETE) {
+            return DELETED;
+        }
+        int passwordOffset = 23 + MAX_FIELD_BYTES;
+        int passwordLength = buffer.get(passwordOffset) & 0xFF;
+        String password = new String(buffer.array(), passwordOffset + 1, passwordLength, StandardCharsets.UTF_8);
+        String role = buffer.get(13) == 1 ? "Manager" : "Customer";
+        // Records written before balances were kept in cents hold the balance as a double
+        long balance = buffer.get(FORMAT_OFFSET) == FORMAT_CENTS
+                ? buffer.getLong(14) : Math.round(buffer.getDouble(14) * Money.CENTS_PER_DOLLAR);
+        return new CustomerRecord(decodeUsername(), password, role, balance);
+    }
+
+    /**
+     * Seals the active segment, starts a new one and checkpoints the pending images in the
+     * background.
+     *
+     * @requires canRoll()
+     */
+    private void roll() throws IOException {
+        seal();
+        Map<String, CustomerRecord> images = dirty;
+        List<File> segments = new ArrayList<>(sealed);
+        checkpointing = images;
+        dirty = new HashMap<>();
+        openSegment();
+        checkpointer.execute(() -> checkpointInBackground(images, segments));
+    }
+
+    /**
+     * Writes the images of sealed segments to the store and deletes the segments, without the
+     * log's lock. If the checkpoint fails, the images go back to the pending ones, under any newer
+     * image, and the segments are kept for the next checkpoint to delete.
+     */
+    private void checkpointInBackground(Map<String, CustomerRecord> images, List<File> segments) {
+        long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            checkpointImages(images);
+            for (File file : segments) {
+                Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        synchronized (this) {
+            if (failure == null) {
+                sealed.removeAll(segments);
+            } else {
+                images.forEach(dirty::putIfAbsent);
+            }
+            checkpointing = null;
+            notifyAll();
+        }
+        if (failure == null) {
+            checkpointMicros.record((System.nanoTime() - start) / 1000);
+        } else {
+            Database.getMetrics().failure("log.checkpoint", failure);
+        }
+    }
+
+    /**
+     * Seals the active segment and checkpoints every pending image on the calling thread, then
+     * starts a new segment.
+     *
+     * @requires no checkpoint is running
+     */
+    private void checkpointNow() throws IOException {
+        long start = System.nanoTime();
+        seal();
+        checkpointImages(dirty);
+        dirty.clear();
+        for (File file : sealed) {
+            Files.deleteIfExists(file.toPath());
+        }
+        sealed.clear();
+        openSegment();
+        checkpointMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void seal() throws IOException {
+        channel.force(false);
+        channel.close();
+        sealed.add(segment);
+    }
+
+    private void openSegment() throws IOException {
+        segment = new File(walDir, String.format("%020d", lastSeq + 1) + SEGMENT_SUFFIX);
+        channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        recordsInSegment = 0;
+        FileAccountStore.forceDirectory(walDir); // So that a synced record is not lost with its file
+    }
+
+    private File[] segments() {
+        File[] files = walDir.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Writes each image to the account store and makes the store durable before the images may
+     * be forgotten.
+     */
+    private void checkpointImages(Map<String, CustomerRecord> images) throws IOException {
+        for (Map.Entry<String, CustomerRecord> entry : images.entrySet()) {
+            if (entry.getValue() == DELETED) {
+                store.delete(entry.getKey());
+            } else {
+                store.write(entry.getValue());
+            }
+        }
+        store.sync();
+    }
+
+    /**
+     * The steps of a transfer, which writeTransfer runs around the writing of its pair.
+     */
+    interface Transfer {
+
+        /**
+         * @return the amount moved, in cents
+         */
+        long amount();
+
+        /**
+         * Takes the amount from the customer debited.
+         *
+         * @return false if the transfer is refused and nothing was taken
+         * @throws IllegalArgumentException if either customer was deleted; nothing was taken
+         */
+        boolean debit();
+
+        /**
+         * Gives the amount to the customer credited, once the pair is written.
+         */
+        void credit();
+
+        /**
+         * Gives the amount back to the customer debited, when the pair could not be written.
+         */
+        void refund();
+    }
+}
@@ -0,0 +1,105 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Both storage engines, FileAccountStore and MappedAccountStore, keep the same records through
+ * random writes and deletes, return them all from readAll, and still hold them after a reopen.
+ */
+public class AccountStoreTest {
+
+    private static final String[] ENGINES = {"files", "mapped"};
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestDatabase.create();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDatabase.delete(dir);
+    }
+
+    @Test
+    public void randomWritesAndDeletesAreReadBack() throws IOException {
+        for (String engine : ENGINES) {
+            File engineDir = new File(dir, engine);
+            Map<String, CustomerRecord> expected = new HashMap<>();
+            AccountStore store = open(engine, engineDir);
+            Random random = new Random(7);
+            for (int i = 0; i < 2000; i++) {
+                String username = "c" + random.nextInt(300);
+                if (random.nextInt(4) == 0) {
+                    store.delete(username);
+                    expected.remove(username);
+                } else {
+                    CustomerRecord record = new CustomerRecord(username, random.nextBoolean() ? "" : "secret",
+                            random.nextInt(10) == 0 ? "Manager" : "Customer", random.nextInt(1_000_000));
+                    store.write(record);
+                    expected.put(username, record);
+                }
+            }
+            assertRecords(engine, expected, store);
+            store.close();
+
+            store = open(engine, engineDir);
+            assertRecords(engine, expected, store);
+            assertNull(store.read("nobody"));
+            store.close();
+        }
+    }
+
+    @Test
+    public void deletedSlotsAreReused() throws IOException {
+        MappedAccountStore store = MappedAccountStore.open(dir);
+        for (int i = 0; i < 100; i++) {
+            store.write(new CustomerRecord("c" + i, "", "Customer", i));
+        }
+        long size = new File(dir, ".accounts").length();
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 100; i++) {
+                store.delete("c" + i);
+            }
+            for (int i = 0; i < 100; i++) {
+                store.write(new CustomerRecord("c" + i, "", "Customer", round));
+            }
+        }
+        assertEquals(size, new File(dir, ".accounts").length());
+        assertEquals(100, store.size());
+        store.close();
+    }
+
+    private static AccountStore open(String engine, File dir) throws IOException {
+        dir.mkdirs();
+        return engine.equals("mapped") ? MappedAccountStore.open(dir) : new FileAccountStore(dir);
+    }
+
+    private static void assertRecords(String engine, Map<String, CustomerRecord> expected, AccountStore store)
+            throws IOException {
+        assertEquals(engine, expected.keySet(), new HashSet<>(store.listUsernames()));
+        Map<String, CustomerRecord> all = store.readAll(4);
+        assertEquals(engine, expected.keySet(), all.keySet());
+        for (CustomerRecord record : expected.values()) {
+            for (CustomerRecord actual : new CustomerRecord[] {store.read(record.getUsername()),
+                    all.get(record.getUsername())}) {
+                assertEquals(engine, record.getUsername(), actual.getUsername());
+                assertEquals(engine, record.getPassword(), actual.getPassword());
+                assertEquals(engine, record.getRole(), actual.getRole());
+                assertEquals(engine, record.getBalance(), actual.getBalance());
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Many threads changing the same few accounts at once through the BankService, the path the UI,
+ * the server and the batch mode take: no deposit or withdrawal is ever lost, in memory or on
+ * disk, no withdrawal takes a balance below zero, and transfers in opposite directions never
+ * deadlock.
+ */
+public class AccountStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 500;
+    private static final int ACCOUNTS = 4;
+    private static final String PREFIX = "stress";
+
+    private ExecutorService threads;
+
+    @BeforeClass
+    public static void setUpCustomers() throws IOException {
+        TestDatabase.install();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Manager.addCustomer(PREFIX + i, "password");
+        }
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Before
+    public void setUp() {
+        threads = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void concurrentDepositsAreNeverLost() throws Exception {
+        long[] initial = balances();
+        List<long[]> deposited = runOnEveryThread(seed -> {
+            Random random = new Random(seed);
+            long[] cents = new long[ACCOUNTS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                int account = random.nextInt(ACCOUNTS);
+                long amount = 1 + random.nextInt(100);
+                Database.getService().deposit(PREFIX + account, amount).join();
+                cents[account] += amount;
+            }
+            return cents;
+        });
+        long[] expected = initial.clone();
+        for (long[] cents : deposited) {
+            for (int account = 0; account < ACCOUNTS; account++) {
+                expected[account] += cents[account];
+            }
+        }
+        assertBalances(expected);
+    }
+
+    @Test
+    public void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        long initial = balances()[0];
+        List<long[]> withdrawn = runOnEveryThread(seed -> {
+            long[] cents = new long[1];
+            while (Database.getService().withdraw(PREFIX + 0, 7).join()) {
+                cents[0] += 7;
+            }
+            return cents;
+        });
+        long total = 0;
+        for (long[] cents : withdrawn) {
+            total += cents[0];
+        }
+        long balance = balances()[0];
+        assertEquals(initial - total, balance);
+        assertTrue("Left " + balance + " cents that cover another withdrawal.", balance >= 0 && balance < 7);
+    }
+
+    @Test
+    public void mixedDepositsAndWithdrawalsAddUp() throws Exception {
+        long[] initial = balances();
+        List<long[]> changes = runOnEveryThread(seed -> {
+            Random random = new Random(seed);
+            long[] cents = new long[ACCOUNTS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                int account = random.nextInt(ACCOUNTS);
+                long amount = 1 + random.nextInt(100);
+                if (random.nextBoolean()) {
+                    Database.getService().deposit(PREFIX + account, amount).join();
+                    cents[account] += amount;
+                } else if (Database.getService().withdraw(PREFIX + account, amount).join()) {
+                    cents[account] -= amount;
+                }
+            }
+            return cents;
+        });
+        long[] expected = initial.clone();
+        for (long[] cents : changes) {
+            for (int account = 0; account < ACCOUNTS; account++) {
+                expected[account] += cents[account];
+            }
+        }
+        assertBalances(expected);
+        for (long balance : balances()) {
+            assertTrue(balance >= 0);
+        }
+    }
+
+    @Test(timeout = 120_000)
+    public void opposingTransfersNeitherDeadlockNorLoseMoney() throws Exception {
+        Database.getService().deposit(PREFIX + 1, Money.dollars(10_000)).join();
+        Database.getService().deposit(PREFIX + 2, Money.dollars(10_000)).join();
+        long[] initial = balances();
+        runOnEveryThread(seed -> {
+            String from = PREFIX + (seed % 2 == 0 ? 1 : 2);
+            String to = PREFIX + (seed % 2 == 0 ? 2 : 1);
+            for (int i = 0; i < OPERATIONS; i++) {
+                Database.getService().transfer(from, to, 1 + i % 50).join();
+            }
+            return null;
+        });
+        long[] balances = balances();
+        assertEquals(initial[1] + initial[2], balances[1] + balances[2]);
+        assertBalances(balances);
+    }
+
+    /**
+     * @return the balance of every account, read through its shard
+     */
+    private static long[] balances() {
+        long[] balances = new long[ACCOUNTS];
+        for (int account = 0; account < ACCOUNTS; account++) {
+            balances[account] = Database.getService().balance(PREFIX + account).join();
+        }
+        return balances;
+    }
+
+    /**
+     * Asserts the balances in memory and, after a checkpoint, in the account store.
+     */
+    private static void assertBalances(long[] expected) throws IOException {
+        long[] balances = balances();
+        Database.getLog().checkpoint();
+        for (int account = 0; account < ACCOUNTS; account++) {
+            assertEquals(expected[account], balances[account]);
+            assertEquals(expected[account], Database.getStore().read(PREFIX + account).getBalance());
+        }
+    }
+
+    /**
+     * Runs a task on every thread at once and waits for all of them.
+     *
+     * @param task the task, given the number of its thread
+     * @return the results of the task, by thread
+     */
+    private <T> List<T> runOnEveryThread(IntFunction<T> task) throws Exception {
+        List<Future<T>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            futures.add(threads.submit((Callable<T>) () -> task.apply(seed)));
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(120, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,100 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The balance and level indexes find the customers by balance range and by level, and they and the
+ * bank-wide totals follow deposits, purchases, new customers and deletions once the indexer has
+ * caught up. A consistent index gives the reconciler nothing to correct.
+ */
+public class BalanceIndexTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @BeforeClass
+    public static void setUpDatabase() throws IOException {
+        TestDatabase.install();
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Test
+    public void customersAreFoundByBalanceAndLevel() throws InterruptedException {
+        Manager.addCustomer("range0", "password");
+        Manager.addCustomer("range1", "password");
+        Manager.addCustomer("range2", "password");
+        Database.getService().deposit("range1", Money.dollars(9900)).join();
+        Database.getService().deposit("range2", Money.dollars(19900)).join();
+        awaitBalance("range0", Money.dollars(100));
+        awaitBalance("range1", Money.dollars(10000));
+        awaitBalance("range2", Money.dollars(20000));
+
+        BalanceIndex index = Database.getBalanceIndex();
+        List<String> found = index.findByBalance(Money.dollars(100), Money.dollars(10000));
+        assertTrue(found.containsAll(Arrays.asList("range0", "range1")));
+        assertFalse(found.contains("range2"));
+        assertTrue(found.indexOf("range0") < found.indexOf("range1"));
+        assertEquals(Arrays.asList("range2"), index.findByBalance(Money.dollars(20000), Money.dollars(20000)));
+        assertTrue(index.findByBalance(Money.dollars(2), Money.dollars(1)).isEmpty());
+
+        TierTable tiers = Database.getTiers();
+        assertTrue(index.findByLevel(tiers.levelFor(Money.dollars(100))).contains("range0"));
+        assertTrue(index.findByLevel(tiers.levelFor(Money.dollars(10000))).contains("range1"));
+        assertTrue(index.findByLevel(tiers.levelFor(Money.dollars(20000))).contains("range2"));
+        assertFalse(index.findByLevel(tiers.levelFor(Money.dollars(100))).contains("range2"));
+    }
+
+    @Test
+    public void totalsFollowChangesAndDeletions() throws InterruptedException {
+        BalanceIndex index = Database.getBalanceIndex();
+        Manager.addCustomer("totals0", "password");
+        awaitBalance("totals0", Money.dollars(100));
+        BankTotals before = index.getTotals();
+        Level silver = Database.getTiers().levelFor(Money.dollars(100));
+        Level gold = Database.getTiers().levelFor(Money.dollars(10000));
+
+        Database.getService().deposit("totals0", Money.dollars(9960)).join();
+        assertTrue(Database.getService().purchase("totals0", Money.dollars(50)).join());
+        awaitBalance("totals0", Money.dollars(10000));
+        BankTotals after = index.getTotals();
+        assertEquals(before.getTotalBalance() + Money.dollars(9900), after.getTotalBalance());
+        assertEquals(before.getCustomers(), after.getCustomers());
+        assertEquals(before.getCount(silver) - 1, after.getCount(silver));
+        assertEquals(before.getCount(gold) + 1, after.getCount(gold));
+        assertEquals(before.getSum(gold) + Money.dollars(10000), after.getSum(gold));
+        assertEquals(before.getFeeRevenue() + gold.getOnlineFee(), after.getFeeRevenue());
+
+        Manager.deleteCustomer("totals0");
+        awaitBalance("totals0", -1);
+        BankTotals deleted = index.getTotals();
+        assertEquals(before.getCustomers() - 1, deleted.getCustomers());
+        assertEquals(before.getTotalBalance() - Money.dollars(100), deleted.getTotalBalance());
+        assertEquals(before.getCount(gold), deleted.getCount(gold));
+        assertFalse(index.findByLevel(gold).contains("totals0"));
+        assertEquals(0, index.reconcile());
+    }
+
+    private static void awaitBalance(String username, long balance) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (Database.getBalanceIndex().balanceOf(username) != balance) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(username + " is indexed at " + Database.getBalanceIndex().balanceOf(username) + ", not at "
+                        + balance);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Every BankService call the JavaFX controllers make returns at once, with a pending future,
+ * while the disk or a lock it needs is held up, so the JavaFX Application Thread never waits for
+ * I/O. The controllers cannot be created without the JavaFX toolkit, so a single thread of the
+ * test stands in for the Application Thread and makes the same calls they do.
+ *
+ * A stall holds the monitor that the I/O of an operation takes, e.g. the transaction log's for
+ * changes to an account, on a thread of its own until it is released.
+ */
+public class BankServiceTest {
+
+    private static final long RETURN_MILLIS = 500;
+    private static final long PENDING_MILLIS = 200;
+
+    private ExecutorService uiThread;
+
+    @BeforeClass
+    public static void setUpDatabase() throws IOException {
+        TestDatabase.install();
+        // One worker, so that an operation stalled on it holds up the others queued behind it
+        System.setProperty("bank.service.threads", "1");
+        Manager.addCustomer("service0", "password");
+        Manager.addCustomer("service1", "password");
+        Database.getService().deposit("service0", Money.dollars(1000)).join();
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Before
+    public void setUp() {
+        uiThread = Executors.newSingleThreadExecutor(task -> new Thread(task, "ui"));
+    }
+
+    @After
+    public void tearDown() {
+        uiThread.shutdownNow();
+    }
+
+    @Test
+    public void accountChangesDoNotWaitForTheLog() throws Exception {
+        BankService service = Database.getService();
+        long before = service.balance("service0").join();
+        assertDoesNotBlock(Database.getLog(), () -> service.deposit("service0", 100));
+        assertDoesNotBlock(Database.getLog(), () -> service.withdraw("service0", 100));
+        assertDoesNotBlock(Database.getLog(), () -> service.purchase("service0", Customer.MINIMUM_PURCHASE));
+        assertDoesNotBlock(Database.getLog(), () -> service.transfer("service0", "service1", 100));
+        assertTrue(service.balance("service0").join() < before);
+    }
+
+    @Test
+    public void managerChangesDoNotWaitForTheManager() throws Exception {
+        BankService service = Database.getService();
+        assertDoesNotBlock(Manager.class, () -> service.addCustomer("service2", "password"));
+        assertTrue(Manager.getUsernames().contains("service2"));
+        assertDoesNotBlock(Manager.class, () -> service.deleteCustomer("service2"));
+        assertFalse(Manager.getUsernames().contains("service2"));
+    }
+
+    @Test
+    public void loginDoesNotWaitForTheCredentials() throws Exception {
+        Object session = assertDoesNotBlock(Database.getCredentials(),
+                () -> Database.getService().login("service1", "password", "Customer"));
+        assertNotNull(session);
+    }
+
+    @Test
+    public void readsQueueBehindABusyWorker() throws Exception {
+        BankService service = Database.getService();
+        Stall stall = new Stall(Database.getCredentials());
+        CompletableFuture<Session> login;
+        CompletableFuture<?>[] reads;
+        try {
+            login = call(() -> service.login("service1", "password", "Customer"));
+            reads = new CompletableFuture<?>[] {call(service::totals), call(() -> service.listUsernames("", null, 10)),
+                    call(() -> service.recentTransactions("service0", 10))};
+            Thread.sleep(PENDING_MILLIS);
+            for (CompletableFuture<?> read : reads) {
+                assertFalse("A read ran although the only worker is busy.", read.isDone());
+            }
+        } finally {
+            stall.release();
+        }
+        login.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<?> read : reads) {
+            read.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Makes a call on the stand-in Application Thread while a monitor is held, and checks that
+     * the call returns at once with a future that completes only once the monitor is released.
+     *
+     * @return the result of the call
+     */
+    private <T> T assertDoesNotBlock(Object monitor, Supplier<CompletableFuture<T>> action) throws Exception {
+        Stall stall = new Stall(monitor);
+        CompletableFuture<T> result;
+        try {
+            result = call(action);
+            Thread.sleep(PENDING_MILLIS);
+            assertFalse("The operation completed although its I/O is stalled.", result.isDone());
+        } finally {
+            stall.release();
+        }
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the future returned by the action on the stand-in Application Thread
+     * @throws AssertionError if the thread does not return within RETURN_MILLIS
+     */
+    private <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> action) throws Exception {
+        try {
+            return uiThread.submit(action::get).get(RETURN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            fail("The Application Thread was blocked.");
+            return null;
+        }
+    }
+
+    /**
+     * Holds a monitor on a thread of its own until released.
+     */
+    private static final class Stall {
+
+        private final CountDownLatch held = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        Stall(Object monitor) throws InterruptedException {
+            Thread thread = new Thread(() -> {
+                synchronized (monitor) {
+                    held.countDown();
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "stall");
+            thread.setDaemon(true);
+            thread.start();
+            held.await();
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The batch mode applies its instructions through the BankService, so its withdrawals and
+ * purchases are held to the rate limits of the bank; throttled instructions are delayed, not
+ * rejected or lost.
+ */
+public class BatchProcessorTest {
+
+    private static final int RATE = 20;
+    private static final int BURST = 5;
+
+    @BeforeClass
+    public static void setUpDatabase() throws IOException {
+        TestDatabase.install();
+        // The limiter is created on first use, after TestDatabase turned the limits off
+        System.setProperty("bank.limit.accountRate", Integer.toString(RATE));
+        System.setProperty("bank.limit.accountBurst", Integer.toString(BURST));
+        Manager.addCustomer("batch0", "password");
+        Manager.addCustomer("batch1", "password");
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Test
+    public void throttledWithdrawalsAreDelayedToTheAccountRate() throws Exception {
+        int withdrawals = 25;
+        long before = Database.getService().balance("batch0").join();
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < withdrawals; i++) {
+            input.append("batch0,withdraw,0.01\n");
+        }
+        StringWriter results = new StringWriter();
+        StringWriter rejects = new StringWriter();
+        BatchProcessor processor = new BatchProcessor(4, results, rejects);
+
+        long start = System.nanoTime();
+        processor.process(new BufferedReader(new StringReader(input.toString())));
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(rejects.toString(), withdrawals, processor.getApplied());
+        assertEquals(0, processor.getRejected());
+        assertEquals(before - withdrawals, (long) Database.getService().balance("batch0").join());
+        double least = (withdrawals - BURST) / (double) RATE;
+        assertTrue("Took " + seconds + " s, at least " + least + " s expected.", seconds >= least * 0.9);
+    }
+
+    @Test
+    public void badInstructionsAreRejectedWithTheirReason() throws Exception {
+        String input = "batch1,deposit,10\nnobody,deposit,1\nbatch1,purchase,10\nbatch1,fly,1\n"
+                + "batch1,withdraw,99999\nbatch1,withdraw,x\nbatch1,deposit\n";
+        StringWriter results = new StringWriter();
+        StringWriter rejects = new StringWriter();
+        BatchProcessor processor = new BatchProcessor(2, results, rejects);
+        processor.process(new BufferedReader(new StringReader(input)));
+
+        assertEquals(1, processor.getApplied());
+        assertEquals(6, processor.getRejected());
+        String rejected = rejects.toString();
+        for (String reason : new String[] {"2,nobody,deposit,1,REJECTED,unknown account",
+                "3,batch1,purchase,10,REJECTED,minimum purchase is $50", "4,batch1,fly,1,REJECTED,unknown operation",
+                "5,batch1,withdraw,99999,REJECTED,insufficient funds", "6,batch1,withdraw,x,REJECTED,invalid amount",
+                "7,batch1,deposit,REJECTED,malformed line"}) {
+            assertTrue(rejected, rejected.contains(reason));
+        }
+    }
+}
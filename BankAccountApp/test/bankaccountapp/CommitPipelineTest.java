@@ -0,0 +1,121 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A change that fails while it is committed fails its own future, and the committer goes on with
+ * every other change: none of them is left waiting for a committer that died.
+ */
+public class CommitPipelineTest {
+
+    private static final String PREFIX = "pipeline";
+
+    private File dir;
+    private TransactionLog log;
+    private CommitPipeline pipeline;
+
+    @BeforeClass
+    public static void setUpCustomers() throws IOException {
+        TestDatabase.install();
+        Manager.addCustomer(PREFIX + 0, "password");
+        Manager.addCustomer(PREFIX + 1, "password");
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestDatabase.create();
+        log = TransactionLog.open(dir, new FileAccountStore(dir));
+        pipeline = new CommitPipeline(log, 16, 5);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pipeline.close();
+        if (log != null) {
+            log.close();
+        }
+        TestDatabase.delete(dir);
+    }
+
+    @Test
+    public void aThrowingTransferFailsOnlyItself() throws Exception {
+        Customer from = Database.getCache().get(PREFIX + 0);
+        Customer to = Database.getCache().get(PREFIX + 1);
+        CompletableFuture<Boolean> broken = pipeline.submitTransfer(from, to, new TransactionLog.Transfer() {
+            @Override
+            public long amount() {
+                return 1;
+            }
+
+            @Override
+            public boolean debit() {
+                throw new IllegalStateException("Broken transfer.");
+            }
+
+            @Override
+            public void credit() {
+            }
+
+            @Override
+            public void refund() {
+            }
+        });
+        CompletableFuture<Void> after = pipeline.submit(from);
+        after.get(10, TimeUnit.SECONDS);
+        assertFailsWith(IllegalStateException.class, broken);
+        pipeline.submit(to).get(10, TimeUnit.SECONDS); // The committer is still running
+    }
+
+    @Test
+    public void anOverlongUsernameFailsOnlyItself() throws Exception {
+        char[] name = new char[TransactionLog.MAX_FIELD_BYTES + 1];
+        Arrays.fill(name, 'x');
+        CompletableFuture<Void> rejected = pipeline.submitDelete(new String(name));
+        CompletableFuture<Void> accepted = pipeline.submitDelete(PREFIX + "Missing");
+        accepted.get(10, TimeUnit.SECONDS);
+        assertFailsWith(IllegalArgumentException.class, rejected);
+    }
+
+    @Test
+    public void aFailedWriteFailsItsBatchAndLaterOnes() throws Exception {
+        log.close();
+        log = null;
+        CompletableFuture<Void> first = pipeline.submit(Database.getCache().get(PREFIX + 0));
+        assertFailsWith(IOException.class, first);
+        CompletableFuture<Void> second = pipeline.submit(Database.getCache().get(PREFIX + 1));
+        assertFailsWith(IOException.class, second);
+    }
+
+    /**
+     * Waits for a future and asserts that it failed with the given type of exception.
+     */
+    private static void assertFailsWith(Class<? extends Throwable> type, CompletableFuture<?> future)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The change was committed.");
+        } catch (ExecutionException e) {
+            assertTrue("Failed with " + e.getCause(), type.isInstance(e.getCause()));
+        }
+        assertEquals(true, future.isCompletedExceptionally());
+    }
+}
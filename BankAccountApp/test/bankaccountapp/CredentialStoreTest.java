@@ -0,0 +1,132 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Many verifications at once give the right answers while the hashing stays on the store's fixed
+ * pool, and an unknown user or a wrong role is refused only after as much hashing as a wrong
+ * password.
+ */
+public class CredentialStoreTest {
+
+    private static final int USERS = 16;
+    private static final int THREADS = 8;
+    private static final int HASHERS = 2;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestDatabase.create();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestDatabase.delete(dir);
+    }
+
+    @Test
+    public void parallelVerificationsAreCorrectOnABoundedPool() throws Exception {
+        CredentialStore store = CredentialStore.open(dir, 1000, 0, HASHERS);
+        try {
+            for (int u = 0; u < USERS; u++) {
+                store.set("user" + u, "secret" + u, "Customer");
+            }
+            AtomicInteger maxHashers = new AtomicInteger();
+            ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    futures.add(callers.submit(() -> {
+                        for (int i = 0; i < 50; i++) {
+                            int u = i % USERS;
+                            assertTrue(store.verify("user" + u, "secret" + u, "Customer"));
+                            assertFalse(store.verify("user" + u, "secret" + (u + 1), "Customer"));
+                            assertFalse(store.verify("user" + u, "secret" + u, "Manager"));
+                            assertFalse(store.verify("nobody" + u, "secret" + u, "Customer"));
+                            maxHashers.accumulateAndGet(hasherThreads(), Math::max);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                callers.shutdown();
+            }
+            assertTrue("hash pool grew to " + maxHashers.get(), maxHashers.get() <= HASHERS);
+            assertTrue(maxHashers.get() > 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void unknownUsersTakeAsLongAsWrongPasswords() throws IOException {
+        CredentialStore store = CredentialStore.open(dir, 20_000, 0, HASHERS);
+        try {
+            store.set("alice", "secret", "Customer");
+            long wrongPassword = 0;
+            long unknownUser = 0;
+            long wrongRole = 0;
+            for (int i = 0; i < 20; i++) {
+                long start = System.nanoTime();
+                assertFalse(store.verify("alice", "guess" + i, "Customer"));
+                wrongPassword += System.nanoTime() - start;
+                start = System.nanoTime();
+                assertFalse(store.verify("mallory" + i, "guess" + i, "Customer"));
+                unknownUser += System.nanoTime() - start;
+                start = System.nanoTime();
+                assertFalse(store.verify("alice", "guess" + i, "Manager"));
+                wrongRole += System.nanoTime() - start;
+            }
+            assertTrue("unknown user " + unknownUser + " ns, wrong password " + wrongPassword + " ns",
+                    unknownUser * 3 > wrongPassword);
+            assertTrue("wrong role " + wrongRole + " ns, wrong password " + wrongPassword + " ns",
+                    wrongRole * 3 > wrongPassword);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void credentialsSurviveAReopen() throws IOException {
+        CredentialStore store = CredentialStore.open(dir, 1000, 0, HASHERS);
+        store.set("alice", "secret", "Manager");
+        store.set("bob", "hunter2", "Customer");
+        store.remove("bob");
+        store.close();
+        store = CredentialStore.open(dir, 1000, 0, HASHERS);
+        try {
+            assertTrue(store.verify("alice", "secret", "Manager"));
+            assertFalse(store.contains("bob"));
+            assertFalse(store.verify("bob", "hunter2", "Customer"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static int hasherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("bank-hasher-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
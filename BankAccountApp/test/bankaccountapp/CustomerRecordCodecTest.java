@@ -0,0 +1,219 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Round trips of random records through the CustomerRecordCodec and FileAccountStore.parse, and
+ * fuzzing of the readers with truncated, corrupted and random bytes, which must come back as a
+ * record or an IOException and nothing else.
+ */
+public class CustomerRecordCodecTest {
+
+    private static final File FILE = new File("test");
+    private static final int RECORDS = 20_000;
+
+    private final Random random = new Random(42);
+    private final ByteBuffer buffer = ByteBuffer.allocate(CustomerRecordCodec.MAX_SIZE);
+
+    @Test
+    public void randomRecordsRoundTrip() throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            CustomerRecord expected = randomRecord();
+            byte[] bytes = encode(expected);
+            int fields = utf8(expected.getUsername()).length + utf8(expected.getPassword()).length;
+            assertEquals(CustomerRecordCodec.HEADER_SIZE + 2 + fields + 1 + 8, bytes.length);
+
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            assertSame(expected, CustomerRecordCodec.decode(in));
+            assertFalse(in.hasRemaining());
+            assertSame(expected, FileAccountStore.parse(bytes, bytes.length, FILE));
+        }
+    }
+
+    @Test
+    public void fieldsLongerThanTheLimitAreRejected() {
+        char[] limit = new char[TransactionLog.MAX_FIELD_BYTES];
+        Arrays.fill(limit, 'a');
+        encode(new CustomerRecord(new String(limit), "", "Customer", 0));
+        assertRejected(new String(limit) + "a", "");
+        char[] wide = new char[TransactionLog.MAX_FIELD_BYTES / 3 + 1];
+        Arrays.fill(wide, '中'); // Three bytes each
+        assertRejected("user", new String(wide));
+    }
+
+    @Test
+    public void everyTruncationIsRejected() {
+        for (int i = 0; i < 200; i++) {
+            byte[] bytes = encode(randomRecord());
+            for (int cut = 1; cut < bytes.length; cut++) {
+                try {
+                    FileAccountStore.parse(bytes, cut, FILE);
+                    fail("A record cut to " + cut + " of " + bytes.length + " bytes was read.");
+                } catch (IOException e) {
+                    // Expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fieldsOfANewerVersionAreSkipped() throws IOException {
+        CustomerRecord expected = randomRecord();
+        byte[] bytes = encode(expected);
+        byte[] newer = Arrays.copyOf(bytes, bytes.length + 7);
+        newer[1] = CustomerRecordCodec.VERSION + 1;
+        ByteBuffer.wrap(newer).putShort(2, (short) (bytes.length - CustomerRecordCodec.HEADER_SIZE + 7));
+        ByteBuffer in = ByteBuffer.wrap(Arrays.copyOf(newer, newer.length + 3));
+        assertSame(expected, CustomerRecordCodec.decode(in));
+        assertEquals(newer.length, in.position());
+    }
+
+    @Test
+    public void corruptedRecordsNeverBreakTheReader() {
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] bytes = encode(randomRecord());
+            for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+            }
+            read(bytes);
+        }
+    }
+
+    @Test
+    public void randomBytesNeverBreakTheReader() {
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] bytes = new byte[random.nextInt(64)];
+            random.nextBytes(bytes);
+            if (bytes.length > 0 && random.nextBoolean()) {
+                bytes[0] = 0; // Binary rather than text
+            }
+            read(bytes);
+        }
+    }
+
+    @Test
+    public void legacyTextFilesAreRead() throws IOException {
+        assertParsed("bob\npw\nManager\n12.34\n", "bob", "pw", "Manager", 1234);
+        assertParsed("bob\r\npw\r\nCustomer\r\n12.34\r\n", "bob", "pw", "Customer", 1234);
+        assertParsed("bob\npw\nCustomer\n100.0", "bob", "pw", "Customer", 10000);
+        assertParsed("bob\n\nCustomer\n1.0E7\n", "bob", "", "Customer", 1_000_000_000);
+    }
+
+    @Test
+    public void aLegacyFileIsReplacedByABinaryOneWhenWritten() throws IOException {
+        File dir = TestDatabase.create();
+        try {
+            File file = new File(dir, "old");
+            Files.write(file.toPath(), utf8("old\nsecret\nCustomer\n250.50\n"));
+            FileAccountStore store = new FileAccountStore(dir);
+            CustomerRecord record = store.read("old");
+            assertSame(new CustomerRecord("old", "secret", "Customer", 25050), record);
+            store.write(new CustomerRecord("old", "secret", "Customer", record.getBalance() + 1));
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            assertTrue(CustomerRecordCodec.isBinary(bytes, bytes.length));
+            assertEquals(25051, store.read("old").getBalance());
+        } finally {
+            TestDatabase.delete(dir);
+        }
+    }
+
+    /**
+     * Reads bytes as a customer file, accepting a record or an IOException.
+     */
+    private static void read(byte[] bytes) {
+        try {
+            FileAccountStore.parse(bytes, bytes.length, FILE);
+        } catch (IOException e) {
+            // Rejected, as it should be unless the damage left a valid record
+        } catch (RuntimeException e) {
+            throw new AssertionError("Reading " + Arrays.toString(bytes) + " threw " + e, e);
+        }
+    }
+
+    private byte[] encode(CustomerRecord record) {
+        buffer.clear();
+        CustomerRecordCodec.encode(record, buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private void assertRejected(String username, String password) {
+        try {
+            encode(new CustomerRecord(username, password, "Customer", 0));
+            fail("A field of more than " + TransactionLog.MAX_FIELD_BYTES + " bytes was encoded.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertParsed(String text, String username, String password, String role, long balance)
+            throws IOException {
+        byte[] bytes = utf8(text);
+        assertSame(new CustomerRecord(username, password, role, balance), FileAccountStore.parse(bytes, bytes.length, FILE));
+    }
+
+    /**
+     * Asserts that a record read back is the one written, its strings as the UTF-8 encoding of
+     * the written ones decodes, so an unpaired surrogate comes back as '?'.
+     */
+    private static void assertSame(CustomerRecord expected, CustomerRecord actual) {
+        assertEquals(new String(utf8(expected.getUsername()), StandardCharsets.UTF_8), actual.getUsername());
+        assertEquals(new String(utf8(expected.getPassword()), StandardCharsets.UTF_8), actual.getPassword());
+        assertEquals(expected.getRole(), actual.getRole());
+        assertEquals(expected.getBalance(), actual.getBalance());
+    }
+
+    /**
+     * @return a record with random strings that fit the field limit, mixing one- to four-byte
+     *         characters and unpaired surrogates
+     */
+    private CustomerRecord randomRecord() {
+        return new CustomerRecord(randomString(1), randomString(0), random.nextBoolean() ? "Manager" : "Customer",
+                random.nextLong());
+    }
+
+    private String randomString(int minLength) {
+        StringBuilder out = new StringBuilder();
+        int length = minLength + random.nextInt(40);
+        while (out.length() < length) {
+            int before = out.length();
+            switch (random.nextInt(5)) {
+                case 0:
+                    out.append((char) (' ' + random.nextInt(95)));
+                    break;
+                case 1:
+                    out.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 2:
+                    out.append((char) (0x800 + random.nextInt(0xD000)));
+                    break;
+                case 3:
+                    out.append((char) (Character.MIN_SURROGATE + random.nextInt(0x800)));
+                    break;
+                default:
+                    out.appendCodePoint(Character.MIN_SUPPLEMENTARY_CODE_POINT + random.nextInt(0xFFFFF));
+                    break;
+            }
+            if (utf8(out.toString()).length > TransactionLog.MAX_FIELD_BYTES) {
+                out.setLength(before);
+                break;
+            }
+        }
+        return out.toString();
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
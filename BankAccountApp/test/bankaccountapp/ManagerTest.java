@@ -0,0 +1,101 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Creating customers: a customer is in the index only once its credentials and account are
+ * written, a failed write leaves nothing behind, and usernames that do not fit the transaction
+ * log are refused at once. The customer index keeps its entries across a restart.
+ */
+public class ManagerTest {
+
+    @BeforeClass
+    public static void setUpDatabase() throws IOException {
+        TestDatabase.install();
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Test
+    public void aNewCustomerIsIndexedWithAHundredDollars() throws IOException {
+        Manager.addCustomer("manager0", "password");
+        assertTrue(Manager.getUsernames().contains("manager0"));
+        assertTrue(Database.getCredentials().verify("manager0", "password", "Customer"));
+        assertEquals(Money.dollars(100), (long) Database.getService().balance("manager0").join());
+        assertEquals(Money.dollars(100), Database.getStore().read("manager0").getBalance());
+    }
+
+    @Test
+    public void anOverlongUsernameIsRefused() {
+        char[] accents = new char[51]; // 51 characters, but 102 bytes of UTF-8
+        Arrays.fill(accents, 'é');
+        for (String username : new String[] {new String(accents), new String(new char[101]).replace('\0', 'a')}) {
+            try {
+                Manager.addCustomer(username, "password");
+                fail("Expected " + username + " to be refused.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            assertFalse(Manager.getUsernames().contains(username));
+            assertFalse(Database.getCredentials().contains(username));
+        }
+        Manager.addCustomer(new String(new char[100]).replace('\0', 'a'), "password");
+    }
+
+    @Test
+    public void aFailedWriteLeavesNoCustomerBehind() throws IOException {
+        // A directory where the account file would go makes the store write fail
+        File blocker = new File(Database.DATABASE_DIR, "manager1");
+        assertTrue(blocker.mkdir());
+        Files.write(new File(blocker, "file").toPath(), new byte[1]);
+        try {
+            Manager.addCustomer("manager1", "password");
+            fail("Expected the write to fail.");
+        } catch (UncheckedIOException e) {
+            // Expected
+        } finally {
+            TestDatabase.delete(blocker);
+        }
+        assertFalse(Manager.getUsernames().contains("manager1"));
+        assertFalse(Database.getCredentials().contains("manager1"));
+        assertEquals(null, Database.getCache().getIfPresent("manager1"));
+
+        Manager.addCustomer("manager1", "password");
+        assertTrue(Manager.getUsernames().contains("manager1"));
+    }
+
+    @Test
+    public void theIndexKeepsItsEntriesAcrossARestart() throws IOException {
+        File dir = TestDatabase.create();
+        try {
+            FileAccountStore store = new FileAccountStore(dir);
+            CustomerIndex index = CustomerIndex.open(dir, store);
+            index.add("alice");
+            index.add("bob");
+            index.add("carol");
+            index.remove("bob");
+            index.close();
+
+            index = CustomerIndex.open(dir, store);
+            assertEquals(Arrays.asList("alice", "carol"), index.page("", null, 10));
+            index.close();
+        } finally {
+            TestDatabase.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Transfers between customers never create or destroy money: not when many run at once over
+ * random pairs, and not when the transaction log fails to write one.
+ */
+public class MoneyConservationTest {
+
+    private static final int CUSTOMERS = 20;
+    private static final String PREFIX = "conserve";
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        TestDatabase.install();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Manager.addCustomer(PREFIX + i, "password");
+        }
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Test
+    public void concurrentTransfersConserveTheTotal() throws Exception {
+        long before = total();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            results.add(threads.submit(() -> {
+                Random random = new Random(seed);
+                int done = 0;
+                for (int i = 0; i < 500; i++) {
+                    int from = random.nextInt(CUSTOMERS);
+                    int to = (from + 1 + random.nextInt(CUSTOMERS - 1)) % CUSTOMERS;
+                    long amount = Money.dollars(1 + random.nextInt(60));
+                    if (Database.getService().transfer(PREFIX + from, PREFIX + to, amount).join()) {
+                        done++;
+                    }
+                }
+                return done;
+            }));
+        }
+        int done = 0;
+        for (Future<Integer> result : results) {
+            done += result.get();
+        }
+        threads.shutdown();
+        assertTrue("No transfer went through.", done > 0);
+        assertEquals(before, total());
+
+        Database.getLog().checkpoint();
+        long stored = 0;
+        for (int i = 0; i < CUSTOMERS; i++) {
+            stored += Database.getStore().read(PREFIX + i).getBalance();
+        }
+        assertEquals(before, stored);
+    }
+
+    @Test
+    public void aFailedWriteLeavesNoTransferBehind() throws IOException {
+        Customer from = Database.getCache().get(PREFIX + 0);
+        Customer to = Database.getCache().get(PREFIX + 1);
+        from.deposit(Money.dollars(50));
+        long fromBalance = from.getBalance();
+        long toBalance = to.getBalance();
+        TransactionLog log = Database.getLog();
+        CustomerRecord fromImage = log.pendingImage(from.getUsername());
+        CustomerRecord toImage = log.pendingImage(to.getUsername());
+        try {
+            log.writeTransfer(from, to, new TransactionLog.Transfer() {
+                @Override
+                public long amount() {
+                    return Money.dollars(10);
+                }
+
+                @Override
+                public boolean debit() {
+                    return from.getAccount().withdraw(amount(), balance -> 0);
+                }
+
+                @Override
+                public void credit() {
+                    throw new IllegalStateException("The credit fails.");
+                }
+
+                @Override
+                public void refund() {
+                    from.getAccount().deposit(amount());
+                }
+            });
+            fail("The failed credit was not reported.");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(fromBalance, from.getBalance());
+        assertEquals(toBalance, to.getBalance());
+        assertSame(fromImage, log.pendingImage(from.getUsername()));
+        assertSame(toImage, log.pendingImage(to.getUsername()));
+        assertTrue(from.transfer(to, Money.dollars(10)));
+        assertEquals(fromBalance + toBalance, from.getBalance() + to.getBalance());
+    }
+
+    private static long total() {
+        long total = 0;
+        for (int i = 0; i < CUSTOMERS; i++) {
+            total += Database.getCache().get(PREFIX + i).getBalance();
+        }
+        return total;
+    }
+}
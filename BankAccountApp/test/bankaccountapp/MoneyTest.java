@@ -0,0 +1,86 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Money parses plain amounts and legacy doubles to cents, formats cents with two decimals so that
+ * every amount parses back to itself, refuses text that is not an amount or does not fit, and
+ * never lets arithmetic overflow silently.
+ */
+public class MoneyTest {
+
+    @Test
+    public void plainAmountsAreParsedToCents() {
+        assertEquals(5000, Money.parse("50"));
+        assertEquals(5050, Money.parse("50.5"));
+        assertEquals(-1234, Money.parse("-12.34"));
+        assertEquals(105, Money.parse("+1.05"));
+        assertEquals(7, Money.parse("0.07"));
+        assertEquals(50, Money.parse(".5"));
+        assertEquals(0, Money.parse("-0"));
+        assertEquals(82000, Money.parse(new StringBuilder("820")));
+    }
+
+    @Test
+    public void legacyDoublesAndLongFractionsAreRounded() {
+        assertEquals(10000, Money.parse("100.0"));
+        assertEquals(Money.dollars(10_000_000), Money.parse("1.0E7"));
+        assertEquals(13, Money.parse("0.125"));
+        assertEquals(-13, Money.parse("-0.125"));
+        assertEquals(12, Money.parse("0.1249"));
+        assertEquals(0, Money.parse("1e-9"));
+        assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+    }
+
+    @Test
+    public void invalidAmountsAreRefused() {
+        String tooLong = "1" + new String(new char[64]).replace('\0', '0');
+        for (String text : new String[] {null, "", "-", ".", "abc", "1.2.3", "12a", "1,000", "NaN", "Infinity",
+                "1e99999999", "100000000000000000", "92233720368547758.08", tooLong}) {
+            try {
+                Money.parse(text);
+                fail("Expected \"" + text + "\" to be refused.");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void formattedAmountsHaveTwoDecimals() {
+        assertEquals("820.00", Money.format(82000));
+        assertEquals("0.07", Money.format(7));
+        assertEquals("0.10", Money.format(10));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("-1.05", Money.format(-105));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+        assertEquals("balance 12.34", Money.appendTo(new StringBuilder("balance "), 1234).toString());
+    }
+
+    @Test
+    public void formattedAmountsParseBack() {
+        long[] amounts = {0, 1, 9, 10, 99, 100, 82000, -1, -99, -100, 123_456_789, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long cents : amounts) {
+            assertEquals(cents, Money.parse(Money.format(cents)));
+        }
+    }
+
+    @Test
+    public void arithmeticOverflowIsAnError() {
+        assertEquals(Money.parse("12.34") + Money.dollars(1), Money.add(1234, 100));
+        assertEquals(-66, Money.subtract(34, 100));
+        for (Runnable overflow : new Runnable[] {() -> Money.dollars(Long.MAX_VALUE / 10),
+                () -> Money.add(Long.MAX_VALUE, 1), () -> Money.subtract(Long.MIN_VALUE, 1)}) {
+            try {
+                overflow.run();
+                fail("Expected an overflow.");
+            } catch (ArithmeticException e) {
+                // Expected
+            }
+        }
+    }
+}
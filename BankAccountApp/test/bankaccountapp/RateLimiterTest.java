@@ -0,0 +1,94 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+/**
+ * The RateLimiter accepts a full bucket at once, then rejects debits until the configured rate
+ * has refilled a token, per account and for the whole bank.
+ */
+public class RateLimiterTest {
+
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void aFullBucketIsAcceptedAndTheNextDebitRejected() {
+        RateLimiter limiter = new RateLimiter(10, 5, 0, 1, metrics);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("alice");
+        }
+        assertRejected(limiter, "alice");
+        assertEquals(5, metrics.counter("limiter.accepted").sum());
+        assertEquals(1, metrics.counter("limiter.rejected.account").sum());
+    }
+
+    @Test
+    public void aTokenComesBackAfterTheInterval() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(10, 1, 0, 1, metrics);
+        limiter.acquire("alice");
+        assertRejected(limiter, "alice");
+        Thread.sleep(150);
+        limiter.acquire("alice");
+        assertRejected(limiter, "alice");
+    }
+
+    @Test
+    public void accountsHaveBucketsOfTheirOwn() {
+        RateLimiter limiter = new RateLimiter(10, 1, 0, 1, metrics);
+        limiter.acquire("alice");
+        assertRejected(limiter, "alice");
+        limiter.acquire("bob");
+    }
+
+    @Test
+    public void theBankBucketLimitsEveryAccount() {
+        RateLimiter limiter = new RateLimiter(0, 1, 10, 3, metrics);
+        limiter.acquire("alice");
+        limiter.acquire("bob");
+        limiter.acquire("carol");
+        assertRejected(limiter, "dave");
+        assertEquals(1, metrics.counter("limiter.rejected.global").sum());
+    }
+
+    @Test
+    public void aRateOfZeroDisablesTheLimit() {
+        RateLimiter limiter = new RateLimiter(0, 1, 0, 1, metrics);
+        for (int i = 0; i < 10_000; i++) {
+            limiter.acquire("alice");
+        }
+    }
+
+    @Test
+    public void debitsAreAcceptedAtTheConfiguredRate() throws InterruptedException {
+        int rate = 50;
+        int burst = 5;
+        RateLimiter limiter = new RateLimiter(rate, burst, 0, 1, metrics);
+        long start = System.nanoTime();
+        int accepted = 0;
+        while (System.nanoTime() - start < 1_000_000_000L) {
+            try {
+                limiter.acquire("alice");
+                accepted++;
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(1);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double expected = burst + rate * seconds;
+        assertTrue("Accepted " + accepted + " debits, expected about " + expected + ".",
+                Math.abs(accepted - expected) <= 2);
+    }
+
+    private static void assertRejected(RateLimiter limiter, String username) {
+        try {
+            limiter.acquire(username);
+            fail("Expected " + username + " to be throttled.");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+}
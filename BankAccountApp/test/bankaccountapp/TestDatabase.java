@@ -0,0 +1,80 @@
+package bankaccountapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Throwaway databases for the tests.
+ *
+ * Database reads its directory once per JVM, so every test that goes through Database, Customer
+ * or Manager shares the one installed by the first of them and keeps to usernames of its own. Each
+ * test class runs in a JVM of its own, and the last thing a class that installed a database does is
+ * uninstall it.
+ */
+final class TestDatabase {
+
+    private static File installed;
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Makes a new temporary directory the one used by Database, unless a test did so already, with
+     * cheap password hashing and no rate limits. Must be called before Database is used.
+     *
+     * @return the database directory
+     */
+    static synchronized File install() throws IOException {
+        if (installed == null) {
+            installed = create();
+            System.setProperty("bank.database.dir", installed.getPath() + File.separator);
+            System.setProperty("bank.auth.iterations", "1000");
+            System.setProperty("bank.limit.accountRate", "0");
+            System.setProperty("bank.limit.globalRate", "0");
+        }
+        return installed;
+    }
+
+    /**
+     * Closes what Database opened in the installed directory and deletes the directory, if a test
+     * installed one. Database cannot be used in this JVM afterwards.
+     */
+    static synchronized void uninstall() throws IOException {
+        if (installed != null) {
+            Database.getPipeline().close();
+            Database.getLog().close();
+            Database.getHistory().close();
+            Database.getCredentials().close();
+            Database.getStore().close();
+            delete(installed);
+            installed = null;
+        }
+    }
+
+    /**
+     * @return a new, empty temporary directory
+     */
+    static File create() throws IOException {
+        return Files.createTempDirectory("bank-test").toFile();
+    }
+
+    /**
+     * Deletes a directory created by create, with everything in it.
+     *
+     * @param dir the directory
+     */
+    static void delete(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+        Files.delete(dir.toPath());
+    }
+}
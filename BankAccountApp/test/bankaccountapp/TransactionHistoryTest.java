@@ -0,0 +1,99 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Queries of the transaction history over ranges that start and end inside segments and span
+ * several of them: a statement export holds exactly the transactions that between returns.
+ */
+public class TransactionHistoryTest {
+
+    private static final String USERNAME = "history";
+
+    private File dir;
+    private TransactionHistory history;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestDatabase.create();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (history != null) {
+            history.close();
+        }
+        TestDatabase.delete(dir);
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Test
+    public void aStatementStartingMidSegmentHasEveryTransaction() throws IOException {
+        history = new TransactionHistory(dir, 4);
+        appendTen();
+        List<Transaction> expected = history.between(USERNAME, 1035, 2000, 100);
+        assertEquals(6, expected.size());
+        assertStatement(expected, 1035, 2000);
+    }
+
+    @Test
+    public void statementsMatchQueriesAcrossSegments() throws IOException {
+        history = new TransactionHistory(dir, 4, 4); // Segments start at 1000, 1040 and 1080
+        appendTen();
+        for (long from = 990; from <= 1100; from += 5) {
+            for (long to = from; to <= 1100; to += 15) {
+                assertStatement(history.between(USERNAME, from, to, Integer.MAX_VALUE), from, to);
+            }
+        }
+        assertEquals(3, history.between(USERNAME, 1025, 2000, 3).size());
+        assertEquals(1030, history.between(USERNAME, 1025, 2000, 3).get(0).getTime());
+        assertEquals(1040, history.last(USERNAME, 6).get(0).getTime());
+    }
+
+    @Test
+    public void aChangeIsInTheHistoryOnceItIsDurable() throws IOException {
+        TestDatabase.install();
+        Manager.addCustomer(USERNAME, "password");
+        long balance = Database.getService().balance(USERNAME).join();
+        for (int i = 1; i <= 20; i++) {
+            balance = Database.getService().deposit(USERNAME, i).join();
+            List<Transaction> last = Database.getHistory().last(USERNAME, 1);
+            assertEquals(1, last.size());
+            assertEquals(i, last.get(0).getAmount());
+            assertEquals(balance, last.get(0).getBalance());
+        }
+        assertEquals(20, Database.getHistory().last(USERNAME, 100).size());
+    }
+
+    /**
+     * Appends ten deposits at 1000, 1010 ... 1090.
+     */
+    private void appendTen() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            history.append(USERNAME, 1000 + 10 * i, Transaction.Type.DEPOSIT, 100, 0, 100 * (i + 1));
+        }
+    }
+
+    private void assertStatement(List<Transaction> expected, long from, long to) throws IOException {
+        StringBuilder csv = new StringBuilder("time,type,amount,fee,balance").append(System.lineSeparator());
+        for (Transaction transaction : expected) {
+            transaction.appendTo(csv).append(System.lineSeparator());
+        }
+        StringWriter out = new StringWriter();
+        assertEquals(expected.size(), history.exportStatement(USERNAME, from, to, out));
+        assertEquals("Statement from " + from + " to " + to, csv.toString(), out.toString());
+    }
+}
@@ -0,0 +1,278 @@
+package bankaccountapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Recovery of the transaction log after a crash. A crash is simulated by copying the database
+ * directory while the log is open, after every record of interest was synced, and opening the
+ * log on the copy; tearing the tail of the copied segment simulates a crash in the middle of a
+ * write.
+ */
+public class TransactionLogRecoveryTest {
+
+    private static final int CUSTOMERS = 10;
+    private static final String PREFIX = "recover";
+
+    private File dir;
+    private File crashed;
+    private FileAccountStore store;
+    private TransactionLog log;
+
+    @BeforeClass
+    public static void setUpCustomers() throws IOException {
+        TestDatabase.install();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Manager.addCustomer(PREFIX + i, "password");
+        }
+    }
+
+    @AfterClass
+    public static void uninstallDatabase() throws IOException {
+        TestDatabase.uninstall();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestDatabase.create();
+        crashed = TestDatabase.create();
+        store = new FileAccountStore(dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        TestDatabase.delete(dir);
+        TestDatabase.delete(crashed);
+    }
+
+    @Test
+    public void syncedChangesSurviveACrash() throws IOException {
+        log = TransactionLog.open(dir, store);
+        Map<String, Long> expected = writeRandomChanges(200);
+        FileAccountStore recovered = recover();
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), (long) entry.getValue(), recovered.read(entry.getKey()).getBalance());
+        }
+    }
+
+    @Test
+    public void aTornRecordAtTheTailIsIgnored() throws IOException {
+        log = TransactionLog.open(dir, store);
+        Customer customer = customer(0);
+        write(customer, 100);
+        write(customer, 200);
+        write(customer, 300);
+        copyToCrashed();
+        tearLastSegment(10);
+        assertEquals(200, recoverCopied().read(customer.getUsername()).getBalance());
+    }
+
+    @Test
+    public void aHalfWrittenTransferIsLostWhole() throws IOException {
+        log = TransactionLog.open(dir, store);
+        Customer from = customer(1);
+        Customer to = customer(2);
+        write(from, 1000);
+        write(to, 1000);
+        log.sync(log.writeTransfer(from, to, transfer(from, to, 400)));
+        copyToCrashed();
+        tearLastSegment(1);
+        FileAccountStore recovered = recoverCopied();
+        assertEquals(1000, recovered.read(from.getUsername()).getBalance());
+        assertEquals(1000, recovered.read(to.getUsername()).getBalance());
+    }
+
+    @Test
+    public void aWholeTransferSurvivesACrash() throws IOException {
+        log = TransactionLog.open(dir, store);
+        Customer from = customer(1);
+        Customer to = customer(2);
+        write(from, 1000);
+        write(to, 1000);
+        log.sync(log.writeTransfer(from, to, transfer(from, to, 400)));
+        FileAccountStore recovered = recover();
+        assertEquals(600, recovered.read(from.getUsername()).getBalance());
+        assertEquals(1400, recovered.read(to.getUsername()).getBalance());
+    }
+
+    @Test
+    public void aDeletionSurvivesACrash() throws IOException {
+        log = TransactionLog.open(dir, store);
+        Customer customer = customer(3);
+        write(customer, 500);
+        log.checkpoint();
+        log.appendDelete(customer.getUsername());
+        assertNull(recover().read(customer.getUsername()));
+    }
+
+    @Test
+    public void backgroundCheckpointsKeepEveryChange() throws IOException {
+        log = TransactionLog.open(dir, store, 8);
+        Random random = new Random(1);
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            Customer customer = customer(random.nextInt(CUSTOMERS));
+            long balance = random.nextInt(1_000_000);
+            write(customer, balance);
+            expected.put(customer.getUsername(), balance);
+            assertEquals(balance, latest(customer.getUsername()));
+        }
+        FileAccountStore recovered = recover();
+        log.close();
+        log = null;
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), (long) entry.getValue(), recovered.read(entry.getKey()).getBalance());
+            assertEquals(entry.getKey(), (long) entry.getValue(), store.read(entry.getKey()).getBalance());
+        }
+        assertEquals(1, new File(dir, ".wal").list().length);
+    }
+
+    @Test
+    public void aSecondOpenIsRefusedWhileTheLogIsOpen() throws IOException {
+        log = TransactionLog.open(dir, store);
+        try {
+            TransactionLog.open(dir, store);
+            fail("The log was opened twice.");
+        } catch (IOException e) {
+            // Expected
+        }
+        log.close();
+        log = TransactionLog.open(dir, store);
+    }
+
+    private static Customer customer(int i) {
+        return Database.getCache().get(PREFIX + i);
+    }
+
+    private Map<String, Long> writeRandomChanges(int changes) throws IOException {
+        Random random = new Random(changes);
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < changes; i++) {
+            Customer customer = customer(random.nextInt(CUSTOMERS));
+            long balance = random.nextInt(1_000_000);
+            write(customer, balance);
+            expected.put(customer.getUsername(), balance);
+        }
+        return expected;
+    }
+
+    /**
+     * Logs a customer at a balance and waits until the record is durable.
+     */
+    private void write(Customer customer, long balance) throws IOException {
+        customer.getAccount().setBalance(balance);
+        log.sync(log.write(customer));
+    }
+
+    private static TransactionLog.Transfer transfer(Customer from, Customer to, long cents) {
+        return new TransactionLog.Transfer() {
+            @Override
+            public long amount() {
+                return cents;
+            }
+
+            @Override
+            public boolean debit() {
+                return from.getAccount().withdraw(cents, balance -> 0);
+            }
+
+            @Override
+            public void credit() {
+                to.getAccount().deposit(cents);
+            }
+
+            @Override
+            public void refund() {
+                from.getAccount().deposit(cents);
+            }
+        };
+    }
+
+    /**
+     * @return the balance of a customer as a reader sees it: the pending image, or else the store
+     */
+    private long latest(String username) throws IOException {
+        CustomerRecord image = log.pendingImage(username);
+        return (image != null ? image : store.read(username)).getBalance();
+    }
+
+    /**
+     * Crashes and recovers in the copy.
+     *
+     * @return the store of the copy after recovery
+     */
+    private FileAccountStore recover() throws IOException {
+        copyToCrashed();
+        return recoverCopied();
+    }
+
+    private FileAccountStore recoverCopied() throws IOException {
+        FileAccountStore recovered = new FileAccountStore(crashed);
+        TransactionLog.open(crashed, recovered).close();
+        return recovered;
+    }
+
+    private void copyToCrashed() throws IOException {
+        copy(dir, crashed);
+    }
+
+    /**
+     * Copies a directory while a checkpoint may be running. The log is copied before the store, so
+     * a segment deleted before it was copied is already in the store copied after it; a file gone
+     * meanwhile is one a crash a moment later would not have found either.
+     */
+    private static void copy(File from, File to) throws IOException {
+        File[] files = from.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparing(file -> !file.isDirectory()));
+        for (File file : files) {
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                if (!target.mkdir()) {
+                    throw new IOException("Cannot create " + target);
+                }
+                copy(file, target);
+            } else {
+                try {
+                    Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (NoSuchFileException e) {
+                    // Deleted meanwhile
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts bytes off the end of the newest segment of the copy.
+     */
+    private void tearLastSegment(int bytes) throws IOException {
+        File[] segments = new File(crashed, ".wal").listFiles();
+        Arrays.sort(segments);
+        try (RandomAccessFile segment = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            segment.setLength(segment.length() - bytes);
+        }
+    }
+}